@@ -168,6 +168,10 @@ public class QmfManagementAgent implements ConfigurationChangeListener, QmfEvent
 
                 _agent.registerObjectClass(org.apache.qpid.server.qmf2.agentdata.Session.getSchema());
 
+                // Index the QmfAgentData by name, so queries such as ['eq', 'name', ['quote', 'myqueue']] don't
+                // need to evaluate the predicate against every Queue, Exchange, Binding etc. in the broker.
+                _agent.addPropertyIndex("name");
+
                 // Initialise QmfAgentData Objects and track changes to the broker Management Objects.
                 registerConfigurationChangeListeners();
             }
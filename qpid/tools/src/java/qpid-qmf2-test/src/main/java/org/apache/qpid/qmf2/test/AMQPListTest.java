@@ -0,0 +1,222 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.test;
+
+// JMS Imports
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+
+// Misc Imports
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+// Need the following to create Messages without a broker
+import org.apache.qpid.client.message.AMQMessageDelegateFactory;
+import org.apache.qpid.client.message.JMSBytesMessage;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.common.AMQPListReader;
+import org.apache.qpid.qmf2.common.AMQPListWriter;
+import org.apache.qpid.qmf2.common.AMQPMessage;
+
+/**
+ * Tests that amqp/list Messages written by AMQPMessage.setList() and by AMQPListWriter are read back unchanged by
+ * AMQPListReader and by AMQPMessage.getList(), including Maps added via addEncoded(), elements larger than the
+ * writer's and the reader's initial buffers, elements that aren't Maps, empty Lists and reuse of the writer after
+ * writeTo(). It doesn't need a broker.
+ */
+public final class AMQPListTest
+{
+    private static int _failures = 0;
+
+    private static void check(final String description, final boolean passed)
+    {
+        System.out.println((passed ? "PASSED: " : "FAILED: ") + description);
+        if (!passed)
+        {
+            _failures++;
+        }
+    }
+
+    /**
+     * Create an empty amqp/list encoded BytesMessage without needing a Session.
+     */
+    private static BytesMessage createMessage()
+    {
+        JMSBytesMessage message = new JMSBytesMessage(AMQMessageDelegateFactory.FACTORY_0_10);
+        AMQPMessage.setContentType(message, "amqp/list");
+        return message;
+    }
+
+    /**
+     * Create a Map with a mix of value types, shaped like a mapEncoded QmfAgentData. The padding properties make
+     * the Map roughly size bytes long when encoded, each is kept well within the str16 limit of 65535 bytes.
+     */
+    private static Map<String, Object> createMap(final int index, final int size)
+    {
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("name", "object-" + index);
+        values.put("index", (long)index);
+        values.put("ratio", index/4.0);
+        values.put("enabled", index%2 == 0);
+        for (int i = 0; i*10000 < size; i++)
+        {
+            char[] padding = new char[Math.min(size - i*10000, 10000)];
+            Arrays.fill(padding, (char)('a' + index%26));
+            values.put("padding" + i, new String(padding));
+        }
+
+        List<Object> list = new ArrayList<Object>();
+        list.add((long)index);
+        list.add("element");
+        values.put("list", list);
+
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("_values", values);
+        map.put("_update_ts", 1000000l*index);
+        return map;
+    }
+
+    /**
+     * Read all the elements of an amqp/list Message with an AMQPListReader.
+     */
+    private static List<Object> read(final BytesMessage message) throws JMSException
+    {
+        message.reset();
+        AMQPListReader reader = new AMQPListReader(message);
+        List<Object> list = new ArrayList<Object>();
+        while (reader.hasNext())
+        {
+            list.add(reader.next());
+        }
+        return (reader.size() == list.size()) ? list : null;
+    }
+
+    public static void main(String[] args)
+    {
+        System.out.println("Running AMQPListTest, this tests amqp/list round trips");
+
+        try
+        {
+            // Lists written by AMQPMessage.setList().
+            List<Object> expected = new ArrayList<Object>();
+            int[] sizes = {0, 10, 100, 2000, 20000, 100000, 5};
+            for (int i = 0; i < sizes.length; i++)
+            {
+                expected.add(createMap(i, sizes[i]));
+            }
+            BytesMessage message = createMessage();
+            AMQPMessage.setList(message, expected);
+            check("AMQPListReader reads back setList()", expected.equals(read(message)));
+            message.reset();
+            check("AMQPMessage.getList() reads back setList()", expected.equals(AMQPMessage.getList(message)));
+
+            // Elements that aren't Maps.
+            expected = new ArrayList<Object>();
+            expected.add("element");
+            expected.add(42l);
+            expected.add(1.5);
+            expected.add(true);
+            expected.add(Arrays.asList((Object)1l, "two"));
+            expected.add(Arrays.asList((Object)createMap(2, 10), createMap(3, 10)));
+            expected.add(new HashMap<String, Object>());
+            expected.add(UUID.randomUUID());
+            expected.add(null);
+            expected.add(createMap(1, 10));
+            message = createMessage();
+            AMQPMessage.setList(message, expected);
+            check("elements that aren't Maps round trip", expected.equals(read(message)));
+            message.reset();
+            check("AMQPMessage.getList() of elements that aren't Maps", expected.equals(AMQPMessage.getList(message)));
+
+            // An empty List.
+            message = createMessage();
+            AMQPMessage.setList(message, new ArrayList<Object>());
+            List<Object> list = read(message);
+            check("empty setList() round trip", list != null && list.isEmpty());
+
+            // Small Maps, Maps larger than the initial buffers and Maps added already encoded.
+            expected.clear();
+            AMQPListWriter writer = new AMQPListWriter(16);
+            for (int i = 0; i < sizes.length; i++)
+            {
+                Map<String, Object> map = createMap(i, sizes[i]);
+                expected.add(map);
+                if (i%2 == 0)
+                {
+                    writer.add(map);
+                }
+                else
+                {
+                    writer.addEncoded(AMQPListWriter.encode(map));
+                }
+            }
+            check("count() counts elements added", writer.count() == sizes.length);
+            check("size() includes the large elements", writer.size() > 120000);
+
+            message = createMessage();
+            writer.writeTo(message);
+            check("writeTo() resets the writer", writer.count() == 0 && writer.size() == 0);
+            check("AMQPListReader reads back what was written", expected.equals(read(message)));
+
+            message.reset();
+            check("AMQPMessage.getList() reads back what was written", expected.equals(AMQPMessage.getList(message)));
+
+            // The writer can be reused after writeTo().
+            expected.clear();
+            expected.add(createMap(42, 50));
+            writer.add((Map)expected.get(0));
+            message = createMessage();
+            writer.writeTo(message);
+            check("reused writer writes only the new elements", expected.equals(read(message)));
+
+            // An empty List written by the writer.
+            message = createMessage();
+            writer.writeTo(message);
+            list = read(message);
+            check("empty List round trip", list != null && list.isEmpty());
+
+            // The encoding used by addEncoded() is the same as add()'s.
+            Map<String, Object> map = createMap(7, 300);
+            AMQPListWriter encoded = new AMQPListWriter(16);
+            encoded.addEncoded(AMQPListWriter.encode(map));
+            AMQPListWriter direct = new AMQPListWriter(16);
+            direct.add(map);
+            check("addEncoded() and add() encode the same size", encoded.size() == direct.size());
+            BytesMessage encodedMessage = createMessage();
+            encoded.writeTo(encodedMessage);
+            check("addEncoded() Map round trip", Arrays.asList((Object)map).equals(read(encodedMessage)));
+        }
+        catch (JMSException jmse)
+        {
+            System.out.println("AMQPListTest main(): JMSException: " + jmse.getMessage());
+            _failures++;
+        }
+
+        System.out.println("*** Ending AMQPListTest " +
+                           (_failures == 0 ? "PASSED" : _failures + " FAILED") + " ***");
+        System.exit(_failures == 0 ? 0 : 1);
+    }
+}
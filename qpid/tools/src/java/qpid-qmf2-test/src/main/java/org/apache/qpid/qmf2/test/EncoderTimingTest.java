@@ -0,0 +1,189 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.test;
+
+// JMS Imports
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+
+// Misc Imports
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Need the following to create Messages without a broker and to encode them the old way
+import org.apache.qpid.client.message.AMQMessageDelegateFactory;
+import org.apache.qpid.client.message.JMSBytesMessage;
+import org.apache.qpid.transport.codec.BBEncoder;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.common.AMQPMessage;
+
+/**
+ * A simple timing harness comparing AMQPMessage.setList(), which reuses a per-thread encoder and writes straight
+ * from its buffer, with the way setList() used to work, which created a new BBEncoder(1024) for every Message and
+ * copied the encoded List into an intermediate byte[] before writing it to the Message.
+ * <p>
+ * It doesn't need a broker. Lists resembling query responses of a few sizes are encoded into new BytesMessages by
+ * both methods, alternating several rounds of each after a warm up, and the mean time per Message is displayed.
+ * <p>
+ * Usage: EncoderTimingTest [iterations]
+ */
+public final class EncoderTimingTest
+{
+    private static final int ROUNDS = 5;
+
+    /**
+     * Create a List of objectCount Maps, each shaped like a mapEncoded QmfAgentData with a dozen properties.
+     */
+    private static List<Object> createList(final int objectCount)
+    {
+        List<Object> list = new ArrayList<Object>(objectCount);
+        for (int i = 0; i < objectCount; i++)
+        {
+            Map<String, Object> values = new HashMap<String, Object>();
+            values.put("name", "queue-" + i);
+            values.put("durable", Boolean.TRUE);
+            values.put("autoDelete", Boolean.FALSE);
+            values.put("msgDepth", (long)i);
+            values.put("msgTotalEnqueues", (long)i*1000);
+            values.put("msgTotalDequeues", (long)i*999);
+            values.put("byteDepth", (long)i*512);
+            values.put("consumerCount", i%10);
+            values.put("bindingCount", i%3);
+            values.put("flowStopped", Boolean.FALSE);
+            values.put("arguments", new HashMap<String, Object>());
+            values.put("vhostRef", "org.apache.qpid.broker:vhost:org.apache.qpid.broker:broker:amqp-broker,/");
+
+            Map<String, Object> schemaId = new HashMap<String, Object>();
+            schemaId.put("_package_name", "org.apache.qpid.broker");
+            schemaId.put("_class_name", "queue");
+
+            Map<String, Object> objectId = new HashMap<String, Object>();
+            objectId.put("_agent_name", "apache.org:qpidd:41b4d3a6");
+            objectId.put("_object_name", "org.apache.qpid.broker:queue:queue-" + i);
+            objectId.put("_agent_epoch", 1L);
+
+            Map<String, Object> object = new HashMap<String, Object>();
+            object.put("_values", values);
+            object.put("_schema_id", schemaId);
+            object.put("_object_id", objectId);
+            object.put("_update_ts", System.nanoTime());
+            object.put("_create_ts", System.nanoTime());
+            object.put("_delete_ts", 0L);
+            list.add(object);
+        }
+        return list;
+    }
+
+    /**
+     * Create an empty amqp/list encoded BytesMessage without needing a Session.
+     */
+    private static BytesMessage createMessage()
+    {
+        JMSBytesMessage message = new JMSBytesMessage(AMQMessageDelegateFactory.FACTORY_0_10);
+        AMQPMessage.setContentType(message, "amqp/list");
+        return message;
+    }
+
+    /**
+     * Encode the List the way AMQPMessage.setList() used to, with a new encoder and an intermediate copy.
+     */
+    private static void setListWithNewEncoder(final BytesMessage message, final List<Object> list)
+        throws JMSException
+    {
+        BBEncoder encoder = new BBEncoder(1024);
+        encoder.writeList(list);
+        ByteBuffer buf = encoder.segment();
+        byte[] data = new byte[buf.limit()];
+        buf.get(data);
+        message.writeBytes(data);
+    }
+
+    /**
+     * Time iterations of encoding the List into a new Message by one of the two methods.
+     * @return the mean time per Message in nanoseconds.
+     */
+    private static double time(final List<Object> list, final int iterations, final boolean threadEncoder)
+        throws JMSException
+    {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++)
+        {
+            BytesMessage message = createMessage();
+            if (threadEncoder)
+            {
+                AMQPMessage.setList(message, list);
+            }
+            else
+            {
+                setListWithNewEncoder(message, list);
+            }
+        }
+        return (double)(System.nanoTime() - start)/iterations;
+    }
+
+    public static void main(String[] args)
+    {
+        System.out.println("Running EncoderTimingTest, this compares AMQPMessage.setList() with the previous encoding");
+
+        int iterations = (args.length == 1) ? Integer.parseInt(args[0]) : 20000;
+        int[] sizes = {1, 10, 100, 1000};
+
+        try
+        {
+            for (int size : sizes)
+            {
+                List<Object> list = createList(size);
+                int count = Math.max(iterations/size, 50);
+
+                // Warm up both methods so that both are compiled before they are timed.
+                time(list, count, true);
+                time(list, count, false);
+
+                double threadEncoder = 0;
+                double newEncoder = 0;
+                for (int round = 0; round < ROUNDS; round++)
+                {
+                    threadEncoder += time(list, count, true);
+                    newEncoder += time(list, count, false);
+                }
+                threadEncoder /= ROUNDS;
+                newEncoder /= ROUNDS;
+
+                BytesMessage message = createMessage();
+                AMQPMessage.setList(message, list);
+                message.reset();
+                System.out.printf("%5d objects (%8d bytes): per-thread encoder %10.0f ns, " +
+                                  "new BBEncoder(1024) + copy %10.0f ns, ratio %.2f%n",
+                                  size, message.getBodyLength(), threadEncoder, newEncoder, newEncoder/threadEncoder);
+            }
+        }
+        catch (JMSException jmse)
+        {
+            System.out.println("EncoderTimingTest main(): JMSException: " + jmse.getMessage());
+        }
+
+        System.out.println("*** Ending EncoderTimingTest ***");
+    }
+}
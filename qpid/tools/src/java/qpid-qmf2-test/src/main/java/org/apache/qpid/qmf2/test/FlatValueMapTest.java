@@ -0,0 +1,282 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.test;
+
+// Misc Imports
+import java.util.HashMap;
+import java.util.Map;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.agent.QmfAgentData;
+import org.apache.qpid.qmf2.common.ObjectId;
+import org.apache.qpid.qmf2.common.QmfType;
+import org.apache.qpid.qmf2.common.SchemaObjectClass;
+import org.apache.qpid.qmf2.common.SchemaProperty;
+
+/**
+ * Tests the FlatValueMap that holds the properties of a QmfAgentData whose schema describes its properties. It
+ * checks that values keep their types as they move between the primitive/object slots and the extra values, that
+ * incValue() and decValue() update them correctly, including from several threads at once, that mapEncode() is
+ * the same as it would be for a HashMap and that mapEncodeChanges() only reports real changes. It also checks that
+ * the object can be encoded while other threads set and increment its properties. It doesn't need a broker.
+ */
+public final class FlatValueMapTest
+{
+    private static final int THREADS = 4;
+    private static final int INCREMENTS = 100000;
+
+    private static int _failures = 0;
+    private static volatile Throwable _thrown = null;
+
+    private static void check(final String description, final boolean passed)
+    {
+        System.out.println((passed ? "PASSED: " : "FAILED: ") + description);
+        if (!passed)
+        {
+            _failures++;
+        }
+    }
+
+    /**
+     * Wait until the millisecond clock used for modification times has moved on, then return the current time in
+     * nanoseconds since the epoch, so that changes made after this returns are at or after the returned time and
+     * changes made before it are strictly before it.
+     */
+    private static long nextTime()
+    {
+        long start = System.currentTimeMillis();
+        while (System.currentTimeMillis() == start)
+        {
+            try
+            {
+                Thread.sleep(1);
+            }
+            catch (InterruptedException ie)
+            {
+            }
+        }
+        return System.currentTimeMillis()*1000000l;
+    }
+
+    /**
+     * Wait for all the threads to finish.
+     */
+    private static void join(final Thread[] threads)
+    {
+        for (Thread thread : threads)
+        {
+            try
+            {
+                thread.join();
+            }
+            catch (InterruptedException ie)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        System.out.println("Running FlatValueMapTest, this tests the property slots of QmfAgentData");
+
+        SchemaObjectClass schema = new SchemaObjectClass("org.apache.qpid.qmf2.test", "flat");
+        try
+        {
+            schema.addProperty(new SchemaProperty("count", QmfType.TYPE_INT));
+            schema.addProperty(new SchemaProperty("ratio", QmfType.TYPE_FLOAT));
+            schema.addProperty(new SchemaProperty("name", QmfType.TYPE_STRING));
+        }
+        catch (Exception e)
+        {
+            System.out.println("FlatValueMapTest main(): Exception creating schema: " + e.getMessage());
+            System.exit(1);
+        }
+
+        QmfAgentData object = new QmfAgentData(schema);
+        object.setObjectId(new ObjectId("test", "flat-1", 0));
+        check("new object has no values", !object.hasValue("count") && object.getValue("count") == null);
+
+        // A Long in a TYPE_INT property is held in its long slot.
+        object.setValue("count", 5L);
+        check("Long stored in long slot", Long.valueOf(5).equals(object.getValue("count")));
+        object.incValue("count", 2);
+        check("incValue() updates long slot", Long.valueOf(7).equals(object.getValue("count")));
+
+        // An Integer in a TYPE_INT property moves to the extra values and keeps its type.
+        object.setValue("count", 9);
+        check("Integer held as extra value", Integer.valueOf(9).equals(object.getValue("count")));
+
+        // incValue() of an extra value sets a Long, which moves it back into the slot.
+        object.incValue("count", 1);
+        check("incValue() of extra value moves it to long slot", Long.valueOf(10).equals(object.getValue("count")));
+        object.decValue("count", 3);
+        check("decValue() updates long slot", Long.valueOf(7).equals(object.getValue("count")));
+        object.setValue("count", 10L);
+
+        // Doubles, Strings and null values.
+        object.setValue("ratio", 1.5);
+        object.incValue("ratio", 0.5);
+        object.decValue("ratio", 0.25);
+        check("incValue() and decValue() update double slot", Double.valueOf(1.75).equals(object.getValue("ratio")));
+        object.setValue("name", "first");
+        check("String stored in object slot", "first".equals(object.getValue("name")));
+        object.setValue("name", null);
+        check("null held as extra value", object.hasValue("name") && object.getValue("name") == null);
+        object.setValue("name", "second");
+        check("object slot reused after null", "second".equals(object.getValue("name")));
+
+        // Properties that aren't in the schema are extra values.
+        object.setValue("other", "extra");
+        check("property not in schema held as extra value", "extra".equals(object.getValue("other")));
+
+        Map<String, Object> expected = new HashMap<String, Object>();
+        expected.put("count", 10L);
+        expected.put("ratio", 1.75);
+        expected.put("name", "second");
+        expected.put("other", "extra");
+        Map<String, Object> values = (Map<String, Object>)object.mapEncode().get("_values");
+        check("mapEncode() values match HashMap", expected.equals(new HashMap<String, Object>(values)) &&
+              values.equals(expected) && values.hashCode() == expected.hashCode());
+
+        // Lock free increments from several threads mustn't lose updates.
+        final QmfAgentData counted = new QmfAgentData(schema);
+        counted.setValue("count", 0L);
+        counted.setValue("ratio", 0.0);
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++)
+        {
+            threads[i] = new Thread()
+            {
+                public void run()
+                {
+                    for (int j = 0; j < INCREMENTS; j++)
+                    {
+                        counted.incValue("count", 2);
+                        counted.decValue("count", 1);
+                        counted.incValue("ratio", 1.0);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        join(threads);
+        check("concurrent incValue() and decValue() lose no updates",
+              Long.valueOf(THREADS*INCREMENTS).equals(counted.getValue("count")) &&
+              Double.valueOf(THREADS*INCREMENTS).equals(counted.getValue("ratio")));
+
+        // Encoding the object and asking for its changes while other threads move properties between slots and
+        // extra values, add and remove extra values and increment a counter.
+        final QmfAgentData shared = new QmfAgentData(schema);
+        shared.setObjectId(new ObjectId("test", "flat-2", 0));
+        shared.setValue("count", 0L);
+        threads = new Thread[THREADS + 2];
+        threads[0] = new Thread()
+        {
+            public void run()
+            {
+                for (int i = 0; i < INCREMENTS; i++)
+                {
+                    shared.setValue("ratio", (i%2 == 0) ? (Object)Double.valueOf(i) : Integer.valueOf(i));
+                    shared.setValue("name", (i%3 == 0) ? null : "name-" + i);
+                    shared.setValue("other" + i%10, i);
+                }
+            }
+        };
+        threads[1] = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    for (int i = 0; i < INCREMENTS/100; i++)
+                    {
+                        new HashMap<String, Object>((Map<String, Object>)shared.mapEncode().get("_values"));
+                        shared.mapEncodeChanges(0);
+                    }
+                }
+                catch (Throwable t)
+                {
+                    _thrown = t;
+                }
+            }
+        };
+        for (int i = 2; i < threads.length; i++)
+        {
+            threads[i] = new Thread()
+            {
+                public void run()
+                {
+                    for (int j = 0; j < INCREMENTS; j++)
+                    {
+                        shared.incValue("count", 1);
+                    }
+                }
+            };
+        }
+        for (Thread thread : threads)
+        {
+            thread.start();
+        }
+        join(threads);
+        check("encoding while other threads set values doesn't throw", _thrown == null);
+        check("incValue() loses no updates while other properties change",
+              Long.valueOf(THREADS*INCREMENTS).equals(shared.getValue("count")));
+        check("last value set is kept", Integer.valueOf(INCREMENTS - 1).equals(shared.getValue("ratio")) &&
+              shared.hasValue("name") && shared.getValue("name") == null);
+
+        // Setting equal values isn't a change, but changing a slot or an extra value is.
+        long since = nextTime();
+        object.setValue("count", 10L);
+        object.setValue("name", new String("second"));
+        object.setValue("other", "extra");
+        Map<String, Object> delta = object.mapEncodeChanges(since);
+        check("equal values aren't changes", Boolean.TRUE.equals(delta.get("_delta")) &&
+              ((Map)delta.get("_values")).isEmpty());
+
+        object.setValue("ratio", 2.5);
+        object.setValue("other", "changed");
+        delta = object.mapEncodeChanges(since);
+        expected.clear();
+        expected.put("ratio", 2.5);
+        expected.put("other", "changed");
+        check("mapEncodeChanges() returns only changed slot and extra values",
+              Boolean.TRUE.equals(delta.get("_delta")) && expected.equals(delta.get("_values")));
+
+        since = nextTime();
+        object.incValue("count", 0);
+        check("incValue() of zero isn't a change", ((Map)object.mapEncodeChanges(since).get("_values")).isEmpty());
+        object.incValue("count", 1);
+        delta = object.mapEncodeChanges(since);
+        check("incValue() is a change", Long.valueOf(11).equals(((Map)delta.get("_values")).get("count")) &&
+              ((Map)delta.get("_values")).size() == 1);
+
+        // A deleted object can't be expressed as a delta.
+        object.destroy();
+        delta = object.mapEncodeChanges(since);
+        check("mapEncodeChanges() of deleted object is complete", !delta.containsKey("_delta") &&
+              ((Map)delta.get("_values")).size() == 4);
+
+        System.out.println("*** Ending FlatValueMapTest " +
+                           (_failures == 0 ? "PASSED" : _failures + " FAILED") + " ***");
+        System.exit(_failures == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.test;
+
+import javax.jms.Connection;
+
+// Misc Imports
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.agent.QmfAgentData;
+import org.apache.qpid.qmf2.common.QmfEventListener;
+import org.apache.qpid.qmf2.common.QmfException;
+import org.apache.qpid.qmf2.common.QmfType;
+import org.apache.qpid.qmf2.common.SchemaClassId;
+import org.apache.qpid.qmf2.common.SchemaObjectClass;
+import org.apache.qpid.qmf2.common.SchemaProperty;
+import org.apache.qpid.qmf2.common.WorkItem;
+import org.apache.qpid.qmf2.console.Agent;
+import org.apache.qpid.qmf2.console.Console;
+import org.apache.qpid.qmf2.console.ObjectIterator;
+import org.apache.qpid.qmf2.console.QmfConsoleData;
+import org.apache.qpid.qmf2.console.QmfFuture;
+import org.apache.qpid.qmf2.util.ConnectionHelper;
+
+/**
+ * This class tests that a query result larger than the Agent's maximum response size is split into several partial
+ * response messages and that the Console reassembles the complete result whether the objects are retrieved with
+ * getObjects(), getObjectsAsync() or iterateObjects(). Unlike PartialGetObjectsTest, which relies on the broker's
+ * ManagementAgent splitting its responses, this test runs its own QMF2 Agent with a small setMaxResponseSize() so
+ * that it also tests the Agent's side of partial responses. Both the Agent and the Console run in this process.
+ */
+public final class PartialResponseTest implements QmfEventListener
+{
+    private static final int OBJECT_COUNT = 500;
+    private static final int MAX_RESPONSE_SIZE = 4096;
+
+    private org.apache.qpid.qmf2.agent.Agent _agent;
+    private Console _console;
+    private int _failures = 0;
+
+    private void check(final String description, final boolean passed)
+    {
+        System.out.println((passed ? "PASSED: " : "FAILED: ") + description);
+        if (!passed)
+        {
+            _failures++;
+        }
+    }
+
+    /**
+     * Return true if the objects are exactly the objects added to the Agent, each present once.
+     */
+    private boolean isComplete(final List<QmfConsoleData> objects)
+    {
+        Set<Long> indexes = new HashSet<Long>();
+        for (QmfConsoleData object : objects)
+        {
+            indexes.add(object.getLongValue("index"));
+        }
+        return objects.size() == OBJECT_COUNT && indexes.size() == OBJECT_COUNT &&
+               indexes.contains(0l) && indexes.contains((long)OBJECT_COUNT - 1);
+    }
+
+    public PartialResponseTest(String url)
+    {
+        try
+        {
+            System.out.println("*** Starting PartialResponseTest used to test partial query responses ***");
+
+            // Create an Agent managing enough objects that a query for all of them needs many partial responses.
+            SchemaObjectClass schema = new SchemaObjectClass("org.apache.qpid.qmf2.test", "partial");
+            schema.addProperty(new SchemaProperty("index", QmfType.TYPE_INT));
+            schema.addProperty(new SchemaProperty("padding", QmfType.TYPE_STRING));
+            schema.setIdNames("index");
+
+            _agent = new org.apache.qpid.qmf2.agent.Agent(this);
+            _agent.setVendor("apache.org");
+            _agent.setProduct("partialresponsetest");
+            _agent.setMaxResponseSize(MAX_RESPONSE_SIZE);
+            _agent.registerObjectClass(schema);
+
+            char[] padding = new char[100];
+            Arrays.fill(padding, 'x');
+            for (int i = 0; i < OBJECT_COUNT; i++)
+            {
+                QmfAgentData object = new QmfAgentData(schema);
+                object.setValue("index", (long)i);
+                object.setValue("padding", new String(padding));
+                _agent.addObject(object);
+            }
+            _agent.setConnection(ConnectionHelper.createConnection(url, "{reconnect: true}"));
+
+            Connection connection = ConnectionHelper.createConnection(url, "{reconnect: true}");
+            _console = new Console(this);
+            _console.addConnection(connection);
+
+            Agent agent = _console.findAgent(_agent.getName());
+            if (agent == null)
+            {
+                System.out.println("PartialResponseTest Agent " + _agent.getName() + " not found");
+                System.exit(1);
+            }
+
+            SchemaClassId classId = schema.getClassId();
+
+            List<QmfConsoleData> objects = _console.getObjects(classId, Arrays.asList(agent));
+            check("getObjects() returned all " + OBJECT_COUNT + " objects", isComplete(objects));
+
+            // Query twice so that the second query would receive any partial responses left over from the first.
+            objects = _console.getObjects(classId, Arrays.asList(agent));
+            check("getObjects() returned all objects again", isComplete(objects));
+
+            QmfFuture<List<QmfConsoleData>> future = _console.getObjectsAsync(agent, classId);
+            try
+            {
+                objects = future.get();
+                check("getObjectsAsync() returned all objects", isComplete(objects) && !future.isPartial());
+            }
+            catch (Exception e)
+            {
+                check("getObjectsAsync() failed " + e.getMessage(), false);
+            }
+
+            ObjectIterator iterator = _console.iterateObjects(agent, classId);
+            try
+            {
+                objects = new ArrayList<QmfConsoleData>();
+                while (iterator.hasNext())
+                {
+                    objects.add(iterator.next());
+                }
+                check("iterateObjects() returned all objects", isComplete(objects));
+            }
+            finally
+            {
+                iterator.close();
+            }
+
+            objects = _console.getObjects(classId, Arrays.asList(agent));
+            check("getObjects() after iterateObjects() returned all objects", isComplete(objects));
+        }
+        catch (QmfException qmfe)
+        {
+            System.err.println("QmfException " + qmfe.getMessage() + ": PartialResponseTest failed");
+            System.exit(1);
+        }
+    }
+
+    public void onEvent(WorkItem wi)
+    {
+    }
+
+    public static void main(String[] args)
+    {
+        //System.out.println ("Setting log level to FATAL");
+        System.setProperty("amqj.logging.level", "FATAL");
+
+        String url = (args.length == 1) ? args[0] : "localhost";
+        PartialResponseTest test = new PartialResponseTest(url);
+
+        System.out.println("*** Ending PartialResponseTest " +
+                           (test._failures == 0 ? "PASSED" : test._failures + " FAILED") + " ***");
+        System.exit(test._failures == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.test;
+
+// Misc Imports
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.util.TimingWheel;
+
+/**
+ * Tests TimingWheel, which the Console uses to track Agent heartbeat and Subscription lease deadlines. It checks the
+ * tick rounding, the rounds arithmetic for deadlines more than one revolution away, rescheduling and cancelling, and
+ * that keys never expire early or more than a tick late. It doesn't need a broker as advance() is passed the time
+ * explicitly.
+ */
+public final class TimingWheelTest
+{
+    private static final long TICK = 100;
+    private static final int SIZE = 8;
+
+    private static int _failures = 0;
+
+    private static void check(final String description, final boolean passed)
+    {
+        System.out.println((passed ? "PASSED: " : "FAILED: ") + description);
+        if (!passed)
+        {
+            _failures++;
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        System.out.println("Running TimingWheelTest, this tests TimingWheel scheduling and expiry");
+
+        // The wheel's start time is taken when it's constructed, which may be a few ms after t0, so the times used
+        // below are kept well away from tick boundaries.
+        long t0 = System.currentTimeMillis();
+        TimingWheel<String> wheel = new TimingWheel<String>(TICK, SIZE);
+
+        wheel.schedule("a", t0 + 250);                 // Tick 3, in the first revolution.
+        wheel.schedule("b", t0 + 2050);                // Tick 21, slot 5, passing the slot twice first.
+        wheel.schedule("c", t0 + 450);                 // Rescheduled below.
+        wheel.schedule("d", t0 + 650);                 // Cancelled below.
+        check("size() counts scheduled keys", wheel.size() == 4);
+
+        wheel.schedule("c", t0 + 1650);                // Tick 17, slot 1, passing the slot twice first.
+        check("rescheduling doesn't add a key", wheel.size() == 4);
+        check("cancel() of scheduled key", wheel.cancel("d") && wheel.size() == 3);
+        check("cancel() of unscheduled key", !wheel.cancel("d"));
+
+        check("nothing expires before the first deadline", wheel.advance(t0 + 250).isEmpty());
+        List<String> expired = wheel.advance(t0 + 350);
+        check("key expires on its tick", expired.size() == 1 && expired.contains("a") && wheel.size() == 2);
+
+        // Passing tick 5 and tick 13, which map to b's slot, must only count down b's rounds.
+        check("keys in later revolutions don't expire early", wheel.advance(t0 + 1550).isEmpty());
+        expired = wheel.advance(t0 + 1750);
+        check("rescheduled key expires at new deadline", expired.size() == 1 && expired.contains("c"));
+        check("key doesn't expire a revolution early", wheel.advance(t0 + 1950).isEmpty());
+        expired = wheel.advance(t0 + 2150);
+        check("key expires after counting down rounds", expired.size() == 1 && expired.contains("b"));
+        check("wheel empty after all keys expire", wheel.size() == 0);
+
+        // A deadline that has already passed expires on the next tick processed.
+        wheel.schedule("late", t0 - 1000);
+        expired = wheel.advance(t0 + 2250);
+        check("past deadline expires on next tick", expired.size() == 1 && expired.contains("late"));
+
+        // A key can be rescheduled after it expires, which is what the Console does for Agents that turn out to
+        // still be alive.
+        wheel.schedule("a", t0 + 2550);
+        expired = wheel.advance(t0 + 2650);
+        check("expired key can be rescheduled", expired.size() == 1 && expired.contains("a"));
+
+        // Many keys with random deadlines up to several revolutions away, advanced in uneven steps. Each key must
+        // expire at or after its deadline and less than a tick plus a step after it.
+        t0 = System.currentTimeMillis();
+        wheel = new TimingWheel<String>(TICK, SIZE);
+        Random random = new Random(42);
+        Map<String, Long> deadlines = new HashMap<String, Long>();
+        for (int i = 0; i < 1000; i++)
+        {
+            long deadline = t0 + 10 + random.nextInt((int)(TICK*SIZE*5));
+            deadlines.put("key" + i, deadline);
+            wheel.schedule("key" + i, deadline);
+        }
+
+        final long step = 37;
+        boolean early = false;
+        boolean late = false;
+        int count = 0;
+        for (long now = t0; now < t0 + TICK*SIZE*6; now += step)
+        {
+            for (String key : wheel.advance(now))
+            {
+                long deadline = deadlines.remove(key);
+                early |= deadline > now;
+                late |= now - deadline >= TICK + step;
+                count++;
+            }
+        }
+        check("no key expires early", !early);
+        check("no key expires more than a tick late", !late);
+        check("every key expires exactly once", count == 1000 && deadlines.isEmpty() && wheel.size() == 0);
+
+        System.out.println("*** Ending TimingWheelTest " +
+                           (_failures == 0 ? "PASSED" : _failures + " FAILED") + " ***");
+        System.exit(_failures == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.test;
+
+// Misc Imports
+import java.util.List;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.common.WorkItem;
+import org.apache.qpid.qmf2.common.WorkQueue;
+import static org.apache.qpid.qmf2.common.WorkItem.WorkItemType.*;
+
+/**
+ * Tests the WorkQueue overflow policies. It checks that an unbounded WorkQueue keeps everything in order, that
+ * DROP_OLDEST drops the oldest WorkItems and counts them, that COALESCE coalesces WorkItems with the same coalesce key
+ * in place and blocks for other WorkItems, and that BLOCK blocks the adding thread until there is space. It doesn't
+ * need a broker.
+ */
+public final class WorkQueueTest
+{
+    private static int _failures = 0;
+
+    /**
+     * A WorkItem with an optional coalesce key, the params are an Integer sequence number.
+     */
+    private static final class TestWorkItem extends WorkItem
+    {
+        private final Object _key;
+
+        TestWorkItem(final int sequence, final Object key)
+        {
+            super(AGENT_HEARTBEAT, null, sequence);
+            _key = key;
+        }
+
+        @Override
+        public Object getCoalesceKey()
+        {
+            return _key;
+        }
+    }
+
+    private static void check(final String description, final boolean passed)
+    {
+        System.out.println((passed ? "PASSED: " : "FAILED: ") + description);
+        if (!passed)
+        {
+            _failures++;
+        }
+    }
+
+    /**
+     * Return the sequence numbers of a List of WorkItems as a String e.g. "[2, 3, 4]".
+     */
+    private static String sequences(final List<WorkItem> items)
+    {
+        StringBuilder buffer = new StringBuilder("[");
+        for (WorkItem item : items)
+        {
+            if (buffer.length() > 1)
+            {
+                buffer.append(", ");
+            }
+            buffer.append(item.<Integer>getParams());
+        }
+        return buffer.append("]").toString();
+    }
+
+    /**
+     * Start a thread that adds a WorkItem to the WorkQueue, which may block.
+     */
+    private static Thread addInBackground(final WorkQueue queue, final WorkItem item)
+    {
+        Thread thread = new Thread()
+        {
+            public void run()
+            {
+                queue.addWorkItem(item);
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Return true if the thread is still blocked after a short wait.
+     */
+    private static boolean isBlocked(final Thread thread) throws InterruptedException
+    {
+        thread.join(200);
+        return thread.isAlive();
+    }
+
+    public static void main(String[] args) throws InterruptedException
+    {
+        System.out.println("Running WorkQueueTest, this tests the WorkQueue overflow policies");
+
+        // An unbounded WorkQueue.
+        WorkQueue queue = new WorkQueue();
+        for (int i = 0; i < 10; i++)
+        {
+            queue.addWorkItem(new TestWorkItem(i, null));
+        }
+        check("unbounded WorkQueue keeps all WorkItems", queue.size() == 10 && queue.getMaxSize() == 10);
+        check("getNextWorkitems() returns up to max in order",
+              sequences(queue.getNextWorkitems(4)).equals("[0, 1, 2, 3]"));
+        check("getNextWorkitems() returns the rest",
+              sequences(queue.getNextWorkitems(100)).equals("[4, 5, 6, 7, 8, 9]") && queue.size() == 0);
+        check("getNextWorkitem(0) returns null when empty", queue.getNextWorkitem(0) == null);
+        check("WorkItems removed are counted", queue.getRemovedCount() == 10);
+
+        // DROP_OLDEST.
+        queue = new WorkQueue();
+        queue.setCapacity(3, WorkQueue.OverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < 5; i++)
+        {
+            queue.addWorkItem(new TestWorkItem(i, null));
+        }
+        check("DROP_OLDEST keeps capacity", queue.size() == 3 && queue.getDroppedCount() == 2);
+        check("DROP_OLDEST drops the oldest", sequences(queue.getNextWorkitems(10)).equals("[2, 3, 4]"));
+
+        // COALESCE.
+        queue = new WorkQueue();
+        queue.setCapacity(2, WorkQueue.OverflowPolicy.COALESCE);
+        queue.addWorkItem(new TestWorkItem(0, "a"));
+        queue.addWorkItem(new TestWorkItem(1, "b"));
+        queue.addWorkItem(new TestWorkItem(2, "a"));
+        check("COALESCE coalesces in place when full", queue.size() == 2 && queue.getCoalescedCount() == 1);
+
+        Thread thread = addInBackground(queue, new TestWorkItem(3, null));
+        check("COALESCE blocks for a WorkItem without a key", isBlocked(thread));
+        check("COALESCE keeps position of coalesced WorkItem",
+              sequences(queue.getNextWorkitems(1)).equals("[2]"));
+        thread.join(1000);
+        check("COALESCE unblocks when there is space", !thread.isAlive() && queue.size() == 2);
+        check("COALESCE drains in order", sequences(queue.getNextWorkitems(10)).equals("[1, 3]"));
+
+        // A WorkItem whose key matches a WorkItem that has already been taken mustn't be coalesced into it.
+        queue.addWorkItem(new TestWorkItem(4, "a"));
+        queue.addWorkItem(new TestWorkItem(5, "b"));
+        queue.getNextWorkitems(1);
+        queue.addWorkItem(new TestWorkItem(6, "c"));
+        thread = addInBackground(queue, new TestWorkItem(7, "a"));
+        check("COALESCE blocks rather than coalesce into a taken WorkItem", isBlocked(thread));
+        check("COALESCE queue unchanged", sequences(queue.getNextWorkitems(10)).equals("[5, 6]"));
+        thread.join(1000);
+        check("COALESCE queues WorkItem once there is space", sequences(queue.getNextWorkitems(10)).equals("[7]"));
+
+        // BLOCK.
+        queue = new WorkQueue();
+        queue.setCapacity(1, WorkQueue.OverflowPolicy.BLOCK);
+        queue.addWorkItem(new TestWorkItem(0, "a"));
+        thread = addInBackground(queue, new TestWorkItem(1, "a"));
+        check("BLOCK blocks when full, even with a coalesce key", isBlocked(thread));
+        check("BLOCK doesn't drop or coalesce", queue.getDroppedCount() == 0 && queue.getCoalescedCount() == 0);
+        check("BLOCK first WorkItem retrieved", sequences(queue.getNextWorkitems(1)).equals("[0]"));
+        thread.join(1000);
+        check("BLOCK unblocks when there is space", !thread.isAlive());
+        check("BLOCK second WorkItem retrieved", sequences(queue.getNextWorkitems(1)).equals("[1]"));
+
+        // Raising the capacity wakes blocked threads.
+        queue.addWorkItem(new TestWorkItem(2, null));
+        thread = addInBackground(queue, new TestWorkItem(3, null));
+        check("BLOCK blocks again when full", isBlocked(thread));
+        queue.setCapacity(2, WorkQueue.OverflowPolicy.BLOCK);
+        thread.join(1000);
+        check("setCapacity() wakes blocked threads", !thread.isAlive() && queue.size() == 2);
+
+        System.out.println("*** Ending WorkQueueTest " +
+                           (_failures == 0 ? "PASSED" : _failures + " FAILED") + " ***");
+        System.exit(_failures == 0 ? 0 : 1);
+    }
+}
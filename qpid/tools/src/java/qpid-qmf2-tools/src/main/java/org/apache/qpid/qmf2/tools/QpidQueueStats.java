@@ -45,13 +45,11 @@ import org.apache.qpid.qmf2.common.QmfQueryTarget;
 import org.apache.qpid.qmf2.common.SchemaClassId;
 import org.apache.qpid.qmf2.common.WorkItem;
 import org.apache.qpid.qmf2.console.Agent;
-import org.apache.qpid.qmf2.console.AgentHeartbeatWorkItem;
 import org.apache.qpid.qmf2.console.AgentRestartedWorkItem;
 import org.apache.qpid.qmf2.console.Console;
 import org.apache.qpid.qmf2.console.QmfConsoleData;
 
 import org.apache.qpid.qmf2.console.SubscribeIndication;
-import org.apache.qpid.qmf2.console.SubscribeParams;
 import org.apache.qpid.qmf2.console.SubscriptionIndicationWorkItem;
 
 import org.apache.qpid.qmf2.util.ConnectionHelper;
@@ -134,9 +132,6 @@ public final class QpidQueueStats implements QmfEventListener
     private Agent _broker;
     private Console _console;
     private Map<ObjectId, Stats> _objects = new HashMap<ObjectId, Stats>();
-    private String _subscriptionId = null;
-    private long _subscriptionDuration;
-    private long _startTime;
 
     /**
      * Basic constructor. Creates JMS Session, Initialises Destinations, Producers &amp; Consumers and starts connection.
@@ -179,17 +174,16 @@ public final class QpidQueueStats implements QmfEventListener
     }
 
     /**
-     * Create a Subscription to query for all queue objects
+     * Create a Subscription to query for all queue objects. The Subscription is created with the autoRenew option
+     * so the Console refreshes it before it times out in order for us to continue receiving queue Management Object
+     * data from the broker.
      */
     private void createQueueSubscription()
     {
         try
         {   // This QmfQuery simply does an ID query for objects with the className "queue"
             QmfQuery query = new QmfQuery(QmfQueryTarget.OBJECT, new SchemaClassId("queue"));
-            SubscribeParams params = _console.createSubscription(_broker, query, "queueStatsHandle");
-            _subscriptionId = params.getSubscriptionId();
-            _subscriptionDuration = params.getLifetime() - 10; // Subtract 10 as we want to refresh before it times out
-            _startTime = System.currentTimeMillis();
+            _console.createSubscription(_broker, query, "queueStatsHandle", "{autoRenew:true}");
         }
         catch (QmfException qmfe)
         {
@@ -200,33 +194,12 @@ public final class QpidQueueStats implements QmfEventListener
      * Main Event handler. Checks if the WorkItem is a SubscriptionIndicationWorkItem, if it is it stores the object
      * in a Map and uses this to maintain state so we can record deltas such as enqueue and dequeue rates.
      * <p>
-     * The AgentHeartbeatWorkItem is used to periodically compare the elapsed time against the Subscription duration
-     * so that we can refresh the Subscription (or create a new one if necessary) in order to continue receiving
-     * queue Management Object data from the broker.
-     * <p>
      * When the AgentRestartedWorkItem is received we clear the state to remove any stale queue Management Objects.
      * @param wi a QMF2 WorkItem object
      */
     public void onEvent(final WorkItem wi)
     {
-        if (wi instanceof AgentHeartbeatWorkItem && _subscriptionId != null)
-        {
-            long elapsed = (long)Math.round((System.currentTimeMillis() - _startTime)/1000.0f);    
-            if (elapsed > _subscriptionDuration)
-            {
-                try
-                {
-                    _console.refreshSubscription(_subscriptionId);
-                    _startTime = System.currentTimeMillis();
-                }
-                catch (QmfException qmfe)
-                {
-                    System.err.println ("QmfException " + qmfe.getMessage() + " caught in QpidQueueStats onEvent");
-                   createQueueSubscription();
-                }
-            }
-        }
-        else if (wi instanceof AgentRestartedWorkItem)
+        if (wi instanceof AgentRestartedWorkItem)
         {
             _objects.clear();
         }
@@ -29,7 +29,6 @@ import java.io.InputStreamReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
@@ -46,6 +45,7 @@ import org.apache.qpid.qmf2.common.WorkItem;
 import org.apache.qpid.qmf2.console.Agent;
 import org.apache.qpid.qmf2.console.Console;
 import org.apache.qpid.qmf2.console.EventReceivedWorkItem;
+import org.apache.qpid.qmf2.console.ObjectMirror;
 import org.apache.qpid.qmf2.console.QmfConsoleData;
 
 import org.apache.qpid.qmf2.util.ConnectionHelper;
@@ -156,8 +156,8 @@ public final class QueueFuse implements QmfEventListener
     private final String _url;
     private final List<Pattern> _filter;
     private final float _purge;
-    private Map<String, QmfConsoleData> _queueCache = new HashMap<String, QmfConsoleData>(50);
     private Console _console;
+    private volatile ObjectMirror _queues;
 
     /**
      * Basic constructor. Creates JMS Session, Initialises Destinations, Producers &amp; Consumers and starts connection.
@@ -181,7 +181,12 @@ public final class QueueFuse implements QmfEventListener
             Connection connection = ConnectionHelper.createConnection(url, connectionOptions);        
             _console = new Console(this);
             _console.addConnection(connection);
-            updateQueueCache();
+
+            // Mirror the broker's queues so that they can be found quickly when a queueThresholdExceeded occurs.
+            ObjectMirror queues = new ObjectMirror(_console);
+            queues.addPropertyIndex("name");
+            queues.mirror(_console.findAgent("broker"), "org.apache.qpid.broker", "queue");
+            _queues = queues;
         }
         catch (QmfException qmfe)
         {
@@ -189,20 +194,6 @@ public final class QueueFuse implements QmfEventListener
         }
     }
 
-    /**
-     * Looks up queue objects and stores them in _queueCache keyed by the queue name
-     */
-    private void updateQueueCache()
-    {
-        _queueCache.clear();
-        List<QmfConsoleData> queues = _console.getObjects("org.apache.qpid.broker", "queue");
-        for (QmfConsoleData queue : queues)
-        {
-            String queueName = queue.getStringValue("name");
-            _queueCache.put(queueName, queue);
-        }
-    }
-
     /**
      * Look up a queue object with the given name and if it's not a ring queue invoke the queue's purge method.
      * @param queueName the name of the queue to purge
@@ -210,7 +201,18 @@ public final class QueueFuse implements QmfEventListener
      */
     private void purgeQueue(final String queueName, long msgDepth)
     {
-        QmfConsoleData queue = _queueCache.get(queueName);
+        QmfConsoleData queue = _queues.findFirst("queue", "name", queueName);
+        if (queue == null)
+        { // The queue may have been declared since the mirror's last update, so fall back to querying the broker.
+            for (QmfConsoleData object : _console.getObjects("org.apache.qpid.broker", "queue"))
+            {
+                if (object.getStringValue("name").equals(queueName))
+                {
+                    queue = object;
+                    break;
+                }
+            }
+        }
 
         if (queue == null)
         {
@@ -246,6 +248,13 @@ public final class QueueFuse implements QmfEventListener
      */
     public void onEvent(final WorkItem wi)
     {
+        ObjectMirror queues = _queues;
+        if (queues == null)
+        { // Not fully constructed yet, so we can't handle Events.
+            return;
+        }
+
+        queues.onEvent(wi);
         if (wi instanceof EventReceivedWorkItem)
         {
             EventReceivedWorkItem item = (EventReceivedWorkItem)wi;
@@ -253,11 +262,7 @@ public final class QueueFuse implements QmfEventListener
             QmfEvent event = item.getEvent();
             String className = event.getSchemaClassId().getClassName();
 
-            if (className.equals("queueDeclare"))
-            {
-                updateQueueCache();
-            }
-            else if (className.equals("queueThresholdExceeded"))
+            if (className.equals("queueThresholdExceeded"))
             {
                 String queueName = event.getStringValue("qName");
                 boolean matches = false;
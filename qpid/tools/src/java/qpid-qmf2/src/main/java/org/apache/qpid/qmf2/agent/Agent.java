@@ -37,18 +37,25 @@ import org.slf4j.LoggerFactory;
 
 // Misc Imports
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 // QMF2 Imports
+import org.apache.qpid.qmf2.common.AMQPListWriter;
 import org.apache.qpid.qmf2.common.AMQPMessage;
+import org.apache.qpid.qmf2.common.ExecutorQmfEventListener;
 import org.apache.qpid.qmf2.common.Handle;
 import org.apache.qpid.qmf2.common.Notifier;
 import org.apache.qpid.qmf2.common.NotifierWrapper;
@@ -174,12 +181,30 @@ public class Agent extends QmfData implements MessageListener, SubscribableAgent
 {
     private static final Logger _log = LoggerFactory.getLogger(Agent.class);
 
+    /**
+     * The default approximate maximum size in bytes of a _query_response Message.
+     */
+    private static final int DEFAULT_MAX_RESPONSE_SIZE = 256*1024;
+
     /** 
-     * This TimerTask causes the Agent to sent a Hearbeat when it gets scheduled
+     * This Runnable causes the Agent to sent a Hearbeat when it gets scheduled
      */
-    private final class Heartbeat extends TimerTask
+    private final class Heartbeat implements Runnable
     {
         public void run()
+        {
+            // Catch RuntimeException, as if it escapes the ScheduledExecutorService silently stops sending Heartbeats.
+            try
+            {
+                sendHeartbeat();
+            }
+            catch (RuntimeException re)
+            {
+                _log.info("RuntimeException {} caught in Heartbeat.run()", re.getMessage());
+            }
+        }
+
+        private void sendHeartbeat()
         {
             try
             {
@@ -208,17 +233,7 @@ public class Agent extends QmfData implements MessageListener, SubscribableAgent
             }
 
             // Reap any QmfAgentData Objects that have been marked as Deleted
-            // Use the iterator approach rather than foreach as we may want to call iterator.remove() to zap an entry
-            Iterator<QmfAgentData> i = _objectIndex.values().iterator();
-            while (i.hasNext())
-            {
-                QmfAgentData object = i.next();
-                if (object.isDeleted())
-                {
-                    _log.debug("Removing deleted QmfAgentData Object from store");
-                    i.remove();
-                }
-            }
+            _objectIndex.reap();
         }
     }
 
@@ -239,10 +254,11 @@ public class Agent extends QmfData implements MessageListener, SubscribableAgent
     private Map<SchemaClassId, SchemaClass> _schemaCache = new ConcurrentHashMap<SchemaClassId, SchemaClass>();
 
     /**
-     * _objectIndex is the global index of QmfAgentData objects registered with this Agent.
-     * The capacity of 100 is pretty arbitrary but the default of 16 seems too low for most Agents.
+     * _objectIndex is the global index of QmfAgentData objects registered with this Agent. It also maintains
+     * secondary indexes by class name and optionally by property value, which are used to narrow down the objects
+     * that a query needs to be evaluated against.
      */
-    private Map<ObjectId, QmfAgentData> _objectIndex = new ConcurrentHashMap<ObjectId, QmfAgentData>(100);
+    private final ObjectIndex _objectIndex = new ObjectIndex();
 
     /**
      * This Map is used to look up Subscriptions by SubscriptionId
@@ -289,6 +305,12 @@ public class Agent extends QmfData implements MessageListener, SubscribableAgent
      */
     private int _heartbeatInterval = 30;
 
+    /**
+     * The approximate maximum size in bytes of a _query_response Message. Larger results are split into several
+     * Messages, all but the last of which are marked "partial".
+     */
+    private int _maxResponseSize = DEFAULT_MAX_RESPONSE_SIZE;
+
     /**
      * The domain string is used to construct the name of the AMQP exchange to which the component's 
      * name string will be bound. If not supplied, the value of the domain defaults to "default". Both
@@ -297,9 +319,25 @@ public class Agent extends QmfData implements MessageListener, SubscribableAgent
     private String _domain;
 
     /**
-     * This timer is used to schedule periodic events such as sending Heartbeats and subscription updates
+     * This is used to schedule periodic events such as sending Heartbeats and subscription updates. If one isn't
+     * supplied via setScheduledExecutor() a single threaded one is created by setConnection().
+     */
+    private ScheduledExecutorService _scheduler = null;
+
+    /**
+     * True if the _scheduler was created by the Agent, in which case the Agent is responsible for shutting it down.
+     */
+    private boolean _ownsScheduler = false;
+
+    /**
+     * The scheduled Heartbeat, cancelled by removeConnection().
      */
-    private Timer _timer;
+    private ScheduledFuture<?> _heartbeat;
+
+    /**
+     * Runs the Agent's Subscriptions on the _scheduler, created by setConnection().
+     */
+    private SubscriptionScheduler _subscriptionScheduler;
 
     /**
      * Various JMS related fields
@@ -435,49 +473,44 @@ public class Agent extends QmfData implements MessageListener, SubscribableAgent
                 //qmfContentType = "_data";
                 if (query.getObjectId() != null)
                 {
-                    List<Map> results = new ArrayList<Map>(1);
+                    List<QmfAgentData> results = new ArrayList<QmfAgentData>(1);
                     // Look up a QmfAgentData object by the ObjectId obtained from the query
                     ObjectId objectId = query.getObjectId();
                     QmfAgentData object = _objectIndex.get(objectId);
                     if (object != null && !object.isDeleted())
                     {
-                        results.add(object.mapEncode());
+                        results.add(object);
                     }
-                    queryResponse(handle, results, "_data"); // Send the response back to the Console.
+                    objectQueryResponse(handle, results); // Send the response back to the Console.
                 }
                 else
                 {
-                    // Look up QmfAgentData objects by the SchemaClassId obtained from the query
-                    // This is implemented by a linear search and allows searches with only the className specified.
-                    // Linear searches clearly don't scale brilliantly, but the number of QmfAgentData objects managed
-                    // by an Agent is generally fairly small, so it should be OK. Note that this is the same approach
-                    // taken by the C++ broker ManagementAgent, so if it's a problem here........
-
-                    // N.B. the results list declared here is a generic List of Objects. We *must* only pass a List of
-                    // Map to queryResponse(), but conversely if the response items are sortable we need to sort them
-                    // before doing mapEncode(). Unfortunately we don't know if the items are sortable a priori so
-                    // we either add a Map or we add a QmfAgentData, then sort then mapEncode() each item. I'm not
-                    // sure of a more elegant way to do this without creating two lists, which might not be so bad
-                    // but we don't know the size of the list a priori either.
-                    List results = new ArrayList(_objectIndex.size());
+                    // Look up QmfAgentData objects by the SchemaClassId or predicate obtained from the query.
+                    // The _objectIndex secondary indexes narrow down the candidate objects where they can (by class
+                    // name for SchemaClassId queries, or by any property index that matches an "eq" predicate),
+                    // otherwise this falls back to a linear search of all of the objects.
+
+                    // N.B. the matching objects are collected and only mapEncoded as they are added to the response,
+                    // which is sent in chunks, so the whole encoded result set is never held in memory at once. If
+                    // the response items are sortable we need to sort them before doing mapEncode().
+                    Collection<QmfAgentData> candidates = _objectIndex.candidates(query);
+                    List<QmfAgentData> results = new ArrayList<QmfAgentData>(candidates.size());
                     // It's unlikely that evaluating this query will return a mixture of sortable and notSortable 
-                    // QmfAgentData objects, but it's best to check if that has occurred as accidentally passing a
-                    // List of QmfAgentData instead of a List of Map to queryResponse() will break things.
+                    // QmfAgentData objects, but it's best to check if that has occurred as the sort order of such
+                    // a mixture would be meaningless.
                     boolean sortable = false;
                     boolean notSortable = false;
-                    for (QmfAgentData object : _objectIndex.values())
+                    for (QmfAgentData object : candidates)
                     {
                         if (!object.isDeleted() && query.evaluate(object))
                         {
+                            results.add(object);
                             if (object.isSortable())
-                            { // If QmfAgentData is marked sortable we add the QmfAgentData object to the List
-                              // so we can sort first before mapEncoding.
-                                results.add(object);
+                            {
                                 sortable = true;
                             }
                             else
-                            { // If QmfAgentData is not marked sortable we mapEncode immediately and add the Map to List.
-                                results.add(object.mapEncode());
+                            {
                                 notSortable = true;
                             }
                         }
@@ -493,14 +526,9 @@ public class Agent extends QmfData implements MessageListener, SubscribableAgent
                     else if (sortable)
                     {
                         Collections.sort(results);
-                        int length = results.size();
-                        for (int i = 0; i < length; i++)
-                        {
-                            QmfAgentData object = (QmfAgentData)results.get(i);
-                            results.set(i, object.mapEncode());
-                        }
                     }
-                    queryResponse(handle, results, "_data"); // Send the response back to the Console.
+
+                    objectQueryResponse(handle, results); // Send the response back to the Console.
                 }
             }
         }
@@ -529,6 +557,36 @@ public class Agent extends QmfData implements MessageListener, SubscribableAgent
         return _objectIndex.get(objectId);
     }
 
+    /**
+     * Create an index of the QmfAgentData objects managed by this Agent on the named property. Queries whose
+     * predicate is an "eq" comparing the property with a literal (or a top level "and" including such an "eq") then
+     * only need to be evaluated against the objects with a matching property value rather than against every object.
+     * <p>
+     * The index is built from the property's value at the time each object is added and isn't updated when the
+     * value changes, so only properties used as idNames, such as a queue's "name", may be indexed as these make up
+     * the ObjectId and don't change once the object has been added. Objects whose schema doesn't use the property as
+     * one of its idNames aren't indexed, queries on the property are always evaluated against them.
+     * <p>
+     * N.B. This method isn't part of the QMF2 API.
+     *
+     * @param name the name of the property to index.
+     * @throws QmfException if the property isn't one of the idNames of any SchemaObjectClass registered with the
+     *         Agent.
+     */
+    public final void addPropertyIndex(final String name) throws QmfException
+    {
+        for (SchemaClass schema : _schemaCache.values())
+        {
+            if (schema instanceof SchemaObjectClass &&
+                Arrays.asList(((SchemaObjectClass)schema).getIdNames()).contains(name))
+            {
+                _objectIndex.addPropertyIndex(name);
+                return;
+            }
+        }
+        throw new QmfException("Can't index property " + name + " as it isn't an idName of any registered schema");
+    }
+
     /**
      * Send an exception back to the Console.
      * @param handle the reply handle that contains the replyTo Address.
@@ -595,7 +653,7 @@ public class Agent extends QmfData implements MessageListener, SubscribableAgent
      */
     public final List<QmfAgentData> evaluateQuery(final QmfQuery query)
     {
-        List<QmfAgentData> results = new ArrayList<QmfAgentData>(_objectIndex.size());
+        List<QmfAgentData> results = new ArrayList<QmfAgentData>();
         if (query.getTarget() == QmfQueryTarget.OBJECT)
         { // Note that we don't include objects marked as deleted in the results here, because if an object gets
           // destroyed we asynchronously publish its new state to subscribers, see QmfAgentData.destroy() method.
@@ -611,8 +669,8 @@ public class Agent extends QmfData implements MessageListener, SubscribableAgent
             }
             else
             {
-                // Look up QmfAgentData objects evaluating the query
-                for (QmfAgentData object : _objectIndex.values())
+                // Look up QmfAgentData objects evaluating the query against the candidates from the _objectIndex
+                for (QmfAgentData object : _objectIndex.candidates(query))
                 {
                     if (!object.isDeleted() && query.evaluate(object))
                     {
@@ -632,6 +690,10 @@ public class Agent extends QmfData implements MessageListener, SubscribableAgent
     public final void removeSubscription(final Subscription subscription)
     {
         _subscriptions.remove(subscription.getSubscriptionId());
+        if (_subscriptionScheduler != null)
+        {
+            _subscriptionScheduler.remove(subscription);
+        }
     }
 
     //                                          MessageListener
@@ -715,7 +777,7 @@ public class Agent extends QmfData implements MessageListener, SubscribableAgent
                             Subscription subscription = new Subscription(this, subscriptionParams);
                             String subscriptionId = subscription.getSubscriptionId();
                             _subscriptions.put(subscriptionId, subscription);
-                            _timer.schedule(subscription, 0, subscriptionParams.getPublishInterval());
+                            _subscriptionScheduler.add(subscription);
                             subscriptionResponse(handle, subscription.getConsoleHandle(), subscriptionId, 
                                                  subscription.getDuration(), subscription.getInterval(), null);
                         }
@@ -953,6 +1015,50 @@ public class Agent extends QmfData implements MessageListener, SubscribableAgent
         _epoch = epoch;
     }
 
+    /**
+     * Set the ScheduledExecutorService used to send Heartbeats and run Subscriptions, must be called before
+     * setConnection().
+     * <p>
+     * This allows several Agents, or an Agent and the application, to share a scheduler. The Agent doesn't shut down
+     * a ScheduledExecutorService supplied in this way. If this method isn't called the Agent creates its own single
+     * threaded scheduler using daemon threads.
+     *
+     * @param scheduler the ScheduledExecutorService used to schedule the Agent's periodic tasks.
+     */
+    public final void setScheduledExecutor(final ScheduledExecutorService scheduler)
+    {
+        _scheduler = scheduler;
+        _ownsScheduler = false;
+    }
+
+    /**
+     * Deliver WorkItems to the QmfEventListener (or Notifier) using an Executor rather than on the Agent's
+     * MessageListener thread, so that a slow QmfEventListener doesn't hold up the Agent. WorkItems are delivered in
+     * order for each Agent and each Subscription, see ExecutorQmfEventListener, whose newDefaultExecutor() provides
+     * a suitable Executor. This must be called before setConnection().
+     *
+     * @param executor the Executor used to deliver WorkItems.
+     * @param maxPending the maximum number of WorkItems waiting for delivery for each Agent or Subscription, if it
+     *        is reached the Agent waits for the QmfEventListener to catch up.
+     */
+    public final void setEventExecutor(final Executor executor, final int maxPending)
+    {
+        _eventListener = new ExecutorQmfEventListener(_eventListener, executor, maxPending);
+    }
+
+    /**
+     * Set the approximate maximum size in bytes of a _query_response Message. Query results whose encoded size
+     * exceeds this are sent as several Messages, all but the last of which are marked "partial", so that the Console
+     * can start using the results before they have all been received. A single result larger than this size is
+     * still sent, in a Message of its own. The default is 256KB.
+     *
+     * @param size the approximate maximum size in bytes of a _query_response Message.
+     */
+    public final void setMaxResponseSize(final int size)
+    {
+        _maxResponseSize = (size > 0) ? size : DEFAULT_MAX_RESPONSE_SIZE;
+    }
+
     /**
      * Releases Agent's resources.
      */
@@ -1069,9 +1175,23 @@ public class Agent extends QmfData implements MessageListener, SubscribableAgent
 
             _connection.start();
 
+            if (_scheduler == null)
+            { // Use daemon threads, as the Timer that was originally used did, so the Agent won't prevent exit.
+                _scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+                {
+                    public Thread newThread(final Runnable r)
+                    {
+                        Thread thread = new Thread(r, "QMF2 Agent Scheduler " + _name);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+                _ownsScheduler = true;
+            }
+            _subscriptionScheduler = new SubscriptionScheduler(_scheduler, this);
+
             // Schedule a Heartbeat every _heartbeatInterval seconds sending the first one immediately
-            _timer = new Timer(true);
-            _timer.schedule(new Heartbeat(), 0, _heartbeatInterval*1000);
+            _heartbeat = _scheduler.scheduleWithFixedDelay(new Heartbeat(), 0, _heartbeatInterval, TimeUnit.SECONDS);
         }
         catch (JMSException jmse)
         {
@@ -1095,7 +1215,13 @@ public class Agent extends QmfData implements MessageListener, SubscribableAgent
 
         try
         {
-            _timer.cancel();
+            _heartbeat.cancel(false);
+            _subscriptionScheduler.cancelAll();
+            if (_ownsScheduler)
+            {
+                _scheduler.shutdown();
+                _scheduler = null;
+            }
             _connection.close();
         }
         catch (JMSException jmse)
@@ -1316,6 +1442,54 @@ public class Agent extends QmfData implements MessageListener, SubscribableAgent
         return _workQueue.getNextWorkitem(timeout);
     }
 
+    /**
+     * Obtains up to max pending work items without blocking. When the Agent is busy this is considerably cheaper
+     * than calling getNextWorkitem() for each WorkItem.
+     *
+     * @param max the maximum number of WorkItems to return.
+     * @return the pending work items, the List is empty if none are available.
+     */
+    public final List<WorkItem> getNextWorkitems(final int max)
+    {
+        return _workQueue.getNextWorkitems(max);
+    }
+
+    /**
+     * Obtains up to max pending work items, waiting for up to timeout seconds for the first to become available.
+     *
+     * @param max the maximum number of WorkItems to return.
+     * @param timeout the timeout in seconds. If timeout = 0 it returns immediately.
+     * @return the pending work items, the List is empty if none became available before the timeout expired.
+     */
+    public final List<WorkItem> getNextWorkitems(final int max, final long timeout)
+    {
+        return _workQueue.getNextWorkitems(max, timeout);
+    }
+
+    /**
+     * Bound the Agent's WorkQueue, which is unbounded by default, so that an application that falls behind
+     * doesn't cause the WorkQueue to grow without limit. Note that the WorkQueue is only used when the Agent
+     * has been created with a Notifier, a QmfEventListener receives WorkItems directly.
+     *
+     * @param capacity the maximum number of WorkItems that may be queued.
+     * @param policy the policy applied when a WorkItem is added to a full WorkQueue.
+     */
+    public final void setWorkQueueCapacity(final int capacity, final WorkQueue.OverflowPolicy policy)
+    {
+        _workQueue.setCapacity(capacity, policy);
+    }
+
+    /**
+     * Return the Agent's WorkQueue, which provides statistics such as the maximum queue depth and the time that
+     * WorkItems have spent waiting to be retrieved.
+     *
+     * @return the Agent's WorkQueue.
+     */
+    public final WorkQueue getWorkQueue()
+    {
+        return _workQueue;
+    }
+
     /**
      * Releases a WorkItem instance obtained by getNextWorkItem(). Called when the application has finished
      * processing the WorkItem.
@@ -1384,25 +1558,101 @@ public class Agent extends QmfData implements MessageListener, SubscribableAgent
     }
 
     /**
-     * Send the query response back to the Console.
-     * @param handle the reply handle that contains the replyTo Address.
-     * @param results the list of mapEncoded query results.
-     * @param qmfContentType the value to be passed to the qmf.content Header.
+     * A QueryResponse sends the results of a query back to the Console, splitting them into several _query_response
+     * Messages if their encoded size exceeds _maxResponseSize. Results are encoded as they are added and each
+     * Message is sent as soon as it is full, so neither the Agent nor the Console need to hold the whole encoded
+     * result set. All but the last Message are marked with the "partial" property, which tells the Console to
+     * expect more results.
      */
-    protected final void queryResponse(final Handle handle, List<Map> results, final String qmfContentType)
+    private final class QueryResponse
     {
-        try
+        private final Handle _handle;
+        private final String _qmfContentType;
+        private final AMQPListWriter _writer;
+
+        /**
+         * Create a QueryResponse.
+         * @param handle the reply handle that contains the replyTo Address.
+         * @param qmfContentType the value to be passed to the qmf.content Header.
+         */
+        QueryResponse(final Handle handle, final String qmfContentType)
+        {
+            _handle = handle;
+            _qmfContentType = qmfContentType;
+            _writer = new AMQPListWriter(Math.min(_maxResponseSize, 64*1024));
+        }
+
+        /**
+         * Add a mapEncoded result, sending a partial response if the results added so far fill a Message.
+         * @param result the mapEncoded result.
+         */
+        void add(final Map result) throws JMSException
+        {
+            _writer.add(result);
+            if (_writer.size() >= _maxResponseSize)
+            {
+                send(true);
+            }
+        }
+
+        /**
+         * Add a QmfAgentData result, using its cached encoding if it hasn't changed since it was last encoded,
+         * sending a partial response if the results added so far fill a Message.
+         * @param object the QmfAgentData result.
+         */
+        void add(final QmfAgentData object) throws JMSException
+        {
+            _writer.addEncoded(object.getEncoded());
+            if (_writer.size() >= _maxResponseSize)
+            {
+                send(true);
+            }
+        }
+
+        /**
+         * Send the final response, which may contain no results.
+         */
+        void complete() throws JMSException
+        {
+            send(false);
+        }
+
+        private void send(final boolean partial) throws JMSException
         {
             Message response = AMQPMessage.createListMessage(_syncSession);
-            response.setJMSCorrelationID(handle.getCorrelationId());
+            response.setJMSCorrelationID(_handle.getCorrelationId());
             response.setStringProperty("x-amqp-0-10.app-id", "qmf2");
             response.setStringProperty("method", "response");
             response.setStringProperty("qmf.opcode", "_query_response");
             response.setStringProperty("qmf.agent", _name);
-            response.setStringProperty("qmf.content", qmfContentType);
-            response.setStringProperty("qpid.subject", handle.getRoutingKey());
-            AMQPMessage.setList(response, results);
-            sendResponse(handle, response);
+            response.setStringProperty("qmf.content", _qmfContentType);
+            response.setStringProperty("qpid.subject", _handle.getRoutingKey());
+            if (partial)
+            {
+                response.setBooleanProperty("partial", true);
+            }
+            _writer.writeTo(response);
+            sendResponse(_handle, response);
+        }
+    }
+
+    /**
+     * Send the query response back to the Console. If the encoded results are larger than the maximum response size
+     * (see setMaxResponseSize()) they are sent as several partial responses.
+     * @param handle the reply handle that contains the replyTo Address.
+     * @param results the list of mapEncoded query results.
+     * @param qmfContentType the value to be passed to the qmf.content Header.
+     */
+    protected final void queryResponse(final Handle handle, List<Map> results, final String qmfContentType)
+    {
+        try
+        {
+            QueryResponse response = new QueryResponse(handle, qmfContentType);
+            for (Map result : results)
+            {
+                response.add(result);
+            }
+            response.complete();
         }
         catch (JMSException jmse)
         {
@@ -1410,6 +1660,30 @@ public class Agent extends QmfData implements MessageListener, SubscribableAgent
         }
     }
 
+    /**
+     * Send the QmfAgentData objects resulting from a query back to the Console. Each object is only encoded as
+     * it is added to the response, which is sent in chunks as described in queryResponse(), and objects that haven't
+     * changed since they were last encoded reuse their previous encoding.
+     * @param handle the reply handle that contains the replyTo Address.
+     * @param objects the QmfAgentData objects resulting from the query.
+     */
+    protected final void objectQueryResponse(final Handle handle, final List<QmfAgentData> objects)
+    {
+        try
+        {
+            QueryResponse response = new QueryResponse(handle, "_data");
+            for (QmfAgentData object : objects)
+            {
+                response.add(object);
+            }
+            response.complete();
+        }
+        catch (JMSException jmse)
+        {
+            _log.info("JMSException {} caught in objectQueryResponse()", jmse.getMessage());
+        }
+    }
+
     /**
      * If the subscription request is successful, the Agent application must provide a unique subscriptionId.
      * <p>
@@ -193,14 +193,8 @@ public final class AgentExternal extends Agent
         List<QmfAgentData> objects = _queryResults.get(index);
         if (objects != null)
         {
-            List<Map> results = new ArrayList<Map>(objects.size());
-            for (QmfAgentData object : objects)
-            {
-                results.add(object.mapEncode());
-            }
-
-            // Send the response back to the Console
-            queryResponse(handle, results, "_data");
+            // Send the response back to the Console, large results are split into several partial responses.
+            objectQueryResponse(handle, objects);
             _queryResults.remove(index);
         }
     }
@@ -0,0 +1,618 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.agent;
+
+// Misc Imports
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A FlatValueMap is the property store used by QmfAgentData objects. Rather than a HashMap entry per property it
+ * holds the values of the properties described by the object's SchemaObjectClass in fixed slots described by a shared
+ * PropertyTable, with TYPE_INT and TYPE_FLOAT properties held as primitives in a long array (doubles are stored as
+ * their raw long bits) so that updating statistics doesn't create garbage.
+ * <p>
+ * It is a full Map implementation, so QmfData's getValue()/setValue() and mapEncode() work unchanged. The only
+ * visible difference is that primitive values are boxed when they are read via get() or entrySet().
+ * <p>
+ * A primitive slot only holds values of exactly the Java type the QMF type maps to (Long for TYPE_INT and Double
+ * for TYPE_FLOAT) so the type of a value retrieved is always the type that was stored, which matters because
+ * the type determines how the value is encoded on the wire. Values of other types (e.g. an Integer stored in a
+ * TYPE_INT property), null values and properties not described by the schema are held in a Map of extra values
+ * that is only created if it is needed.
+ * <p>
+ * A QmfAgentData is typically updated by the Agent's application threads while the Agent encodes it for query
+ * responses and the Subscription tick asks it for its changes, so the map is thread safe. Methods that change which
+ * properties are present, put(), remove() and clear(), are synchronized on the map so that moving a property between
+ * a slot and the extra values is atomic with respect to other writers. Readers don't lock: the slots are held in
+ * atomic arrays and the extra values in ConcurrentHashMaps, so get(), getChanges() and iterating the entries never
+ * block or throw ConcurrentModificationException, although an iteration may not reflect changes made while it is in
+ * progress. addLong() and addDouble() don't lock either, so once a numeric property has been set high rate
+ * statistics can be updated concurrently from many threads without losing increments.
+ * <p>
+ * The map also records when each property last changed value, so that getChanges() can return just the properties
+ * that have changed since a given time, which is what allows Subscriptions to publish deltas rather than whole
+ * objects. Setting a property to a value equal to its current value doesn't count as a change. Removing a property
+ * can't be expressed as a delta, so after a property has been removed getChanges() reports that a full update is
+ * needed.
+ */
+final class FlatValueMap extends AbstractMap<String, Object>
+{
+    /**
+     * Stands in for null values in the extra values, as ConcurrentHashMap doesn't allow null values.
+     */
+    private static final Object NULL = new Object();
+
+    private final PropertyTable _table;
+    private final AtomicLongArray _primitives;
+    private final AtomicIntegerArray _present;
+    private final AtomicReferenceArray<Object> _objects;
+    private volatile ConcurrentMap<String, Object> _extra = null;
+    private volatile int _slotCount = 0;
+
+    /**
+     * The time each slot last changed value, or the time each extra value last changed value. Times are recorded in
+     * nanoseconds since the epoch like the QmfAgentData timestamps.
+     */
+    private final AtomicLongArray _modified;
+    private volatile ConcurrentMap<String, Long> _extraModified = null;
+
+    /**
+     * The time a property was last removed, or zero if no property has been removed.
+     */
+    private volatile long _removed = 0;
+
+    /**
+     * Incremented whenever a property changes value or is removed.
+     */
+    private final AtomicLong _version = new AtomicLong();
+
+    /**
+     * Construct an empty FlatValueMap.
+     * @param table the PropertyTable describing the slots.
+     */
+    FlatValueMap(final PropertyTable table)
+    {
+        _table = table;
+        _primitives = new AtomicLongArray(table.getPrimitiveCount());
+        _present = new AtomicIntegerArray(table.getPrimitiveCount());
+        _objects = new AtomicReferenceArray<Object>(table.getObjectCount());
+        _modified = new AtomicLongArray(table.size());
+    }
+
+    /**
+     * Return the PropertyTable describing the slots.
+     * @return the PropertyTable describing the slots.
+     */
+    PropertyTable getTable()
+    {
+        return _table;
+    }
+
+    /**
+     * Return the current time in nanoseconds since the epoch.
+     */
+    private static long now()
+    {
+        return System.currentTimeMillis()*1000000l;
+    }
+
+    /**
+     * Return true if the value is different from the previous value. Properties are often reset to the same value
+     * (e.g. by subclasses of QmfAgentData that set all of their properties in mapEncode()) so these mustn't count as
+     * changes, byte[] is compared by content as binary strings are typically recreated each time.
+     */
+    private static boolean isChange(final Object previous, final Object value)
+    {
+        if (previous == value)
+        {
+            return false;
+        }
+        if (previous == null || value == null)
+        {
+            return true;
+        }
+        if (previous instanceof byte[] && value instanceof byte[])
+        {
+            return !Arrays.equals((byte[])previous, (byte[])value);
+        }
+        return !previous.equals(value);
+    }
+
+    /**
+     * Return the value to hold in the extra values for the given value.
+     */
+    private static Object mask(final Object value)
+    {
+        return (value == null) ? NULL : value;
+    }
+
+    /**
+     * Return the value represented by a value held in the extra values.
+     */
+    private static Object unmask(final Object value)
+    {
+        return (value == NULL) ? null : value;
+    }
+
+    /**
+     * Record that an extra value has changed, called with the map's lock held.
+     */
+    private void extraModified(final String key)
+    {
+        if (_extraModified == null)
+        {
+            _extraModified = new ConcurrentHashMap<String, Long>();
+        }
+        _extraModified.put(key, now());
+        _version.incrementAndGet();
+    }
+
+    /**
+     * Record that a slot has changed.
+     */
+    private void slotModified(final int slot)
+    {
+        _modified.set(slot, now());
+        _version.incrementAndGet();
+    }
+
+    /**
+     * Record that a property has been removed.
+     */
+    private void removed()
+    {
+        _removed = now();
+        _version.incrementAndGet();
+    }
+
+    /**
+     * Return the version of the map's contents, which is incremented whenever a property changes value or is
+     * removed. This allows encodings of the properties to be cached until they change.
+     * @return the version of the map's contents.
+     */
+    long getVersion()
+    {
+        return _version.get();
+    }
+
+    /**
+     * Return true if the slot holds a value.
+     */
+    private boolean isPresent(final int slot)
+    {
+        int offset = _table.getOffset(slot);
+        return (_table.getType(slot) == PropertyTable.OBJECT) ? _objects.get(offset) != null :
+                                                                _present.get(offset) != 0;
+    }
+
+    /**
+     * Return the value held in the slot, boxing primitive values.
+     */
+    private Object getSlot(final int slot)
+    {
+        int offset = _table.getOffset(slot);
+        switch (_table.getType(slot))
+        {
+            case PropertyTable.LONG:
+                return (_present.get(offset) != 0) ? Long.valueOf(_primitives.get(offset)) : null;
+            case PropertyTable.DOUBLE:
+                return (_present.get(offset) != 0) ?
+                    Double.valueOf(Double.longBitsToDouble(_primitives.get(offset))) : null;
+            default:
+                return _objects.get(offset);
+        }
+    }
+
+    /**
+     * Store a value in the slot if it is of the slot's type, called with the map's lock held. The value is stored
+     * before the slot is marked present so that readers never see a present slot with a stale value.
+     * @return true if the value was stored, false if it is of the wrong type for the slot.
+     */
+    private boolean setSlot(final int slot, final Object value)
+    {
+        int offset = _table.getOffset(slot);
+        switch (_table.getType(slot))
+        {
+            case PropertyTable.LONG:
+                if (!(value instanceof Long))
+                {
+                    return false;
+                }
+                _primitives.set(offset, ((Long)value).longValue());
+                break;
+            case PropertyTable.DOUBLE:
+                if (!(value instanceof Double))
+                {
+                    return false;
+                }
+                _primitives.set(offset, Double.doubleToRawLongBits(((Double)value).doubleValue()));
+                break;
+            default:
+                if (value == null)
+                {
+                    return false;
+                }
+                _objects.set(offset, value);
+                return true;
+        }
+
+        if (_present.get(offset) == 0)
+        {
+            _present.set(offset, 1);
+        }
+        return true;
+    }
+
+    /**
+     * Clear the slot, called with the map's lock held.
+     * @return true if the slot held a value.
+     */
+    private boolean clearSlot(final int slot)
+    {
+        if (!isPresent(slot))
+        {
+            return false;
+        }
+
+        int offset = _table.getOffset(slot);
+        if (_table.getType(slot) == PropertyTable.OBJECT)
+        {
+            _objects.set(offset, null);
+        }
+        else
+        {
+            _present.set(offset, 0);
+        }
+        _slotCount--;
+        return true;
+    }
+
+    /**
+     * Add a delta to a TYPE_INT property without boxing or locking.
+     *
+     * @param name the property name.
+     * @param delta the value to add.
+     * @return true if the delta was applied, false if the property isn't currently held in a long slot (because it
+     *         hasn't been set, or holds a value of a different type) in which case the caller should fall back to
+     *         getValue()/setValue().
+     */
+    boolean addLong(final String name, final long delta)
+    {
+        int slot = _table.getSlot(name);
+        if (slot < 0 || _table.getType(slot) != PropertyTable.LONG || _present.get(_table.getOffset(slot)) == 0)
+        {
+            return false;
+        }
+
+        _primitives.addAndGet(_table.getOffset(slot), delta);
+        if (delta != 0)
+        {
+            slotModified(slot);
+        }
+        return true;
+    }
+
+    /**
+     * Add a delta to a TYPE_FLOAT property without boxing or locking.
+     *
+     * @param name the property name.
+     * @param delta the value to add.
+     * @return true if the delta was applied, false if the property isn't currently held in a double slot (because it
+     *         hasn't been set, or holds a value of a different type) in which case the caller should fall back to
+     *         getValue()/setValue().
+     */
+    boolean addDouble(final String name, final double delta)
+    {
+        int slot = _table.getSlot(name);
+        if (slot < 0 || _table.getType(slot) != PropertyTable.DOUBLE || _present.get(_table.getOffset(slot)) == 0)
+        {
+            return false;
+        }
+
+        int offset = _table.getOffset(slot);
+        while (true)
+        {
+            long current = _primitives.get(offset);
+            long next = Double.doubleToRawLongBits(Double.longBitsToDouble(current) + delta);
+            if (_primitives.compareAndSet(offset, current, next))
+            {
+                if (delta != 0)
+                {
+                    slotModified(slot);
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Return the properties that have changed value at or after the specified time.
+     *
+     * @param since the time, in nanoseconds since the epoch, from which changes are wanted.
+     * @return a Map of the properties that have changed, or null if a property has been removed since the specified
+     *         time, in which case the caller needs to use the full set of properties.
+     */
+    Map<String, Object> getChanges(final long since)
+    {
+        if (_removed >= since)
+        {
+            return null;
+        }
+
+        Map<String, Object> changes = new HashMap<String, Object>();
+        for (int slot = 0; slot < _table.size(); slot++)
+        {
+            if (_modified.get(slot) >= since && isPresent(slot))
+            {
+                changes.put(_table.getName(slot), getSlot(slot));
+            }
+        }
+
+        Map<String, Object> extra = _extra;
+        Map<String, Long> extraModified = _extraModified;
+        if (extra != null && extraModified != null)
+        {
+            for (Map.Entry<String, Long> entry : extraModified.entrySet())
+            {
+                String key = entry.getKey();
+                Object value = extra.get(key);
+                if (entry.getValue() >= since && value != null)
+                {
+                    changes.put(key, unmask(value));
+                }
+            }
+        }
+        return changes;
+    }
+
+    //                                         Map implementation
+    // ********************************************************************************************************
+
+    @Override
+    public Object get(final Object key)
+    {
+        int slot = _table.getSlot(key);
+        if (slot >= 0 && isPresent(slot))
+        {
+            return getSlot(slot);
+        }
+        Map<String, Object> extra = _extra;
+        return (extra == null) ? null : unmask(extra.get(key));
+    }
+
+    @Override
+    public boolean containsKey(final Object key)
+    {
+        int slot = _table.getSlot(key);
+        if (slot >= 0 && isPresent(slot))
+        {
+            return true;
+        }
+        Map<String, Object> extra = _extra;
+        return (extra == null) ? false : extra.containsKey(key);
+    }
+
+    @Override
+    public synchronized Object put(final String key, final Object value)
+    {
+        int slot = _table.getSlot(key);
+        if (slot >= 0)
+        {
+            boolean wasPresent = isPresent(slot);
+            Object previous = wasPresent ? getSlot(slot) : null;
+            if (setSlot(slot, value))
+            {
+                if (wasPresent)
+                {
+                    if (isChange(previous, value))
+                    {
+                        slotModified(slot);
+                    }
+                    return previous;
+                }
+                _slotCount++;
+                slotModified(slot);
+                // If the property was previously held as an extra value (because it was of a different type) remove it.
+                return (_extra == null) ? null : unmask(_extra.remove(key));
+            }
+
+            // The value isn't of the slot's type so it gets stored as an extra value instead. It is added to the
+            // extra values before the slot is cleared so that readers don't see the property disappear.
+            if (wasPresent)
+            {
+                extra().put(key, mask(value));
+                clearSlot(slot);
+                extraModified(key);
+                return previous;
+            }
+        }
+
+        Object previous = extra().put(key, mask(value));
+        if (previous == null || isChange(unmask(previous), value))
+        {
+            extraModified(key);
+        }
+        return unmask(previous);
+    }
+
+    @Override
+    public synchronized Object remove(final Object key)
+    {
+        int slot = _table.getSlot(key);
+        if (slot >= 0 && isPresent(slot))
+        {
+            Object previous = getSlot(slot);
+            clearSlot(slot);
+            removed();
+            return previous;
+        }
+
+        if (_extra != null && _extra.containsKey(key))
+        {
+            removed();
+            return unmask(_extra.remove(key));
+        }
+        return null;
+    }
+
+    @Override
+    public int size()
+    {
+        Map<String, Object> extra = _extra;
+        return _slotCount + ((extra == null) ? 0 : extra.size());
+    }
+
+    @Override
+    public synchronized void clear()
+    {
+        for (int i = 0; i < _present.length(); i++)
+        {
+            _present.set(i, 0);
+        }
+        for (int i = 0; i < _objects.length(); i++)
+        {
+            _objects.set(i, null);
+        }
+        _slotCount = 0;
+        _extra = null;
+        _extraModified = null;
+        removed();
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet()
+    {
+        return new AbstractSet<Map.Entry<String, Object>>()
+        {
+            public Iterator<Map.Entry<String, Object>> iterator()
+            {
+                return new EntryIterator();
+            }
+
+            public int size()
+            {
+                return FlatValueMap.this.size();
+            }
+        };
+    }
+
+    /**
+     * Return the Map of extra values, creating it if necessary, called with the map's lock held.
+     */
+    private Map<String, Object> extra()
+    {
+        if (_extra == null)
+        {
+            _extra = new ConcurrentHashMap<String, Object>();
+        }
+        return _extra;
+    }
+
+    /**
+     * Iterates over the slots that hold values then over any extra values.
+     */
+    private final class EntryIterator implements Iterator<Map.Entry<String, Object>>
+    {
+        private int _nextSlot = 0;
+        private Iterator<Map.Entry<String, Object>> _extraIterator = null;
+        private String _lastKey = null;
+        private boolean _lastFromExtra = false;
+
+        private void advance()
+        {
+            while (_nextSlot < _table.size() && !isPresent(_nextSlot))
+            {
+                _nextSlot++;
+            }
+        }
+
+        public boolean hasNext()
+        {
+            advance();
+            if (_nextSlot < _table.size())
+            {
+                return true;
+            }
+            Map<String, Object> extra = _extra;
+            if (_extraIterator == null && extra != null)
+            {
+                _extraIterator = extra.entrySet().iterator();
+            }
+            return _extraIterator != null && _extraIterator.hasNext();
+        }
+
+        public Map.Entry<String, Object> next()
+        {
+            if (!hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+
+            if (_nextSlot < _table.size())
+            {
+                int slot = _nextSlot++;
+                _lastKey = _table.getName(slot);
+                _lastFromExtra = false;
+                return new SimpleImmutableEntry<String, Object>(_lastKey, getSlot(slot));
+            }
+
+            Map.Entry<String, Object> entry = _extraIterator.next();
+            _lastKey = entry.getKey();
+            _lastFromExtra = true;
+            return new SimpleImmutableEntry<String, Object>(_lastKey, unmask(entry.getValue()));
+        }
+
+        public void remove()
+        {
+            if (_lastKey == null)
+            {
+                throw new IllegalStateException();
+            }
+
+            synchronized (FlatValueMap.this)
+            {
+                if (_lastFromExtra)
+                {
+                    _extraIterator.remove();
+                }
+                else
+                {
+                    clearSlot(_table.getSlot(_lastKey));
+                }
+                removed();
+            }
+            _lastKey = null;
+        }
+    }
+}
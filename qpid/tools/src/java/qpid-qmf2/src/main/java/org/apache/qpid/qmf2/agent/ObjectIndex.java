@@ -0,0 +1,489 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.agent;
+
+// Misc Imports
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.common.ObjectId;
+import org.apache.qpid.qmf2.common.QmfData;
+import org.apache.qpid.qmf2.common.QmfQuery;
+import org.apache.qpid.qmf2.common.SchemaClassId;
+
+/**
+ * The ObjectIndex is the Agent's store of QmfAgentData objects keyed by ObjectId. In addition to the primary
+ * index it maintains secondary indexes that are used to narrow down the set of objects that a QmfQuery needs to be
+ * evaluated against, rather than evaluating the query against every object managed by the Agent.
+ * <p>
+ * The secondary indexes are:
+ * <pre>
+ * * A class index keyed by className, used for ID queries on a SchemaClassId. Note that the index is by className
+ *   rather than the full SchemaClassId because a query may wildcard the packageName.
+ * * Optional property indexes, created by addPropertyIndex(), keyed by the String form of a given property's value.
+ *   These are used for PREDICATE queries containing an "eq" expression comparing that property with a literal, either
+ *   as the whole predicate or as one of the operands of a top level "and". Only objects whose schema has the
+ *   property as one of its idNames are indexed, see below.
+ * </pre>
+ * PREDICATE queries comparing "_object_id" with literals, either a single "eq" or an "or" of them such as those sent
+ * by Console.refresh(), use the primary index to look up each of the ObjectIds directly.
+ * The indexes only ever reduce the candidate objects, the query is still evaluated against each candidate, so an
+ * object in the wrong bucket can never cause a false match. Property indexes are built from the property value when
+ * the object is added and aren't updated by setValue(), so an object is only indexed by a property that its schema
+ * uses as one of its idNames, such as a queue's "name", as these make up the ObjectId and so don't change. Other
+ * objects are always candidates for queries on the property.
+ * <p>
+ * Lookups are lock free. Updates are synchronized so that the primary and secondary indexes stay consistent.
+ */
+final class ObjectIndex
+{
+    /**
+     * The primary index. The capacity of 100 is pretty arbitrary but the default of 16 seems too low for most Agents.
+     */
+    private final Map<ObjectId, QmfAgentData> _objects = new ConcurrentHashMap<ObjectId, QmfAgentData>(100);
+
+    /**
+     * The class index, keyed by className.
+     */
+    private final Map<String, ConcurrentMap<ObjectId, QmfAgentData>> _classIndex =
+        new ConcurrentHashMap<String, ConcurrentMap<ObjectId, QmfAgentData>>();
+
+    /**
+     * The property indexes, keyed by property name.
+     */
+    private final Map<String, PropertyIndex> _propertyIndexes = new ConcurrentHashMap<String, PropertyIndex>();
+
+    /**
+     * An index of the objects managed by the Agent by the String value of a named property.
+     */
+    private static final class PropertyIndex
+    {
+        private final String _name;
+        private final Map<String, ConcurrentMap<ObjectId, QmfAgentData>> _index =
+            new ConcurrentHashMap<String, ConcurrentMap<ObjectId, QmfAgentData>>();
+
+        /**
+         * Objects that didn't have the property when they were added, or whose schema doesn't have the property as
+         * one of its idNames so its value may change. The property might still be resolved at query evaluation time
+         * (e.g. from the object's mapEncode()) so these are always query candidates.
+         */
+        private final ConcurrentMap<ObjectId, QmfAgentData> _unindexed = new ConcurrentHashMap<ObjectId, QmfAgentData>();
+
+        /**
+         * The value each object was indexed under, so it can be removed even if the property has since changed.
+         */
+        private final Map<ObjectId, String> _keys = new ConcurrentHashMap<ObjectId, String>();
+
+        PropertyIndex(final String name)
+        {
+            _name = name;
+        }
+
+        void add(final ObjectId objectId, final QmfAgentData object)
+        {
+            String key = (object.isIdName(_name) && object.hasValue(_name)) ? object.getStringValue(_name) : null;
+            if (key == null)
+            {
+                _unindexed.put(objectId, object);
+            }
+            else
+            {
+                _keys.put(objectId, key);
+                bucket(_index, key).put(objectId, object);
+            }
+        }
+
+        void remove(final ObjectId objectId, final QmfAgentData object)
+        {
+            String key = _keys.remove(objectId);
+            if (key == null)
+            {
+                _unindexed.remove(objectId, object);
+            }
+            else
+            {
+                ObjectIndex.remove(_index, key, objectId, object);
+            }
+        }
+
+        Collection<QmfAgentData> find(final String value)
+        {
+            Map<ObjectId, QmfAgentData> bucket = _index.get(value);
+            if (_unindexed.isEmpty())
+            {
+                return (bucket == null) ? new ArrayList<QmfAgentData>(0) : bucket.values();
+            }
+
+            List<QmfAgentData> results = new ArrayList<QmfAgentData>(_unindexed.values());
+            if (bucket != null)
+            {
+                results.addAll(bucket.values());
+            }
+            return results;
+        }
+    }
+
+    /**
+     * Return the bucket for a given key of a secondary index, creating it if necessary.
+     */
+    private static ConcurrentMap<ObjectId, QmfAgentData> bucket(
+        final Map<String, ConcurrentMap<ObjectId, QmfAgentData>> index, final String key)
+    {
+        ConcurrentMap<ObjectId, QmfAgentData> bucket = index.get(key);
+        if (bucket == null)
+        {
+            bucket = new ConcurrentHashMap<ObjectId, QmfAgentData>();
+            index.put(key, bucket);
+        }
+        return bucket;
+    }
+
+    /**
+     * Remove an object from the bucket for a given key of a secondary index, removing the bucket if it's now empty.
+     */
+    private static void remove(final Map<String, ConcurrentMap<ObjectId, QmfAgentData>> index, final String key,
+                               final ObjectId objectId, final QmfAgentData object)
+    {
+        ConcurrentMap<ObjectId, QmfAgentData> bucket = index.get(key);
+        if (bucket != null)
+        {
+            bucket.remove(objectId, object);
+            if (bucket.isEmpty())
+            {
+                index.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Return the QmfAgentData with the given ObjectId.
+     * @param objectId the ObjectId of the object to look up.
+     * @return the QmfAgentData with the given ObjectId, or null if there isn't one.
+     */
+    QmfAgentData get(final ObjectId objectId)
+    {
+        return _objects.get(objectId);
+    }
+
+    /**
+     * Return the number of objects in the index.
+     * @return the number of objects in the index.
+     */
+    int size()
+    {
+        return _objects.size();
+    }
+
+    /**
+     * Return the ObjectIds of all of the objects in the index.
+     * @return the ObjectIds of all of the objects in the index.
+     */
+    Set<ObjectId> keySet()
+    {
+        return _objects.keySet();
+    }
+
+    /**
+     * Return all of the objects in the index.
+     * @return all of the objects in the index.
+     */
+    Collection<QmfAgentData> values()
+    {
+        return _objects.values();
+    }
+
+    /**
+     * Add an object to the index, replacing any existing object with the same ObjectId.
+     * @param objectId the ObjectId of the object.
+     * @param object the QmfAgentData object being added.
+     */
+    synchronized void put(final ObjectId objectId, final QmfAgentData object)
+    {
+        QmfAgentData previous = _objects.put(objectId, object);
+        if (previous != null)
+        {
+            removeSecondary(objectId, previous);
+        }
+
+        bucket(_classIndex, object.getSchemaClassId().getClassName()).put(objectId, object);
+        for (PropertyIndex index : _propertyIndexes.values())
+        {
+            index.add(objectId, object);
+        }
+    }
+
+    /**
+     * Remove an object from the secondary indexes.
+     */
+    private void removeSecondary(final ObjectId objectId, final QmfAgentData object)
+    {
+        remove(_classIndex, object.getSchemaClassId().getClassName(), objectId, object);
+        for (PropertyIndex index : _propertyIndexes.values())
+        {
+            index.remove(objectId, object);
+        }
+    }
+
+    /**
+     * Remove any objects that have been marked as deleted from all of the indexes.
+     */
+    synchronized void reap()
+    {
+        // Use the iterator approach rather than foreach as we want to call iterator.remove() to zap an entry
+        Iterator<Map.Entry<ObjectId, QmfAgentData>> i = _objects.entrySet().iterator();
+        while (i.hasNext())
+        {
+            Map.Entry<ObjectId, QmfAgentData> entry = i.next();
+            QmfAgentData object = entry.getValue();
+            if (object.isDeleted())
+            {
+                i.remove();
+                removeSecondary(entry.getKey(), object);
+            }
+        }
+    }
+
+    /**
+     * Create an index on the named property, indexing any objects that have already been added.
+     * @param name the name of the property to index.
+     */
+    synchronized void addPropertyIndex(final String name)
+    {
+        if (!_propertyIndexes.containsKey(name))
+        {
+            PropertyIndex index = new PropertyIndex(name);
+            for (Map.Entry<ObjectId, QmfAgentData> entry : _objects.entrySet())
+            {
+                index.add(entry.getKey(), entry.getValue());
+            }
+            _propertyIndexes.put(name, index);
+        }
+    }
+
+    /**
+     * Return the objects that a QmfQuery needs to be evaluated against. This uses the secondary indexes where the
+     * query allows and otherwise returns all of the objects. Note that callers still need to evaluate the query
+     * against each of the returned candidates.
+     *
+     * @param query the QmfQuery being evaluated.
+     * @return the candidate objects for the query.
+     */
+    Collection<QmfAgentData> candidates(final QmfQuery query)
+    {
+        List predicate = query.getPredicate();
+        if (predicate == null)
+        {
+            SchemaClassId classId = query.getSchemaClassId();
+            if (classId != null && classId.getClassName().length() > 0)
+            {
+                Map<ObjectId, QmfAgentData> bucket = _classIndex.get(classId.getClassName());
+                return (bucket == null) ? new ArrayList<QmfAgentData>(0) : bucket.values();
+            }
+        }
+        else if (predicate.size() > 0)
+        {
+            if ("and".equals(predicate.get(0)))
+            { // Use the first operand of the "and" that can be satisfied by an index.
+                for (Object operand : predicate.subList(1, predicate.size()))
+                {
+                    if (operand instanceof List)
+                    {
+                        Collection<QmfAgentData> candidates = findIndexed((List)operand);
+                        if (candidates != null)
+                        {
+                            return candidates;
+                        }
+                    }
+                }
+            }
+            else
+            {
+                Collection<QmfAgentData> candidates = findIndexed(predicate);
+                if (candidates != null)
+                {
+                    return candidates;
+                }
+            }
+        }
+        return _objects.values();
+    }
+
+    /**
+     * Find the candidate objects for an expression using the primary index if the expression only matches given
+     * ObjectIds, or otherwise using a property index.
+     *
+     * @param expr the expression List.
+     * @return the candidate objects or null if the expression can't be satisfied by an index.
+     */
+    private Collection<QmfAgentData> findIndexed(final List expr)
+    {
+        if (expr.size() > 1 && "or".equals(expr.get(0)))
+        {
+            Map<ObjectId, QmfAgentData> candidates = new LinkedHashMap<ObjectId, QmfAgentData>(expr.size()*2);
+            for (Object operand : expr.subList(1, expr.size()))
+            {
+                String value = (operand instanceof List) ? findLiteral((List)operand, "_object_id") : null;
+                if (value == null || !findObjectId(value, candidates))
+                {
+                    return null;
+                }
+            }
+            return candidates.values();
+        }
+
+        String value = findLiteral(expr, "_object_id");
+        if (value != null)
+        {
+            Map<ObjectId, QmfAgentData> candidates = new LinkedHashMap<ObjectId, QmfAgentData>(2);
+            if (findObjectId(value, candidates))
+            {
+                return candidates.values();
+            }
+        }
+
+        return _propertyIndexes.isEmpty() ? null : findEquals(expr);
+    }
+
+    /**
+     * Look up an object by the String form of its ObjectId, as used by BooleanExpression for "_object_id", adding it
+     * to the candidates if it exists.
+     *
+     * @param value the String form of the ObjectId.
+     * @param candidates the candidate objects being collected.
+     * @return false if value isn't in the form created by ObjectId.toString(), so the primary index can't be used.
+     */
+    private boolean findObjectId(final String value, final Map<ObjectId, QmfAgentData> candidates)
+    {
+        ObjectId objectId;
+        try
+        {
+            objectId = new ObjectId(value);
+        }
+        catch (NumberFormatException nfe)
+        {
+            return false;
+        }
+
+        if (!objectId.toString().equals(value))
+        {
+            return false;
+        }
+
+        QmfAgentData object = _objects.get(objectId);
+        if (object != null)
+        {
+            candidates.put(objectId, object);
+        }
+        return true;
+    }
+
+    /**
+     * If the expression is an "eq" comparing an indexed property with a literal use the property index to find the
+     * candidate objects. The literal is converted to a String in the same way as BooleanExpression does.
+     *
+     * @param expr the expression List.
+     * @return the candidate objects or null if the expression can't be satisfied by a property index.
+     */
+    private Collection<QmfAgentData> findEquals(final List expr)
+    {
+        if (expr.size() != 3 || !"eq".equals(expr.get(0)))
+        {
+            return null;
+        }
+
+        Object lhs = expr.get(1);
+        Object rhs = expr.get(2);
+        if (!(lhs instanceof String))
+        { // The property name may be on either side of the "eq"
+            Object temp = lhs;
+            lhs = rhs;
+            rhs = temp;
+        }
+
+        if (!(lhs instanceof String))
+        {
+            return null;
+        }
+
+        PropertyIndex index = _propertyIndexes.get(lhs);
+        if (index == null)
+        {
+            return null;
+        }
+
+        String value = findLiteral(expr, (String)lhs);
+        return (value == null) ? null : index.find(value);
+    }
+
+    /**
+     * If the expression is an "eq" comparing the named property with a literal return the String form of the
+     * literal, converted in the same way as BooleanExpression does.
+     *
+     * @param expr the expression List.
+     * @param name the property name.
+     * @return the String form of the literal or null if the expression isn't an "eq" of the property and a literal.
+     */
+    private static String findLiteral(final List expr, final String name)
+    {
+        if (expr.size() != 3 || !"eq".equals(expr.get(0)))
+        {
+            return null;
+        }
+
+        Object lhs = expr.get(1);
+        Object rhs = expr.get(2);
+        if (!name.equals(lhs))
+        { // The property name may be on either side of the "eq"
+            Object temp = lhs;
+            lhs = rhs;
+            rhs = temp;
+        }
+
+        if (!name.equals(lhs) || rhs instanceof String)
+        {
+            return null;
+        }
+
+        String value = null;
+        if (rhs instanceof List)
+        {
+            List quote = (List)rhs;
+            if (quote.size() != 2 || !"quote".equals(quote.get(0)) || quote.get(1) == null)
+            {
+                return null;
+            }
+            value = quote.get(1).toString();
+        }
+        else if (rhs != null)
+        {
+            value = rhs.toString();
+        }
+        return value;
+    }
+}
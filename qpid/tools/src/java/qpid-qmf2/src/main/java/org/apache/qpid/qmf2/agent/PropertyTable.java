@@ -0,0 +1,209 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.agent;
+
+// Misc Imports
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.common.QmfType;
+import org.apache.qpid.qmf2.common.SchemaObjectClass;
+import org.apache.qpid.qmf2.common.SchemaProperty;
+
+/**
+ * A PropertyTable maps the property names of a SchemaObjectClass onto fixed slots in a FlatValueMap. A single
+ * PropertyTable is shared by every QmfAgentData created from a given SchemaObjectClass, so each object only needs
+ * to hold the property values themselves rather than a HashMap entry (and key reference) per property.
+ * <p>
+ * Properties of TYPE_INT and TYPE_FLOAT are allocated slots in a primitive long array so their values needn't be
+ * boxed, all other properties are allocated slots in an Object array.
+ */
+final class PropertyTable
+{
+    static final int OBJECT = 0;
+    static final int LONG = 1;
+    static final int DOUBLE = 2;
+
+    /**
+     * PropertyTables are cached by SchemaObjectClass. SchemaObjectClass doesn't override equals() so this is keyed
+     * by identity and the weak keys allow tables to be collected along with schema that are no longer in use.
+     */
+    private static final Map<SchemaObjectClass, PropertyTable> _tables = new WeakHashMap<SchemaObjectClass, PropertyTable>();
+
+    private final Map<String, Integer> _slots;
+    private final String[] _names;
+    private final int[] _types;
+    private final int[] _offsets;
+    private final int _primitiveCount;
+    private final int _objectCount;
+    private final String[] _idNames;
+
+    /**
+     * Return the PropertyTable for the specified SchemaObjectClass, creating it if necessary. If properties have been
+     * added to the schema, or its idNames changed, since the PropertyTable was created a new one is created. Objects
+     * created with the old one are unaffected, they simply store the new properties as extra properties.
+     *
+     * @param schema the SchemaObjectClass describing the properties.
+     * @return the PropertyTable for the specified SchemaObjectClass.
+     */
+    static synchronized PropertyTable getInstance(final SchemaObjectClass schema)
+    {
+        PropertyTable table = _tables.get(schema);
+        String[] idNames = schema.getIdNames();
+        if (table == null || table.size() != schema.getPropertyCount() || !Arrays.equals(table._idNames, idNames))
+        {
+            table = new PropertyTable(schema.getProperties(), idNames);
+            _tables.put(schema, table);
+        }
+        return table;
+    }
+
+    /**
+     * Construct a PropertyTable from a List of SchemaProperty.
+     * @param properties the List of SchemaProperty.
+     * @param idNames the names of the properties used to construct the object identifier.
+     */
+    private PropertyTable(final List<SchemaProperty> properties, final String[] idNames)
+    {
+        _idNames = idNames;
+        int size = properties.size();
+        _slots = new HashMap<String, Integer>(size*2);
+        _names = new String[size];
+        _types = new int[size];
+        _offsets = new int[size];
+
+        int primitiveCount = 0;
+        int objectCount = 0;
+        for (int i = 0; i < size; i++)
+        {
+            SchemaProperty property = properties.get(i);
+            QmfType type = property.getType();
+            _names[i] = property.getName();
+            _slots.put(_names[i], i);
+            if (type == QmfType.TYPE_INT)
+            {
+                _types[i] = LONG;
+                _offsets[i] = primitiveCount++;
+            }
+            else if (type == QmfType.TYPE_FLOAT)
+            {
+                _types[i] = DOUBLE;
+                _offsets[i] = primitiveCount++;
+            }
+            else
+            {
+                _types[i] = OBJECT;
+                _offsets[i] = objectCount++;
+            }
+        }
+        _primitiveCount = primitiveCount;
+        _objectCount = objectCount;
+    }
+
+    /**
+     * Return the slot for a property name.
+     * @param name the property name.
+     * @return the slot for the property or -1 if the property isn't in the table.
+     */
+    int getSlot(final Object name)
+    {
+        Integer slot = _slots.get(name);
+        return (slot == null) ? -1 : slot;
+    }
+
+    /**
+     * Return true if the named property is one of the schema's idNames.
+     * @param name the property name.
+     * @return true if the named property is one of the schema's idNames.
+     */
+    boolean isIdName(final String name)
+    {
+        for (String idName : _idNames)
+        {
+            if (idName.equals(name))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return the number of slots in the table.
+     * @return the number of slots in the table.
+     */
+    int size()
+    {
+        return _names.length;
+    }
+
+    /**
+     * Return the property name of a slot.
+     * @param slot the slot.
+     * @return the property name of the slot.
+     */
+    String getName(final int slot)
+    {
+        return _names[slot];
+    }
+
+    /**
+     * Return the storage type of a slot.
+     * @param slot the slot.
+     * @return OBJECT, LONG or DOUBLE.
+     */
+    int getType(final int slot)
+    {
+        return _types[slot];
+    }
+
+    /**
+     * Return the offset of a slot in either the primitive or the Object array, depending upon its type.
+     * @param slot the slot.
+     * @return the offset of the slot in either the primitive or the Object array.
+     */
+    int getOffset(final int slot)
+    {
+        return _offsets[slot];
+    }
+
+    /**
+     * Return the size of the primitive array needed by a FlatValueMap using this table.
+     * @return the size of the primitive array needed by a FlatValueMap using this table.
+     */
+    int getPrimitiveCount()
+    {
+        return _primitiveCount;
+    }
+
+    /**
+     * Return the size of the Object array needed by a FlatValueMap using this table.
+     * @return the size of the Object array needed by a FlatValueMap using this table.
+     */
+    int getObjectCount()
+    {
+        return _objectCount;
+    }
+}
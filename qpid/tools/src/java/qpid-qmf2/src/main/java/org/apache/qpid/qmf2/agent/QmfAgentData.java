@@ -29,6 +29,7 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 // QMF2 Imports
+import org.apache.qpid.qmf2.common.AMQPListWriter;
 import org.apache.qpid.qmf2.common.ObjectId;
 import org.apache.qpid.qmf2.common.QmfException;
 import org.apache.qpid.qmf2.common.QmfManaged;
@@ -74,6 +75,33 @@ public class QmfAgentData extends QmfManaged implements Comparable<QmfAgentData>
     private long _deleteTimestamp;
     private String _compareKey = null;
 
+    /**
+     * The most recent encoding of the object, see getEncoded().
+     */
+    private volatile EncodedForm _encoded = null;
+
+    /**
+     * Holds an encoding of the object along with the versions of the object's state that it was encoded from.
+     */
+    private static final class EncodedForm
+    {
+        private final long _valuesVersion;
+        private final long _updateTimestamp;
+        private final long _deleteTimestamp;
+        private final int _subtypesHash;
+        private final byte[] _bytes;
+
+        EncodedForm(final long valuesVersion, final long updateTimestamp, final long deleteTimestamp,
+                    final int subtypesHash, final byte[] bytes)
+        {
+            _valuesVersion = valuesVersion;
+            _updateTimestamp = updateTimestamp;
+            _deleteTimestamp = deleteTimestamp;
+            _subtypesHash = subtypesHash;
+            _bytes = bytes;
+        }
+    }
+
     /**
      * This Map is used to look up Subscriptions that are interested in this data by SubscriptionId
      */
@@ -81,6 +109,13 @@ public class QmfAgentData extends QmfManaged implements Comparable<QmfAgentData>
 
     /**
      * Construct a QmfAgentData object of the type described by the given SchemaObjectClass.
+     * <p>
+     * The object's properties are stored in a FlatValueMap, which holds the values of the properties described by
+     * the schema in fixed slots shared by all objects of the same schema, with numeric properties held as primitives.
+     * This is much more compact than a HashMap per object and means that once a numeric property has been set,
+     * updating it via incValue()/decValue() neither creates garbage nor locks the object, so statistics may be
+     * updated directly from many threads. Properties not described by the schema may still be set, they are just
+     * stored less efficiently. The FlatValueMap also tracks when each property changes, see mapEncodeChanges().
      *
      * @param schema the schema describing the type of this QmfAgentData object.
      */
@@ -91,6 +126,7 @@ public class QmfAgentData extends QmfManaged implements Comparable<QmfAgentData>
         _createTimestamp = currentTime;
         _deleteTimestamp = 0;
         setSchemaClassId(schema.getClassId());
+        _values = new FlatValueMap(PropertyTable.getInstance(schema));
     }
 
     /**
@@ -145,17 +181,38 @@ public class QmfAgentData extends QmfManaged implements Comparable<QmfAgentData>
         _subscriptions.clear();
     }
 
+    /**
+     * Return true if the named property is one of the idNames of this object's schema. These are used to construct
+     * the object's ObjectId so, unlike other properties, their values don't change once the object has been added
+     * to the Agent, which is what lets the Agent index objects by them.
+     *
+     * @param name the property name.
+     * @return true if the named property is one of the idNames of this object's schema.
+     */
+    final boolean isIdName(final String name)
+    {
+        return _values instanceof FlatValueMap && ((FlatValueMap)_values).getTable().isIdName(name);
+    }
+
     /**
      * Add the delta to the property.
      *
      * @param name the name of the property being modified.
      * @param delta the value being added to the property.
      */
-    public final synchronized void incValue(final String name, final long delta)
+    public final void incValue(final String name, final long delta)
     {
-        long value = getLongValue(name);
-        value += delta;
-        setValue(name, value);
+        if (_values instanceof FlatValueMap && ((FlatValueMap)_values).addLong(name, delta))
+        { // Lock free update of a property that's already held in a primitive slot.
+            return;
+        }
+
+        synchronized(this)
+        {
+            long value = getLongValue(name);
+            value += delta;
+            setValue(name, value);
+        }
     }
 
     /**
@@ -164,11 +221,19 @@ public class QmfAgentData extends QmfManaged implements Comparable<QmfAgentData>
      * @param name the name of the property being modified.
      * @param delta the value being added to the property.
      */
-    public final synchronized void incValue(final String name, final double delta)
+    public final void incValue(final String name, final double delta)
     {
-        double value = getDoubleValue(name);
-        value += delta;
-        setValue(name, value);
+        if (_values instanceof FlatValueMap && ((FlatValueMap)_values).addDouble(name, delta))
+        { // Lock free update of a property that's already held in a primitive slot.
+            return;
+        }
+
+        synchronized(this)
+        {
+            double value = getDoubleValue(name);
+            value += delta;
+            setValue(name, value);
+        }
     }
 
     /**
@@ -177,11 +242,19 @@ public class QmfAgentData extends QmfManaged implements Comparable<QmfAgentData>
      * @param name the name of the property being modified.
      * @param delta the value being subtracted from the property.
      */
-    public final synchronized void decValue(final String name, final long delta)
+    public final void decValue(final String name, final long delta)
     {
-        long value = getLongValue(name);
-        value -= delta;
-        setValue(name, value);
+        if (_values instanceof FlatValueMap && ((FlatValueMap)_values).addLong(name, -delta))
+        { // Lock free update of a property that's already held in a primitive slot.
+            return;
+        }
+
+        synchronized(this)
+        {
+            long value = getLongValue(name);
+            value -= delta;
+            setValue(name, value);
+        }
     }
 
     /**
@@ -190,11 +263,19 @@ public class QmfAgentData extends QmfManaged implements Comparable<QmfAgentData>
      * @param name the name of the property being modified.
      * @param delta the value being subtracted from the property.
      */
-    public final synchronized void decValue(final String name, final double delta)
+    public final void decValue(final String name, final double delta)
     {
-        double value = getDoubleValue(name);
-        value -= delta;
-        setValue(name, value);
+        if (_values instanceof FlatValueMap && ((FlatValueMap)_values).addDouble(name, -delta))
+        { // Lock free update of a property that's already held in a primitive slot.
+            return;
+        }
+
+        synchronized(this)
+        {
+            double value = getDoubleValue(name);
+            value -= delta;
+            setValue(name, value);
+        }
     }
 
     // The following methods aren't in the QMF2 API per se, but they are used to manage the association between
@@ -305,6 +386,117 @@ public class QmfAgentData extends QmfManaged implements Comparable<QmfAgentData>
         return map;
     }
 
+    /**
+     * Return the value of a top level key of the Map returned by mapEncode() without creating the Map. Subclasses
+     * that add their own top level keys in mapEncode() should also override this to return them.
+     *
+     * @param key the top level key to look up.
+     * @return the value of the key or null if mapEncode() doesn't contain it.
+     */
+    @Override
+    protected Object getEncodedValue(final String key)
+    {
+        if (key.equals("_update_ts"))
+        {
+            return _updateTimestamp;
+        }
+        else if (key.equals("_create_ts"))
+        {
+            return _createTimestamp;
+        }
+        else if (key.equals("_delete_ts"))
+        {
+            return _deleteTimestamp;
+        }
+        else if (key.equals("_subtypes"))
+        {
+            return _subtypes;
+        }
+        else if (key.equals("_values"))
+        {
+            return super.mapEncode();
+        }
+        else if (key.equals("_schema_id"))
+        {
+            return getSchemaClassId().mapEncode();
+        }
+        else if (key.equals("_object_id"))
+        {
+            return getObjectId().mapEncode();
+        }
+        return null;
+    }
+
+    /**
+     * Return the AMQP encoding of the Map returned by mapEncode(), as used by AMQPListWriter.addEncoded().
+     * <p>
+     * The encoding is cached and only recreated if the object's properties, subtypes or timestamps have changed
+     * since it was last encoded, so objects that are repeatedly queried by many Consoles are only encoded when they
+     * change. The property changes are tracked by the object's FlatValueMap, which is why mapEncode() is still
+     * called each time, as subclasses often set their properties there. mapEncode() itself is cheap as it wraps
+     * the object's properties rather than copying them, it's the encoding that is expensive.
+     *
+     * @return the AMQP encoding of the Map returned by mapEncode().
+     */
+    final byte[] getEncoded()
+    {
+        Map<String, Object> map = mapEncode();
+        if (!(_values instanceof FlatValueMap))
+        { // The properties can't be versioned so the encoding can't be cached.
+            return AMQPListWriter.encode(map);
+        }
+
+        // Get the versions before encoding so that the encoding is recreated if anything changes during encoding.
+        long valuesVersion = ((FlatValueMap)_values).getVersion();
+        long updateTimestamp = _updateTimestamp;
+        long deleteTimestamp = _deleteTimestamp;
+        int subtypesHash = (_subtypes == null) ? 0 : _subtypes.hashCode();
+
+        EncodedForm encoded = _encoded;
+        if (encoded == null || encoded._valuesVersion != valuesVersion ||
+            encoded._updateTimestamp != updateTimestamp || encoded._deleteTimestamp != deleteTimestamp ||
+            encoded._subtypesHash != subtypesHash)
+        {
+            encoded = new EncodedForm(valuesVersion, updateTimestamp, deleteTimestamp, subtypesHash,
+                                      AMQPListWriter.encode(map));
+            _encoded = encoded;
+        }
+        return encoded._bytes;
+    }
+
+    /**
+     * Return a delta encoding of the object containing only the properties that have changed value at or after the
+     * specified time. The delta has the same form as the Map returned by mapEncode() but its _values only contain
+     * the changed properties and it is marked with "_delta": true so that the Console knows to merge it with the
+     * object it already has rather than replace it.
+     * <p>
+     * As with mapEncode() any properties set by a subclass's mapEncode() are included if they have changed. If the
+     * changes can't be expressed as a delta, for example because a property has been removed or the object has been
+     * deleted, the full mapEncode() is returned instead.
+     *
+     * @param since the time, in nanoseconds since the epoch, from which changes are wanted.
+     * @return a delta encoding of the object, or the full encoding if a delta isn't possible.
+     */
+    public final Map<String, Object> mapEncodeChanges(final long since)
+    {
+        Map<String, Object> map = mapEncode();
+        if (isDeleted() || !(_values instanceof FlatValueMap))
+        {
+            return map;
+        }
+
+        Map<String, Object> changes = ((FlatValueMap)_values).getChanges(since);
+        if (changes == null)
+        {
+            return map;
+        }
+
+        map.put("_values", changes);
+        map.remove("_subtypes");
+        map.put("_delta", Boolean.TRUE);
+        return map;
+    }
+
     /**
      * Helper/debug method to list the QMF Object properties and their type.
      */
@@ -25,6 +25,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TimerTask;
@@ -32,6 +33,7 @@ import java.util.UUID;
 
 // QMF2 Imports
 import org.apache.qpid.qmf2.common.Handle;
+import org.apache.qpid.qmf2.common.ObjectId;
 import org.apache.qpid.qmf2.common.QmfException;
 import org.apache.qpid.qmf2.common.QmfQuery;
 import org.apache.qpid.qmf2.common.QmfQueryTarget;
@@ -43,6 +45,14 @@ import org.apache.qpid.qmf2.common.QmfQueryTarget;
  * the _subscriptions Map when the Subscription expires. The timer also causes QmfAgenData that have been updated
  * since the last interval to be published.
  * <p>
+ * The Agent class doesn't actually schedule its Subscriptions individually, its SubscriptionScheduler groups them
+ * by publish interval and calls update() for each of them with the results of evaluating each distinct query once.
+ * Subscription remains a TimerTask though so that AgentExternal Agents may schedule Subscriptions themselves.
+ * <p>
+ * If the Console requested delta updates then objects that have already been published to the Subscription are
+ * republished containing only the properties that have changed since they were last published, see
+ * QmfAgentData.mapEncodeChanges(). To do this the Subscription records when it last published each object.
+ * <p>
  * The following diagram illustrates the Subscription relationships with the Agent and QmfAgentData.
  * <p>
  * <img alt="" src="doc-files/Subscriptions.png">
@@ -69,6 +79,12 @@ public final class Subscription extends TimerTask
     private QmfQuery _query;
     private long _duration = 0;
     private long _interval = 0;
+    private final boolean _delta;
+
+    /**
+     * The time that each object was last published, only used for delta Subscriptions.
+     */
+    private Map<ObjectId, Long> _published = new HashMap<ObjectId, Long>();
 
     /**
      * Tells the SubscribableAgent to send the results to the Console via a subscription indicate message.
@@ -95,22 +111,25 @@ public final class Subscription extends TimerTask
         _query = params.getQuery();
         setDuration(params.getLifetime());
         setInterval(params.getPublishInterval());
+        _delta = params.isDelta();
 
-        _log.debug("Creating Subscription {}, duration = {}, interval = {}", new Object[] {_subscriptionId, _duration, _interval});
+        _log.debug("Creating Subscription {}, duration = {}, interval = {}, delta = {}",
+                   new Object[] {_subscriptionId, _duration, _interval, _delta});
     }
 
     /**
-     * This method gets called periodically by the Timer scheduling this TimerTask.
+     * This method gets called periodically by the Timer scheduling this TimerTask, or once by the Agent's
+     * SubscriptionScheduler when the Subscription is created.
      * <p>
      * First a check is made to see if the Subscription has expired, if it has then it is cancelled.
      * <p>
      * If the Subscription isn't cancelled the Query gets evaluated against all registered objects and any that match
-     * which are new to the Subscription or have changed since the last update get published.
+     * which are new to the Subscription or have changed since the last update get published. For delta Subscriptions
+     * objects that have already been published only have their changed properties published.
      */
     public void run()
     {
-        long elapsed = (long)Math.round((System.currentTimeMillis() - _startTime)/1000.0f);
-        if (elapsed >= _duration)
+        if (hasExpired())
         {
             _log.debug("Subscription {} has expired, removing", _subscriptionId);
             // The Subscription has expired so cancel it
@@ -118,34 +137,87 @@ public final class Subscription extends TimerTask
         }
         else
         {
-            List<QmfAgentData> objects = _agent.evaluateQuery(_query);
-            List<Map> results = new ArrayList<Map>(objects.size());
-            for (QmfAgentData object : objects)
+            update(_agent.evaluateQuery(_query));
+        }
+    }
+
+    /**
+     * Return true if the Subscription has exceeded its duration without being refreshed.
+     * @return true if the Subscription has exceeded its duration without being refreshed.
+     */
+    boolean hasExpired()
+    {
+        long elapsed = (long)Math.round((System.currentTimeMillis() - _startTime)/1000.0f);
+        return elapsed >= _duration;
+    }
+
+    /**
+     * Publish the objects that match the Subscription's query which are new to the Subscription or have changed
+     * since the last update. This is separate from run() so that when several Subscriptions share the same query
+     * the Agent can evaluate the query once and pass the results to each of them.
+     *
+     * @param objects the QmfAgentData objects that currently match the Subscription's query, the List isn't modified.
+     */
+    synchronized void update(final List<QmfAgentData> objects)
+    {
+        // Take the time before encoding so that changes made whilst the objects are being encoded are included in
+        // the next delta.
+        long now = System.currentTimeMillis()*1000000l;
+        List<Map> results = new ArrayList<Map>(objects.size());
+        Map<ObjectId, Long> published = _delta ? new HashMap<ObjectId, Long>(objects.size()) : null;
+        for (QmfAgentData object : objects)
+        {
+            if (object.getSubscription(_subscriptionId) == null)
             {
-                if (object.getSubscription(_subscriptionId) == null)
+                // The object is new to this Subscription so publish it
+                object.addSubscription(_subscriptionId, this);
+                results.add(object.mapEncode());
+                if (_delta)
                 {
-                    // The object is new to this Subscription so publish it
-                    object.addSubscription(_subscriptionId, this);
+                    published.put(object.getObjectId(), now);
+                }
+            }
+            else if (_delta)
+            {
+                Long since = _published.get(object.getObjectId());
+                if (since == null)
+                { // We've no record of publishing the object so publish it in full.
                     results.add(object.mapEncode());
+                    since = now;
                 }
-                else
+                else if (object.getUpdateTime() >= since)
                 {
-                    // If the object has had update() called since last Subscription update publish it.
-                    // Note that in many cases an Agent might call publish() on a managed object rather than
-                    // update() which immediately forces a data indication to be sent to the subscriber on
-                    // the Console.
-                    if (object.getUpdateTime() > _lastUpdate)
+                    Map<String, Object> delta = object.mapEncodeChanges(since);
+                    if (!delta.containsKey("_delta") || ((Map)delta.get("_values")).size() > 0)
                     {
-                        results.add(object.mapEncode());
+                        results.add(delta);
                     }
+                    since = now;
                 }
+                published.put(object.getObjectId(), since);
             }
-
-            if (results.size() > 0)
+            else
             {
-                publish(results);
+                // If the object has had update() called since last Subscription update publish it.
+                // Note that in many cases an Agent might call publish() on a managed object rather than
+                // update() which immediately forces a data indication to be sent to the subscriber on
+                // the Console.
+                if (object.getUpdateTime() > _lastUpdate)
+                {
+                    results.add(object.mapEncode());
+                }
             }
         }
+
+        if (_delta)
+        { // Replacing the Map rather than updating it means objects no longer matching the query get dropped.
+            _published = published;
+        }
+
+        if (results.size() > 0)
+        {
+            publish(results);
+        }
     }
 
     /**
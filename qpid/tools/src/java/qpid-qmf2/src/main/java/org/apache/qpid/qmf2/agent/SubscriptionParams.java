@@ -88,6 +88,16 @@ public final class SubscriptionParams extends QmfData
         return getLongValue("_duration");
     }
 
+    /**
+     * Return true if the Console has asked for delta updates.
+     * @return true if the Console has asked for delta updates, that is for objects that have already been published
+     *         to the subscription to be republished containing only the properties that have changed.
+     */
+    public boolean isDelta()
+    {
+        return getBooleanValue("_delta");
+    }
+
     /**
      * Return authenticated user id of caller if present, else null.
      * @return authenticated user id of caller if present, else null.
@@ -0,0 +1,177 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.agent;
+
+// Simple Logging Facade 4 Java
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Misc Imports
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The SubscriptionScheduler runs the Subscriptions of an Agent on a ScheduledExecutorService.
+ * <p>
+ * Rather than scheduling each Subscription separately, Subscriptions with the same publish interval share a single
+ * periodic Tick. Each time a Tick runs it evaluates each distinct QmfQuery once and passes the results to every
+ * Subscription using that query, so N Subscriptions with the same query and interval only search the Agent's
+ * objects once per interval rather than N times. Queries are compared using their Map encoding.
+ * <p>
+ * A new Subscription is also run once as soon as it is added, so that the Console receives the initial state of the
+ * subscribed objects immediately rather than when the Tick next runs.
+ */
+final class SubscriptionScheduler
+{
+    private static final Logger _log = LoggerFactory.getLogger(SubscriptionScheduler.class);
+
+    private final ScheduledExecutorService _executor;
+    private final SubscribableAgent _agent;
+
+    /**
+     * The Ticks, keyed by publish interval in milliseconds.
+     */
+    private final Map<Long, Tick> _ticks = new HashMap<Long, Tick>();
+
+    /**
+     * A Tick periodically updates all of the Subscriptions with a given publish interval.
+     */
+    private final class Tick implements Runnable
+    {
+        private final long _interval;
+        private final List<Subscription> _subscriptions = new CopyOnWriteArrayList<Subscription>();
+        private ScheduledFuture<?> _future;
+
+        Tick(final long interval)
+        {
+            _interval = interval;
+        }
+
+        public void run()
+        {
+            // Catch RuntimeException, as if it escapes the ScheduledExecutorService silently stops running the Tick.
+            try
+            {
+                Map<Map, List<QmfAgentData>> results = new HashMap<Map, List<QmfAgentData>>();
+                for (Subscription subscription : _subscriptions)
+                {
+                    if (subscription.hasExpired())
+                    {
+                        _log.debug("Subscription {} has expired, removing", subscription.getSubscriptionId());
+                        // Cancelling the Subscription causes it to be removed from the Tick.
+                        subscription.cancel();
+                        continue;
+                    }
+
+                    Map key = subscription.getQuery().mapEncode();
+                    List<QmfAgentData> objects = results.get(key);
+                    if (objects == null)
+                    {
+                        objects = _agent.evaluateQuery(subscription.getQuery());
+                        results.put(key, objects);
+                    }
+                    subscription.update(objects);
+                }
+            }
+            catch (RuntimeException re)
+            {
+                _log.info("RuntimeException {} caught in Tick.run() for interval {}", re.getMessage(), _interval);
+            }
+        }
+    }
+
+    /**
+     * Construct a SubscriptionScheduler.
+     * @param executor the ScheduledExecutorService used to run the Subscriptions.
+     * @param agent the SubscribableAgent whose Subscriptions are being run.
+     */
+    SubscriptionScheduler(final ScheduledExecutorService executor, final SubscribableAgent agent)
+    {
+        _executor = executor;
+        _agent = agent;
+    }
+
+    /**
+     * Add a Subscription, running it immediately then periodically with the other Subscriptions that have the same
+     * publish interval.
+     * @param subscription the Subscription being added.
+     */
+    synchronized void add(final Subscription subscription)
+    {
+        long interval = subscription.getInterval();
+        Tick tick = _ticks.get(interval);
+        if (tick == null)
+        {
+            tick = new Tick(interval);
+            tick._future = _executor.scheduleWithFixedDelay(tick, interval, interval, TimeUnit.MILLISECONDS);
+            _ticks.put(interval, tick);
+        }
+        tick._subscriptions.add(subscription);
+
+        _executor.execute(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    subscription.run();
+                }
+                catch (RuntimeException re)
+                {
+                    _log.info("RuntimeException {} caught running Subscription {}",
+                              re.getMessage(), subscription.getSubscriptionId());
+                }
+            }
+        });
+    }
+
+    /**
+     * Remove a Subscription, cancelling its Tick if there are no other Subscriptions with the same publish interval.
+     * @param subscription the Subscription being removed.
+     */
+    synchronized void remove(final Subscription subscription)
+    {
+        long interval = subscription.getInterval();
+        Tick tick = _ticks.get(interval);
+        if (tick != null && tick._subscriptions.remove(subscription) && tick._subscriptions.isEmpty())
+        {
+            tick._future.cancel(false);
+            _ticks.remove(interval);
+        }
+    }
+
+    /**
+     * Cancel all of the Ticks. This doesn't cancel the Subscriptions themselves.
+     */
+    synchronized void cancelAll()
+    {
+        for (Tick tick : _ticks.values())
+        {
+            tick._future.cancel(false);
+        }
+        _ticks.clear();
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.common;
+
+// JMS Imports
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.MapMessage;
+import javax.jms.Message;
+import javax.jms.MessageFormatException;
+
+// Misc Imports
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Need the following to decode amqp/list messages
+import java.nio.ByteBuffer;
+import org.apache.qpid.transport.Type;
+import org.apache.qpid.transport.codec.BBDecoder;
+
+/**
+ * Decodes the elements of an amqp/list encoded Message one at a time.
+ * <p>
+ * AMQPMessage.getList() decodes the whole List at once, which means holding the whole of the encoded Message body
+ * and the whole of the decoded List in memory at the same time. For large responses, such as the results of a
+ * query on an Agent managing many objects, it is better to use an AMQPListReader to convert each element into the
+ * object that is actually wanted (e.g. a QmfConsoleData) as it is read, so the decoded Maps can be garbage
+ * collected as soon as they have been used.
+ * <p>
+ * For amqp/list encoded as a BytesMessage the List header is read from the Message then the type code and length of
+ * each element are read from the Message and the element's contents are read straight into a buffer that is reused
+ * for subsequent elements, so at most one encoded element is held at a time and the whole body is never copied.
+ * Because the List size is an AMQP uint32 bodies larger than 2^31-1 bytes may be decoded. The contents of a Map,
+ * List or array element are decoded here, as the BBDecoder only decodes these when preceded by their length, but
+ * the values that they contain are decoded by the BBDecoder. For the Qpid 0.20 encoding of amqp/list as a
+ * MapMessage the elements are simply retrieved from the MapMessage one at a time.
+ * <p>
+ * An AMQPListReader reads the Message body so it may only be used once for a given Message and shouldn't be
+ * combined with AMQPMessage.getList() on the same Message.
+ */
+public final class AMQPListReader
+{
+    private final BytesMessage _bytesMessage;
+    private final MapMessage _mapMessage;
+    private final Enumeration _names;
+    private final long _size;
+    private long _read = 0;
+
+    private final BBDecoder _decoder = new BBDecoder();
+    private byte[] _buffer = new byte[1024];
+
+    /**
+     * Create an AMQPListReader to decode the elements of an amqp/list encoded Message.
+     *
+     * @param message amqp/list encoded JMS Message.
+     */
+    public AMQPListReader(final Message message) throws JMSException
+    {
+        if (message == null)
+        {
+            throw new MessageFormatException("Attempting to create AMQPListReader on null Message");
+        }
+        else if (message instanceof BytesMessage)
+        {
+            _bytesMessage = (BytesMessage)message;
+            _mapMessage = null;
+            _names = null;
+            if (_bytesMessage.getBodyLength() == 0)
+            {
+                _size = 0;
+            }
+            else
+            { // The List is encoded as a uint32 byte count, which we don't need, followed by a uint32 element count.
+                readUint32();
+                _size = readUint32();
+            }
+        }
+        else if (message instanceof MapMessage)
+        { // See AMQPMessage.getList() for details of this encoding.
+            _bytesMessage = null;
+            _mapMessage = (MapMessage)message;
+            _names = _mapMessage.getMapNames();
+            _size = -1;
+        }
+        else
+        {
+            throw new MessageFormatException("Attempting to create AMQPListReader on " +
+                                             message.getClass().getCanonicalName());
+        }
+    }
+
+    /**
+     * Return the number of elements in the List.
+     * @return the number of elements in the List, or -1 if this isn't known until the List has been read.
+     */
+    public long size()
+    {
+        return _size;
+    }
+
+    /**
+     * Return true if there are more elements to read.
+     * @return true if there are more elements to read.
+     */
+    public boolean hasNext()
+    {
+        return (_names == null) ? _read < _size : _names.hasMoreElements();
+    }
+
+    /**
+     * Decode the next element of the List.
+     * @return the next element of the List.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T next() throws JMSException
+    {
+        if (!hasNext())
+        {
+            throw new MessageFormatException("Attempting to read past the end of an amqp/list");
+        }
+        _read++;
+
+        if (_names != null)
+        {
+            return (T)_mapMessage.getObject((String)_names.nextElement());
+        }
+
+        Type type = getType(_bytesMessage.readUnsignedByte());
+        long length = type.isFixed() ? type.getWidth() : readLength(type.getWidth());
+        if (length > Integer.MAX_VALUE)
+        {
+            throw new MessageFormatException("amqp/list element too large to decode");
+        }
+
+        int size = (int)length;
+        if (_buffer.length < size)
+        {
+            _buffer = new byte[Math.max(size, _buffer.length*2)];
+        }
+
+        if (size > 0 && _bytesMessage.readBytes(_buffer, size) != size)
+        {
+            throw new MessageFormatException("Unexpected end of amqp/list");
+        }
+
+        _decoder.init(ByteBuffer.wrap(_buffer, 0, size));
+        return (T)decodeElement(type, size);
+    }
+
+    /**
+     * Decode an element whose contents, without the length that precedes variable width types, are in the buffer.
+     */
+    private Object decodeElement(final Type type, final int size) throws JMSException
+    {
+        if (type.isFixed())
+        {
+            return decode(type);
+        }
+
+        switch (type)
+        {
+            case MAP:
+                long count = _decoder.readUint32();
+                Map<String, Object> map = new LinkedHashMap<String, Object>();
+                for (long i = 0; i < count; i++)
+                {
+                    String key = _decoder.readStr8();
+                    map.put(key, decode(getType(_decoder.readUint8())));
+                }
+                return map;
+            case LIST:
+                count = _decoder.readUint32();
+                List<Object> list = new ArrayList<Object>((int)Math.min(count, 1024));
+                for (long i = 0; i < count; i++)
+                {
+                    list.add(decode(getType(_decoder.readUint8())));
+                }
+                return list;
+            case ARRAY:
+                Type elementType = getType(_decoder.readUint8());
+                count = _decoder.readUint32();
+                List<Object> array = new ArrayList<Object>((int)Math.min(count, 1024));
+                for (long i = 0; i < count; i++)
+                {
+                    array.add(decode(elementType));
+                }
+                return array;
+            case STRUCT32:
+                return _decoder.readStruct(_decoder.readUint16());
+            case STR8:
+            case STR16:
+                try
+                {
+                    return new String(_buffer, 0, size, "UTF-8");
+                }
+                catch (UnsupportedEncodingException uee)
+                {
+                    throw new MessageFormatException("amqp/list element can't be decoded as UTF-8");
+                }
+            case STR8_LATIN:
+            case STR8_UTF16:
+            case STR16_LATIN:
+            case STR16_UTF16:
+                return new String(_buffer, 0, size);
+            default:
+                return Arrays.copyOf(_buffer, size);
+        }
+    }
+
+    /**
+     * Decode a value, including the length that precedes variable width types, in the same way as the BBDecoder
+     * decodes the values contained in a Map or List.
+     */
+    private Object decode(final Type type) throws JMSException
+    {
+        switch (type)
+        {
+            case BIN8:
+            case UINT8:
+                return _decoder.readUint8();
+            case INT8:
+                return _decoder.readInt8();
+            case CHAR:
+                return (char)_decoder.readInt8();
+            case BOOLEAN:
+                return _decoder.readInt8() > 0;
+            case BIN16:
+            case UINT16:
+                return _decoder.readUint16();
+            case INT16:
+                return _decoder.readInt16();
+            case BIN32:
+            case UINT32:
+                return _decoder.readUint32();
+            case CHAR_UTF32:
+            case INT32:
+                return _decoder.readInt32();
+            case FLOAT:
+                return _decoder.readFloat();
+            case BIN64:
+            case UINT64:
+            case INT64:
+            case DATETIME:
+                return _decoder.readUint64();
+            case DOUBLE:
+                return _decoder.readDouble();
+            case UUID:
+                return _decoder.readUuid();
+            case STR8:
+                return _decoder.readStr8();
+            case STR16:
+                return _decoder.readStr16();
+            case STR8_LATIN:
+            case STR8_UTF16:
+            case STR16_LATIN:
+            case STR16_UTF16:
+                return new String(readBytes(type));
+            case MAP:
+                return _decoder.readMap();
+            case LIST:
+                return _decoder.readList();
+            case ARRAY:
+                return _decoder.readArray();
+            case STRUCT32:
+                return _decoder.readStruct32();
+            case VOID:
+                return null;
+            default:
+                return readBytes(type);
+        }
+    }
+
+    /**
+     * Read the bytes of a value from the buffer, preceded by their length for a variable width type.
+     */
+    private byte[] readBytes(final Type type)
+    {
+        long size = type.getWidth();
+        if (!type.isFixed())
+        {
+            switch (type.getWidth())
+            {
+                case 1: size = _decoder.readUint8(); break;
+                case 2: size = _decoder.readUint16(); break;
+                default: size = _decoder.readUint32(); break;
+            }
+        }
+        return _decoder.readBytes((int)size);
+    }
+
+    /**
+     * Read an AMQP uint32 from the Message.
+     */
+    private long readUint32() throws JMSException
+    {
+        return _bytesMessage.readInt() & 0xffffffffL;
+    }
+
+    /**
+     * Read the length of a variable width element from the Message.
+     */
+    private long readLength(final int width) throws JMSException
+    {
+        switch (width)
+        {
+            case 1: return _bytesMessage.readUnsignedByte();
+            case 2: return _bytesMessage.readUnsignedShort();
+            default: return readUint32();
+        }
+    }
+
+    /**
+     * Return the Type for an AMQP 0-10 type code.
+     */
+    private static Type getType(final int code) throws JMSException
+    {
+        Type type = Type.get((byte)code);
+        if (type == null)
+        {
+            throw new MessageFormatException("Unknown amqp/list element type code " + code);
+        }
+        return type;
+    }
+}
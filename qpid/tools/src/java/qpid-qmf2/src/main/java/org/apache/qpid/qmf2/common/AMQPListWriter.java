@@ -0,0 +1,179 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.common;
+
+// JMS Imports
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageFormatException;
+
+// Misc Imports
+import java.util.Map;
+
+// Need the following to encode amqp/list messages
+import java.nio.ByteBuffer;
+import org.apache.qpid.transport.codec.BBEncoder;
+
+/**
+ * Encodes the elements of an amqp/list one at a time, so that a large List may be split into several Messages
+ * without first building the whole List.
+ * <p>
+ * Each Map added is encoded immediately and appended to a buffer owned by the AMQPListWriter, Maps whose encoding
+ * has been cached are appended without being encoded again. The encoded size so far is available from size(), so
+ * the caller can decide when to call writeTo() to write the elements added so far into an amqp/list Message. The
+ * AMQPListWriter is then empty and may be used to encode the elements of the next Message. The encoding is the same
+ * as that produced by AMQPMessage.setList() so the Messages may be decoded by AMQPMessage.getList() or an
+ * AMQPListReader.
+ */
+public final class AMQPListWriter
+{
+    /**
+     * The type code of an AMQP 0-10 map.
+     */
+    private static final short MAP_TYPE = 0xa8;
+
+    private final BBEncoder _encoder = new BBEncoder(256);
+    private ByteBuffer _buffer;
+    private int _count = 0;
+
+    /**
+     * Create an AMQPListWriter.
+     * @param capacity the initial capacity in bytes of the encoding buffer, which grows as necessary.
+     */
+    public AMQPListWriter(final int capacity)
+    {
+        _buffer = ByteBuffer.allocate(Math.max(capacity, 64));
+    }
+
+    /**
+     * Make sure that the buffer has room for the given number of additional bytes, growing it if necessary.
+     * @param length the number of bytes about to be appended.
+     */
+    private void ensureCapacity(final int length)
+    {
+        if (_buffer.remaining() < length)
+        {
+            int capacity = Math.max(_buffer.capacity()*2, _buffer.position() + length);
+            ByteBuffer buffer = ByteBuffer.allocate(capacity);
+            _buffer.flip();
+            buffer.put(_buffer);
+            _buffer = buffer;
+        }
+    }
+
+    /**
+     * Encode a Map as the next element of the List.
+     * @param map the Map to encode.
+     */
+    @SuppressWarnings("unchecked")
+    public void add(final Map map)
+    {
+        _encoder.init();
+        _encoder.writeMap(map);
+        ByteBuffer encodedMap = _encoder.segment();
+        ensureCapacity(1 + encodedMap.remaining());
+        _buffer.put((byte)MAP_TYPE);
+        _buffer.put(encodedMap);
+        _count++;
+    }
+
+    /**
+     * Add a Map that has already been encoded by encode() as the next element of the List. This allows the
+     * encoding of Maps that are sent repeatedly to be cached.
+     * @param encodedMap the encoded Map.
+     */
+    public void addEncoded(final byte[] encodedMap)
+    {
+        ensureCapacity(1 + encodedMap.length);
+        _buffer.put((byte)MAP_TYPE);
+        _buffer.put(encodedMap);
+        _count++;
+    }
+
+    /**
+     * Encode a Map in the form used by addEncoded().
+     * @param map the Map to encode.
+     * @return the encoded Map.
+     */
+    @SuppressWarnings("unchecked")
+    public static byte[] encode(final Map map)
+    {
+        BBEncoder encoder = AMQPMessage.getEncoder();
+        try
+        {
+            encoder.writeMap(map);
+            ByteBuffer buf = encoder.segment();
+            byte[] data = new byte[buf.remaining()];
+            buf.get(data);
+            return data;
+        }
+        finally
+        {
+            AMQPMessage.releaseEncoder(encoder);
+        }
+    }
+
+    /**
+     * Return the number of elements added since the List was last written.
+     * @return the number of elements added since the List was last written.
+     */
+    public int count()
+    {
+        return _count;
+    }
+
+    /**
+     * Return the encoded size in bytes of the elements added since the List was last written.
+     * @return the encoded size in bytes of the elements added since the List was last written.
+     */
+    public int size()
+    {
+        return _buffer.position();
+    }
+
+    /**
+     * Write the elements added so far as an amqp/list into a Message and reset the AMQPListWriter.
+     *
+     * @param message amqp/list encoded JMS BytesMessage, as created by AMQPMessage.createListMessage().
+     */
+    public void writeTo(final Message message) throws JMSException
+    {
+        if (!(message instanceof BytesMessage))
+        {
+            throw new MessageFormatException("Attempting to do AMQPListWriter.writeTo() on " +
+                                             ((message == null) ? "null" : message.getClass().getCanonicalName()));
+        }
+
+        BytesMessage bytesMessage = (BytesMessage)message;
+        int length = _buffer.position();
+
+        // The List header is a uint32 byte count, which includes the element count, then a uint32 element count.
+        ByteBuffer header = ByteBuffer.allocate(8);
+        header.putInt(length + 4);
+        header.putInt(_count);
+        bytesMessage.writeBytes(header.array());
+        bytesMessage.writeBytes(_buffer.array(), 0, length);
+
+        _buffer.clear();
+        _count = 0;
+    }
+}
@@ -59,6 +59,29 @@ import org.apache.qpid.qmf2.common.QmfData;
  */
 public final class AMQPMessage
 {
+    /**
+     * The initial capacity of each thread's encoder, the encoder's buffer grows as necessary.
+     */
+    private static final int ENCODER_CAPACITY = 1024;
+
+    /**
+     * The largest encoder buffer that a thread will retain for reuse. Encoders that have grown beyond this to encode
+     * an unusually large List are discarded so that each thread doesn't hold on to a large buffer indefinitely.
+     */
+    private static final int MAX_RETAINED_CAPACITY = 1024*1024;
+
+    /**
+     * Each thread's encoder, reused by setList() so that the encoder and its buffer aren't allocated per Message.
+     */
+    private static final ThreadLocal<BBEncoder> _encoder = new ThreadLocal<BBEncoder>()
+    {
+        @Override
+        protected BBEncoder initialValue()
+        {
+            return new BBEncoder(ENCODER_CAPACITY);
+        }
+    };
+
     /**
      * Make constructor private at this class provides a set of static helper methods and doesn't need instantiated.
      */
@@ -201,6 +224,10 @@ public final class AMQPMessage
      * <p>
      * Trivia: This block of code from Gordon Sim is the seed that spawned the whole of this Java QMF2 API
      * implementation - cheers Gordon.
+     * <p>
+     * This decodes the whole List at once. Where the elements are being converted into other objects, or the body
+     * may be larger than 2^31-1 bytes, use an AMQPListReader instead, so that the whole decoded List is never held in
+     * memory.
      *
      * @param message amqp/list encoded JMS Message
      * @return a java.util.List decoded from Message
@@ -248,6 +275,33 @@ public final class AMQPMessage
         }
     }
 
+    /**
+     * Return the calling thread's encoder, reset ready for use. Callers must pass the encoder to releaseEncoder()
+     * once they have finished with its contents and must not call getEncoder() again before doing so.
+     *
+     * @return the calling thread's encoder.
+     */
+    static BBEncoder getEncoder()
+    {
+        BBEncoder encoder = _encoder.get();
+        encoder.init();
+        return encoder;
+    }
+
+    /**
+     * Called when the encoder returned by getEncoder() has been finished with. If the encoder's buffer has grown
+     * beyond MAX_RETAINED_CAPACITY it's discarded and the thread gets a new encoder next time.
+     *
+     * @param encoder the encoder returned by getEncoder().
+     */
+    static void releaseEncoder(final BBEncoder encoder)
+    {
+        if (encoder.buffer().capacity() > MAX_RETAINED_CAPACITY)
+        {
+            _encoder.remove();
+        }
+    }
+
     /**
      * Creates an amqp/list encoded Message out of a BytesMessage.
      * <p>
@@ -272,6 +326,10 @@ public final class AMQPMessage
      * <p>
      * This method uses the org.apache.qpid.transport.codec.BBEncoder writeList() method to encode
      * a List into a ByteBuffer then writes the bytes from the buffer into a JMS BytesMessage.
+     * <p>
+     * Each thread reuses the same encoder, so its buffer is only allocated once (or when a List needs a bigger
+     * buffer than the thread has used so far), and the bytes are written straight from the encoder's buffer
+     * rather than being copied into an intermediate array.
      *
      * @param message amqp/list encoded JMS BytesMessage
      * @param list to encode into JMS Message
@@ -291,12 +349,26 @@ public final class AMQPMessage
         }
         else if (message instanceof BytesMessage)
         {
-            BBEncoder encoder = new BBEncoder(1024);
-            encoder.writeList(list);
-            ByteBuffer buf = encoder.segment();
-            byte[] data = new byte[buf.limit()];
-            buf.get(data);
-            ((BytesMessage)message).writeBytes(data);
+            BBEncoder encoder = getEncoder();
+            try
+            {
+                encoder.writeList(list);
+                ByteBuffer buf = encoder.segment();
+                if (buf.hasArray())
+                {
+                    ((BytesMessage)message).writeBytes(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+                }
+                else
+                {
+                    byte[] data = new byte[buf.remaining()];
+                    buf.get(data);
+                    ((BytesMessage)message).writeBytes(data);
+                }
+            }
+            finally
+            {
+                releaseEncoder(encoder);
+            }
         }
         else
         {
@@ -58,22 +58,22 @@ public final class BooleanEquals extends BooleanExpression
     
     /**
      * Evaluate "equal to" expression against a QmfData instance.
-     * N.B. to avoid complexities with types this class treats operands as Strings performing an appropriate evaluation
-     * of the String that makes sense for a given expression e.g. parsing as a double for {@literal >, >=, <, <= }
+     * N.B. to avoid complexities with types this class evaluates operands as it would their String forms, e.g. as
+     * doubles for {@literal >, >=, <, <= }, but numeric properties are used as numbers rather than as Strings.
      *
      * @param data the object to evaluate the expression against
      * @return true if query matches the QmfData instance, else false.
      */
     public boolean evaluate(final QmfData data)
     {
-        populateOperands(data);
+        Object[] operands = evaluateOperands(data);
 
-        if (_operands[0] == null || _operands[1] == null)
+        if (operands[0] == null || operands[1] == null)
         {
             return false;
         }
 
-        return _operands[0].equals(_operands[1]);
+        return operandsEqual(operands);
     }
 }
 
@@ -29,15 +29,47 @@ import java.util.Map;
 
 /**
  * This class represents the base class for all Boolean Expressions created by expanding the Query predicate.
+ * <p>
+ * The predicate is compiled once, when the Expression is created, into a set of literal operands and a set of keys
+ * used to look up operands from the QmfData being evaluated. Literal operands that are numbers are also parsed once
+ * at this point so that the comparison Expressions don't need to parse them on every evaluation. Looked up operands
+ * are used in their raw form, so numeric properties are compared as numbers and only properties that are actually
+ * Strings (or binary strings) are compared or parsed as Strings. Evaluation doesn't
+ * modify the Expression, so a QmfQuery may safely be evaluated by several threads at once (e.g. by Subscriptions
+ * and by query requests).
  *
  * @author Fraser Adams
  */
 public abstract class BooleanExpression extends Expression
 {
     private static Map<String, BooleanExpression> _factories = new HashMap<String, BooleanExpression>();
+    /**
+     * The literal operands, the operand is null if it needs to be looked up from the QmfData using the key.
+     */
     protected String[] _operands;
+
+    /**
+     * The keys used to look up operands from the QmfData, the key is null if the operand is a literal.
+     */
     private String[] _keys;
 
+    /**
+     * The literal operands parsed as numbers, the value is null if the operand isn't a literal number.
+     */
+    private Double[] _numbers;
+
+    /**
+     * The literal operands parsed as longs, the value is null unless the operand is the canonical String form of a
+     * long, i.e. an integral property is equal to the operand's String if and only if it's equal to the long.
+     */
+    private Long[] _longs;
+
+    /**
+     * The literal operands parsed as doubles, the value is null unless the operand is the canonical String form of
+     * a double, i.e. a double property is equal to the operand's String if and only if it's equal to the Double.
+     */
+    private Double[] _doubles;
+
     /**
      * Initialise the _factories Map, which contains the prototype instances of each concrete BooleanExpression
      * keyed by the operator String.
@@ -124,8 +156,8 @@ public abstract class BooleanExpression extends Expression
             _operands[i] = object.toString();
 
             if (object instanceof String)
-            {
-                _keys[i] = _operands[i];
+            { // Interning the keys makes the String.equals() in the property lookup an identity comparison
+                _keys[i] = _operands[i].intern();
                 _operands[i] = null;
             }
             else if (object instanceof List)
@@ -155,60 +187,162 @@ public abstract class BooleanExpression extends Expression
         {
             throw new QmfException("Too many operands for operation: " + op);
         }
+
+        _numbers = new Double[operandCount];
+        _longs = new Long[operandCount];
+        _doubles = new Double[operandCount];
+        for (int i = 0; i < operandCount; i++)
+        {
+            String operand = _operands[i];
+            if (operand != null)
+            {
+                try
+                {
+                    _numbers[i] = Double.valueOf(operand);
+                    if (_numbers[i].toString().equals(operand))
+                    {
+                        _doubles[i] = _numbers[i];
+                    }
+                    Long number = Long.valueOf(operand);
+                    if (number.toString().equals(operand))
+                    {
+                        _longs[i] = number;
+                    }
+                }
+                catch (NumberFormatException nfe)
+                { // Not a number (or not a long) so leave as null, comparisons will be lexicographic.
+                }
+            }
+        }
     }
 
     /**
-     * Populates operands that are obtained at evaluation time. In other words operands that are obtained by using
-     * the key obtained from the static operand evaluation to look up an associated property from the QmfData object.
+     * Returns the operands for evaluation against a QmfData instance. Literal operands are used as is (as Strings),
+     * other operands are obtained by using the key obtained from the static operand evaluation to look up an
+     * associated property from the QmfData object in its raw form, e.g. a Long or a byte[]. A new array is returned
+     * each time, so the Expression itself is never modified.
+     *
      * @param data the object to extract the operand(s) from
+     * @return the operands, an operand is null if it can't be found in the QmfData object.
      */
-    protected void populateOperands(final QmfData data)
+    protected final Object[] evaluateOperands(final QmfData data)
     {
-        for (int i = 0; i < _operands.length; i++)
+        Object[] operands = new Object[_operands.length];
+        for (int i = 0; i < operands.length; i++)
         {
             String key = _keys[i];
-            if (key != null)
+            operands[i] = (key == null) ? _operands[i] : lookup(data, key);
+        }
+        return operands;
+    }
+
+    /**
+     * Look up the raw value of an operand key from a QmfData object.
+     *
+     * @param data the object to extract the operand from
+     * @param key the key of the operand
+     * @return the value of the operand or null if it can't be found in the QmfData object.
+     */
+    private static Object lookup(final QmfData data, final String key)
+    {
+        Object value = data.getValue(key);
+        if (value != null)
+        {
+            return value;
+        }
+        else if (data.hasValue(key))
+        { // A property that's present with a null value has always been treated as an empty String
+            return "";
+        }
+
+        // If there's no property of the data object named key look up its Described/Managed metadata
+        if (data instanceof QmfManaged)
+        {
+            QmfManaged managedData = (QmfManaged)data;
+            if (key.equals("_schema_id"))
+            {
+                return managedData.getSchemaClassId().toString();
+            }
+            else if (key.equals("_object_id"))
             {
-                String value = null;
+                return managedData.getObjectId().toString();
+            }
+            else if (managedData.getSchemaClassId().hasValue(key))
+            { // If it's not _schema_id or _object_id check the SchemaClassId properties e.g. 
+              // _package_name, _class_name, _type or _hash
+                return managedData.getSchemaClassId().getValue(key);
+            }
+        }
 
-                if (data.hasValue(key))
-                { // If there's a property of the data object named key look it up as a String
-                    value = data.getStringValue(key);
-                }
-                else
-                { // If there's no property of the data object named key look up its Described/Managed metadata
-                    if (data instanceof QmfManaged)
-                    {
-                        QmfManaged managedData = (QmfManaged)data;
-                        if (key.equals("_schema_id"))
-                        {
-                            value = managedData.getSchemaClassId().toString();
-                        }
-                        else if (key.equals("_object_id"))
-                        {
-                            value = managedData.getObjectId().toString();
-                        }
-                        else if (managedData.getSchemaClassId().hasValue(key))
-                        { // If it's not _schema_id or _object_id check the SchemaClassId properties e.g. 
-                          // _package_name, _class_name, _type or _hash
-                            value = managedData.getSchemaClassId().getStringValue(key);
-                        }
-                    }
+        // If a value still can't be found for the key check if it's available in the mapEncoded form
+        return data.getEncodedValue(key);
+    }
 
-                    if (value == null)
-                    { // If a value still can't be found for the key check if it's available in the mapEncoded form
-                        Map m = data.mapEncode();
-                        if (m.containsKey(key))
-                        {
-                            value = QmfData.getString(m.get(key));
-                        }
-                    }
-                }
+    /**
+     * Return an operand returned by evaluateOperands() as a number. Literal operands were parsed when the Expression
+     * was created and numeric properties are used directly, so only properties held as Strings get parsed here.
+     *
+     * @param operands the operands returned by evaluateOperands().
+     * @param index the index of the operand.
+     * @return the operand as a double.
+     * @throws NumberFormatException if the operand can't be parsed as a double.
+     */
+    protected final double getNumber(final Object[] operands, final int index)
+    {
+        Double number = _numbers[index];
+        if (number != null)
+        {
+            return number;
+        }
+
+        Object operand = operands[index];
+        if (operand instanceof Number)
+        {
+            return ((Number)operand).doubleValue();
+        }
+        return Double.parseDouble(QmfData.getString(operand));
+    }
 
-                _operands[i] = value;
+    /**
+     * Compare two operands returned by evaluateOperands() lexicographically as Strings.
+     *
+     * @param operands the operands returned by evaluateOperands(), neither of which may be null.
+     * @return the result of comparing the String forms of the first and second operand.
+     */
+    protected static final int compareStrings(final Object[] operands)
+    {
+        return QmfData.getString(operands[0]).compareTo(QmfData.getString(operands[1]));
+    }
+
+    /**
+     * Test whether two operands returned by evaluateOperands() are equal. Operands are equal if their String forms
+     * are equal, but a long or double property compared with a literal number is compared as a number rather than
+     * converted to a String, which gives the same result when the literal is in canonical form.
+     *
+     * @param operands the operands returned by evaluateOperands(), neither of which may be null.
+     * @return true if the String forms of the operands are equal.
+     */
+    protected final boolean operandsEqual(final Object[] operands)
+    {
+        for (int i = 0; i < 2; i++)
+        {
+            int j = 1 - i;
+            if (_keys[i] == null && _keys[j] != null)
+            { // Operand i is a literal and operand j was looked up.
+                Object value = operands[j];
+                if (_longs[i] != null && (value instanceof Long || value instanceof Integer ||
+                                          value instanceof Short || value instanceof Byte))
+                {
+                    return ((Number)value).longValue() == _longs[i].longValue();
+                }
+                else if (_doubles[i] != null && value instanceof Double)
+                {
+                    return value.equals(_doubles[i]);
+                }
+                break;
             }
-//System.out.println("key: " + key + ", operand = " + _operands[i]);
         }
+        return QmfData.getString(operands[0]).equals(QmfData.getString(operands[1]));
     }
 
     /**
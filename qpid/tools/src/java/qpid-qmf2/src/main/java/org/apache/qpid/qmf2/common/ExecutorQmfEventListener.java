@@ -0,0 +1,259 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.common;
+
+// Simple Logging Facade 4 Java
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Misc Imports
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Implementation of QmfEventListener that hands WorkItems to an Executor, which passes them on to another
+ * QmfEventListener. This means that a slow QmfEventListener doesn't hold up the Console or Agent MessageListener
+ * thread that produces the WorkItems.
+ * <p>
+ * WorkItems are delivered in order for each WorkItem ordering key, see WorkItem.getOrderingKey(), so for example
+ * all of the WorkItems for a given Agent or a given Subscription are delivered in the order they were produced, one
+ * at a time, whilst WorkItems with different keys may be delivered concurrently by the Executor's threads.
+ * <p>
+ * The number of WorkItems that may be waiting for delivery for each key is bounded. If a key reaches the bound the
+ * thread producing the WorkItems blocks until the QmfEventListener has caught up, so a QmfEventListener that can't
+ * keep up can't cause unlimited memory use.
+ * <p>
+ * Any Executor may be used, newDefaultExecutor() returns a fixed pool of daemon threads sized to the number of
+ * processors.
+ */
+public final class ExecutorQmfEventListener implements QmfEventListener
+{
+    private static final Logger _log = LoggerFactory.getLogger(ExecutorQmfEventListener.class);
+
+    /**
+     * The default maximum number of WorkItems waiting for delivery for each key.
+     */
+    public static final int DEFAULT_MAX_PENDING = 1000;
+
+    /**
+     * The maximum number of WorkItems for one key delivered by an Executor task before it resubmits itself, so
+     * that a busy key doesn't hog one of the Executor's threads.
+     */
+    private static final int BATCH_SIZE = 16;
+
+    /**
+     * The key used for WorkItems whose getOrderingKey() returns null.
+     */
+    private static final Object DEFAULT_KEY = new Object();
+
+    private final QmfEventListener _listener;
+    private final Executor _executor;
+    private final int _maxPending;
+
+    /**
+     * The queues of WorkItems waiting for delivery keyed by ordering key. A queue is removed once it is empty.
+     * Guarded by this, which is also used to wait for space in a full queue.
+     */
+    private final Map<Object, KeyQueue> _queues = new HashMap<Object, KeyQueue>();
+
+    /**
+     * The WorkItems waiting for delivery for a single ordering key. The KeyQueue is submitted to the Executor when
+     * its first WorkItem is added and delivers WorkItems until the queue is empty.
+     */
+    private final class KeyQueue implements Runnable
+    {
+        private final Object _key;
+        private final Queue<WorkItem> _items = new ArrayDeque<WorkItem>();
+        private boolean _scheduled = false;
+
+        KeyQueue(final Object key)
+        {
+            _key = key;
+        }
+
+        public void run()
+        {
+            if (deliver(BATCH_SIZE))
+            {
+                schedule(this);
+            }
+        }
+
+        /**
+         * Deliver up to max WorkItems.
+         * @return true if there may be more WorkItems to deliver, false if the queue is empty and has been removed.
+         */
+        boolean deliver(final int max)
+        {
+            for (int i = 0; i < max; i++)
+            {
+                WorkItem item;
+                synchronized(ExecutorQmfEventListener.this)
+                {
+                    item = _items.poll();
+                    if (item == null)
+                    {
+                        _scheduled = false;
+                        _queues.remove(_key);
+                        return false;
+                    }
+                    ExecutorQmfEventListener.this.notifyAll(); // There's now space for any blocked producer.
+                }
+
+                try
+                {
+                    _listener.onEvent(item);
+                }
+                catch (RuntimeException re)
+                {
+                    _log.info("RuntimeException {} caught delivering {} WorkItem", re.getMessage(), item.getType());
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Create an ExecutorQmfEventListener with the default maximum number of pending WorkItems per key.
+     *
+     * @param listener the QmfEventListener that the WorkItems are delivered to.
+     * @param executor the Executor used to deliver the WorkItems.
+     */
+    public ExecutorQmfEventListener(final QmfEventListener listener, final Executor executor)
+    {
+        this(listener, executor, DEFAULT_MAX_PENDING);
+    }
+
+    /**
+     * Create an ExecutorQmfEventListener.
+     *
+     * @param listener the QmfEventListener that the WorkItems are delivered to.
+     * @param executor the Executor used to deliver the WorkItems.
+     * @param maxPending the maximum number of WorkItems waiting for delivery for each key.
+     */
+    public ExecutorQmfEventListener(final QmfEventListener listener, final Executor executor, final int maxPending)
+    {
+        if (maxPending < 1)
+        {
+            throw new IllegalArgumentException("maxPending must be at least 1");
+        }
+        _listener = listener;
+        _executor = executor;
+        _maxPending = maxPending;
+    }
+
+    /**
+     * Return an Executor suitable for delivering WorkItems. This is a fixed pool of daemon threads with one thread
+     * per processor, but at least two.
+     *
+     * @return an Executor suitable for delivering WorkItems.
+     */
+    public static ExecutorService newDefaultExecutor()
+    {
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        return Executors.newFixedThreadPool(threads, new ThreadFactory()
+        {
+            public Thread newThread(final Runnable r)
+            {
+                Thread thread = new Thread(r, "QmfEventListener");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Submit a KeyQueue to the Executor, delivering its WorkItems on the calling thread if the Executor rejects it.
+     */
+    private void schedule(final KeyQueue queue)
+    {
+        try
+        {
+            _executor.execute(queue);
+        }
+        catch (RejectedExecutionException ree)
+        {
+            _log.info("WorkItem delivery rejected by Executor, delivering on calling thread");
+            queue.deliver(Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Queue the WorkItem for delivery by the Executor, blocking if the maximum number of WorkItems are already
+     * waiting for delivery for the WorkItem's ordering key.
+     *
+     * @param item the WorkItem to deliver.
+     */
+    public void onEvent(final WorkItem item)
+    {
+        Object key = item.getOrderingKey();
+        key = (key == null) ? DEFAULT_KEY : key;
+
+        KeyQueue schedule = null;
+        boolean interrupted = false;
+        synchronized(this)
+        {
+            KeyQueue queue = _queues.get(key);
+            while (queue != null && queue._items.size() >= _maxPending)
+            {
+                try
+                {
+                    wait();
+                }
+                catch (InterruptedException ie)
+                { // Carry on waiting as the WorkItem must still be delivered, the interrupt is restored below.
+                    interrupted = true;
+                }
+                queue = _queues.get(key); // The queue may have drained and been removed whilst we waited.
+            }
+
+            if (queue == null)
+            {
+                queue = new KeyQueue(key);
+                _queues.put(key, queue);
+            }
+
+            queue._items.add(item);
+            if (!queue._scheduled)
+            {
+                queue._scheduled = true;
+                schedule = queue;
+            }
+        }
+
+        if (schedule != null)
+        {
+            schedule(schedule);
+        }
+
+        if (interrupted)
+        { // Restoring the interrupt any earlier would make wait() throw straight away rather than wait.
+            Thread.currentThread().interrupt();
+        }
+    }
+}
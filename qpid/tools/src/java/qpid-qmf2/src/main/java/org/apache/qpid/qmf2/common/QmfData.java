@@ -412,6 +412,19 @@ public class QmfData
         return _values;
     }
 
+    /**
+     * Return the value of a top level key of the Map returned by mapEncode(). This is used by query predicates that
+     * refer to keys which aren't properties, e.g. _update_ts. Subclasses whose mapEncode() creates a new Map should
+     * override this so that evaluating a predicate doesn't create a Map for every key that is looked up.
+     *
+     * @param key the top level key to look up.
+     * @return the value of the key or null if mapEncode() doesn't contain it.
+     */
+    protected Object getEncodedValue(final String key)
+    {
+        return mapEncode().get(key);
+    }
+
     /**
      * Helper/debug method to list the properties and their type.
      */
@@ -396,5 +396,41 @@ public class WorkItem
     {
         return (T)_params;
     }
+
+    /**
+     * Return the key used by an ExecutorQmfEventListener to order the delivery of WorkItems. WorkItems with the same
+     * ordering key are delivered in order, one at a time. Subclasses associated with an Agent or a Subscription
+     * override this so that each Agent or Subscription is ordered independently.
+     *
+     * @return the ordering key, by default null meaning that the WorkItem is ordered with all other WorkItems whose
+     *         ordering key is null.
+     */
+    public Object getOrderingKey()
+    {
+        return null;
+    }
+
+    /**
+     * Return the key used by a WorkQueue with the COALESCE OverflowPolicy to find a queued WorkItem that this
+     * WorkItem may be coalesced with. Subclasses representing updates, where a newer update may supersede an older
+     * one, override this. WorkItems with the same coalesce key must be of the same class.
+     *
+     * @return the coalesce key, by default null meaning that the WorkItem can't be coalesced.
+     */
+    public Object getCoalesceKey()
+    {
+        return null;
+    }
+
+    /**
+     * Coalesce a newer WorkItem with the same coalesce key into this one.
+     *
+     * @param newer the newer WorkItem.
+     * @return the coalesced WorkItem, by default the newer WorkItem, which supersedes this one.
+     */
+    public WorkItem coalesce(final WorkItem newer)
+    {
+        return newer;
+    }
 }
 
@@ -21,21 +21,153 @@
 package org.apache.qpid.qmf2.common;
 
 // Misc Imports
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This is an implementation of a QMF2 WorkQueue. In practice this is likely to be used by an Agent or Console.
+ * <p>
+ * By default the WorkQueue is unbounded. If the application may fall behind, for example during an event storm,
+ * setCapacity() may be used to bound the WorkQueue and select the OverflowPolicy applied when it is full.
+ * <p>
+ * The WorkQueue also keeps some statistics, the maximum number of WorkItems that have been queued, the number of
+ * WorkItems dropped or coalesced due to overflow and the time that WorkItems have spent waiting on the WorkQueue.
  *
  * @author Fraser Adams
  */
 public class WorkQueue
 {
+    /**
+     * The policies that may be applied when a WorkItem is added to a WorkQueue that is full.
+     * <pre>
+     * BLOCK        the thread adding the WorkItem blocks until there is space on the WorkQueue.
+     * DROP_OLDEST  the oldest WorkItem on the WorkQueue is dropped to make space.
+     * COALESCE     if the WorkItem has a coalesce key, for example it's an update of the same object as a WorkItem
+     *              that is still on the WorkQueue, the two are coalesced in place. Otherwise the thread adding the
+     *              WorkItem blocks until there is space, as for BLOCK, so no other WorkItems are lost.
+     * </pre>
+     */
+    public enum OverflowPolicy
+    {
+        BLOCK,
+        DROP_OLDEST,
+        COALESCE;
+    }
+
+    /**
+     * A queued WorkItem along with the time that it was queued. The WorkItem may be replaced by a coalesced WorkItem
+     * until the Entry is taken from the WorkQueue.
+     */
+    private static final class Entry
+    {
+        private final long _queued = System.nanoTime();
+        private WorkItem _item;
+        private boolean _taken = false;
+
+        Entry(final WorkItem item)
+        {
+            _item = item;
+        }
+
+        /**
+         * Coalesce a newer WorkItem into this Entry.
+         * @return false if the Entry has already been taken, so the newer WorkItem needs to be queued.
+         */
+        synchronized boolean coalesce(final WorkItem newer)
+        {
+            if (_taken)
+            {
+                return false;
+            }
+            _item = _item.coalesce(newer);
+            return true;
+        }
+
+        synchronized WorkItem take()
+        {
+            _taken = true;
+            return _item;
+        }
+    }
+
     /**
      * Used to implement a thread safe queue of WorkItem objects
      */
-    private BlockingQueue<WorkItem> _workQueue = new LinkedBlockingQueue<WorkItem>();
+    private BlockingQueue<Entry> _workQueue = new LinkedBlockingQueue<Entry>();
+
+    /**
+     * The queued Entries with a coalesce key, only maintained if the OverflowPolicy is COALESCE.
+     */
+    private final ConcurrentMap<Object, Entry> _coalescable = new ConcurrentHashMap<Object, Entry>();
+
+    private volatile int _capacity = Integer.MAX_VALUE;
+    private volatile OverflowPolicy _policy = OverflowPolicy.BLOCK;
+
+    /**
+     * Serialises adding WorkItems to a bounded WorkQueue and is used to wait for space on the WorkQueue.
+     */
+    private final Object _spaceLock = new Object();
+    private volatile int _waiting = 0;
+
+    // Statistics
+    private final AtomicInteger _maxSize = new AtomicInteger();
+    private final AtomicLong _dropped = new AtomicLong();
+    private final AtomicLong _coalesced = new AtomicLong();
+    private final AtomicLong _removed = new AtomicLong();
+    private final AtomicLong _totalWait = new AtomicLong();
+    private final AtomicLong _maxWait = new AtomicLong();
+
+    /**
+     * Set the capacity of the WorkQueue and the policy applied when a WorkItem is added to a full WorkQueue.
+     * This is generally called before the WorkQueue is used. Reducing the capacity doesn't remove WorkItems that
+     * are already queued, the policy is simply applied to subsequent additions until the WorkQueue has drained.
+     *
+     * @param capacity the maximum number of WorkItems that may be queued.
+     * @param policy the policy applied when a WorkItem is added to a full WorkQueue.
+     */
+    public void setCapacity(final int capacity, final OverflowPolicy policy)
+    {
+        if (capacity < 1)
+        {
+            throw new IllegalArgumentException("WorkQueue capacity must be at least 1");
+        }
+
+        synchronized(_spaceLock)
+        {
+            if (policy != OverflowPolicy.COALESCE)
+            {
+                _coalescable.clear();
+            }
+            _capacity = capacity;
+            _policy = policy;
+            _spaceLock.notifyAll(); // Any blocked threads may now have space.
+        }
+    }
+
+    /**
+     * Return the capacity of the WorkQueue.
+     * @return the capacity of the WorkQueue, Integer.MAX_VALUE if it is unbounded.
+     */
+    public int getCapacity()
+    {
+        return _capacity;
+    }
+
+    /**
+     * Return the policy applied when a WorkItem is added to a full WorkQueue.
+     * @return the policy applied when a WorkItem is added to a full WorkQueue.
+     */
+    public OverflowPolicy getOverflowPolicy()
+    {
+        return _policy;
+    }
 
     /**
      * Return the count of pending WorkItems that can be retrieved.
@@ -46,6 +178,61 @@ public class WorkQueue
         return _workQueue.size();
     }
 
+    /**
+     * Return the WorkItem from an Entry that has been removed from the WorkQueue, so that no more WorkItems can be
+     * coalesced into it.
+     *
+     * @param entry the Entry removed from the WorkQueue.
+     * @return the WorkItem from the Entry.
+     */
+    private WorkItem release(final Entry entry)
+    {
+        WorkItem item = entry.take();
+        if (!_coalescable.isEmpty())
+        {
+            Object key = item.getCoalesceKey();
+            if (key != null)
+            {
+                _coalescable.remove(key, entry);
+            }
+        }
+        return item;
+    }
+
+    /**
+     * Return the WorkItem from an Entry taken from the WorkQueue, updating the statistics and waking any thread
+     * waiting for space on the WorkQueue.
+     *
+     * @param entry the Entry taken from the WorkQueue.
+     * @return the WorkItem from the Entry or null if the Entry is null.
+     */
+    private WorkItem take(final Entry entry)
+    {
+        if (entry == null)
+        {
+            return null;
+        }
+
+        WorkItem item = release(entry);
+        long wait = System.nanoTime() - entry._queued;
+        _removed.incrementAndGet();
+        _totalWait.addAndGet(wait);
+        long max = _maxWait.get();
+        while (wait > max && !_maxWait.compareAndSet(max, wait))
+        {
+            max = _maxWait.get();
+        }
+
+        if (_waiting > 0)
+        {
+            synchronized(_spaceLock)
+            {
+                _spaceLock.notifyAll();
+            }
+        }
+        return item;
+    }
+
     /**
      * Obtains the next pending work item - blocking version
      *
@@ -55,7 +242,7 @@ public class WorkQueue
     {
         try
         {
-            return _workQueue.take();
+            return take(_workQueue.take());
         }
         catch (InterruptedException ie)
         {
@@ -73,7 +260,7 @@ public class WorkQueue
     {
         try
         {
-            return _workQueue.poll(timeout, TimeUnit.SECONDS);
+            return take(_workQueue.poll(timeout, TimeUnit.SECONDS));
         }
         catch (InterruptedException ie)
         {
@@ -82,25 +269,189 @@ public class WorkQueue
     }
 
     /**
-     * Adds a WorkItem to the WorkQueue. 
+     * Obtains up to max pending work items without blocking. This is considerably cheaper than retrieving the
+     * WorkItems one at a time when the WorkQueue is busy.
+     *
+     * @param max the maximum number of WorkItems to return.
+     * @return the pending work items, the List is empty if none are available.
+     */
+    public List<WorkItem> getNextWorkitems(final int max)
+    {
+        List<Entry> entries = new ArrayList<Entry>(Math.min(Math.max(max, 0), _workQueue.size()));
+        _workQueue.drainTo(entries, max);
+        List<WorkItem> items = new ArrayList<WorkItem>(entries.size());
+        for (Entry entry : entries)
+        {
+            items.add(take(entry));
+        }
+        return items;
+    }
+
+    /**
+     * Obtains up to max pending work items, waiting for up to timeout seconds for the first to become available.
+     *
+     * @param max the maximum number of WorkItems to return.
+     * @param timeout the timeout in seconds. If timeout = 0 it returns immediately.
+     * @return the pending work items, the List is empty if none became available before the timeout expired.
+     */
+    public List<WorkItem> getNextWorkitems(final int max, final long timeout)
+    {
+        if (max < 1)
+        {
+            return new ArrayList<WorkItem>(0);
+        }
+
+        WorkItem first = getNextWorkitem(timeout);
+        if (first == null)
+        {
+            return new ArrayList<WorkItem>(0);
+        }
+
+        List<WorkItem> items = getNextWorkitems(max - 1);
+        items.add(0, first);
+        return items;
+    }
+
+    /**
+     * Adds a WorkItem to the WorkQueue. If the WorkQueue is full the OverflowPolicy is applied.
      *
      * @param item the WorkItem passed to the WorkQueue
      */
     public void addWorkItem(WorkItem item)
     {
-        // We wrap the blocking put() method in a loop "just in case" InterruptedException occurs
-        // if it does we retry the put otherwise we carry on, notify then exit.
-        while (true)
+        Entry entry = new Entry(item);
+        if (_capacity == Integer.MAX_VALUE)
+        { // Unbounded, so the offer() always succeeds.
+            _workQueue.offer(entry);
+        }
+        else
+        {
+            addBounded(entry);
+        }
+
+        int size = _workQueue.size();
+        int max = _maxSize.get();
+        while (size > max && !_maxSize.compareAndSet(max, size))
+        {
+            max = _maxSize.get();
+        }
+    }
+
+    /**
+     * Adds an Entry to a bounded WorkQueue applying the OverflowPolicy if it is full.
+     *
+     * @param entry the Entry to add.
+     */
+    private void addBounded(final Entry entry)
+    {
+        WorkItem item = entry._item;
+        synchronized(_spaceLock)
         {
-            try
+            OverflowPolicy policy = _policy;
+            Object key = (policy == OverflowPolicy.COALESCE) ? item.getCoalesceKey() : null;
+            while (_workQueue.size() >= _capacity)
             {
-                _workQueue.put(item);
-                break;
+                if (policy == OverflowPolicy.DROP_OLDEST)
+                {
+                    Entry oldest = _workQueue.poll();
+                    if (oldest != null)
+                    {
+                        release(oldest);
+                        _dropped.incrementAndGet();
+                    }
+                    continue;
+                }
+
+                if (key != null)
+                {
+                    Entry queued = _coalescable.get(key);
+                    if (queued != null && queued.coalesce(item))
+                    {
+                        _coalesced.incrementAndGet();
+                        return;
+                    }
+                }
+
+                // Wait for space, in the same way as the blocking put() used to we carry on if interrupted.
+                _waiting++;
+                try
+                {
+                    _spaceLock.wait(1000);
+                }
+                catch (InterruptedException ie)
+                {
+                    continue;
+                }
+                finally
+                {
+                    _waiting--;
+                }
+
+                policy = _policy;
+                key = (policy == OverflowPolicy.COALESCE) ? item.getCoalesceKey() : null;
             }
-            catch (InterruptedException ie)
+
+            _workQueue.offer(entry);
+            if (key != null)
             {
-                continue;
+                _coalescable.put(key, entry);
             }
         }
     }
+
+    /**
+     * Return the largest number of WorkItems that have been queued at once.
+     * @return the largest number of WorkItems that have been queued at once.
+     */
+    public int getMaxSize()
+    {
+        return _maxSize.get();
+    }
+
+    /**
+     * Return the number of WorkItems dropped by the DROP_OLDEST OverflowPolicy.
+     * @return the number of WorkItems dropped by the DROP_OLDEST OverflowPolicy.
+     */
+    public long getDroppedCount()
+    {
+        return _dropped.get();
+    }
+
+    /**
+     * Return the number of WorkItems coalesced into WorkItems that were already queued by the COALESCE
+     * OverflowPolicy.
+     * @return the number of WorkItems coalesced by the COALESCE OverflowPolicy.
+     */
+    public long getCoalescedCount()
+    {
+        return _coalesced.get();
+    }
+
+    /**
+     * Return the number of WorkItems that have been retrieved from the WorkQueue.
+     * @return the number of WorkItems that have been retrieved from the WorkQueue.
+     */
+    public long getRemovedCount()
+    {
+        return _removed.get();
+    }
+
+    /**
+     * Return the total time that the retrieved WorkItems spent waiting on the WorkQueue, which may be divided by
+     * getRemovedCount() to give the average wait time.
+     * @return the total time in milliseconds that the retrieved WorkItems spent waiting on the WorkQueue.
+     */
+    public long getTotalWaitTime()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(_totalWait.get());
+    }
+
+    /**
+     * Return the longest time that a retrieved WorkItem spent waiting on the WorkQueue.
+     * @return the longest time in milliseconds that a retrieved WorkItem spent waiting on the WorkQueue.
+     */
+    public long getMaxWaitTime()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(_maxWait.get());
+    }
 }
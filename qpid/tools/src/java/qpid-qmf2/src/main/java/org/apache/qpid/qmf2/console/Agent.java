@@ -28,6 +28,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 // QMF2 Imports
 import org.apache.qpid.qmf2.common.ObjectId;
@@ -56,13 +57,16 @@ import org.apache.qpid.qmf2.common.SchemaClassId;
 public final class Agent extends QmfData
 {
     private AgentProxy                      _proxy;
-    private List<String>                    _packages = new ArrayList<String>();
+    private List<String>                    _packages = new CopyOnWriteArrayList<String>();
     private Map<SchemaClassId, SchemaClass> _schemaCache = new ConcurrentHashMap<SchemaClassId, SchemaClass>();
+    private Map<String, Integer>            _objectCounts = new ConcurrentHashMap<String, Integer>();
     private long                            _epoch;
     private long                            _heartbeatInterval;
     private long                            _timestamp;
     private boolean                         _eventsEnabled = true;
     private boolean                         _isActive = true;
+    private int                             _schemaDiscovery = 0;
+    private boolean                         _schemaPending = false;
 
     /**
      * The main constructor, taking a java.util.Map as a parameter. In essence it "deserialises" its state from the Map.
@@ -81,13 +85,23 @@ public final class Agent extends QmfData
         _proxy = p;
     }
 
+    /**
+     * Return the AgentProxy, usually the Console, that this Agent was discovered by.
+     *
+     * @return the AgentProxy that this Agent was discovered by.
+     */
+    AgentProxy getProxy()
+    {
+        return _proxy;
+    }
+
     /**
      * Sets the state of the Agent, used as an assignment operator.
      * 
      * @param m the Map used to initialise the Agent.
      */
     @SuppressWarnings("unchecked")
-    public void initialise(final Map m)
+    public synchronized void initialise(final Map m)
     {        
         Map<String, Object> values = (Map<String, Object>)m.get("_values");
         _values = (values == null) ? m : values;
@@ -99,6 +113,105 @@ public final class Agent extends QmfData
         _timestamp = hasValue("_timestamp") ? getLongValue("_timestamp") : getLongValue("timestamp");
     }
 
+    /**
+     * Update the state of the Agent from a heartbeat or _agent_locate_response, see initialise().
+     * <p>
+     * The Console also learns of restarts from the Epoch of the data the Agent publishes, which arrives on a
+     * different Session, so the Epoch comparison and update are atomic and the Epoch only ever moves forward. This
+     * means that exactly one caller sees each restart and that a heartbeat sent before a restart, but received after
+     * data from the restarted Agent, doesn't wind the Epoch back.
+     *
+     * @param m the Map used to update the Agent.
+     * @return true if the Epoch has changed, i.e. the Agent has been restarted.
+     */
+    synchronized boolean update(final Map m)
+    {
+        long epoch = _epoch;
+        initialise(m);
+        if (_epoch < epoch)
+        {
+            _epoch = epoch;
+        }
+        return _epoch != epoch;
+    }
+
+    /**
+     * Advance the Epoch stamp if the given Epoch is newer than the current one, see update().
+     *
+     * @param epoch the Epoch of data published by the Agent.
+     * @return true if this call advanced the Epoch, i.e. the Agent has been restarted.
+     */
+    synchronized boolean advanceEpoch(final long epoch)
+    {
+        if (epoch > _epoch)
+        {
+            _epoch = epoch;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Return whether the Console is still discovering this Agent's schema. The Console discovers an Agent's schema
+     * in the background when the Agent is added or restarted, any schema requested before discovery completes are
+     * retrieved on demand.
+     *
+     * @return true if the Console is still discovering this Agent's schema.
+     */
+    public synchronized boolean isSchemaPending()
+    {
+        return _schemaPending;
+    }
+
+    /**
+     * Called by the Console when it starts discovering this Agent's schema.
+     *
+     * @return an identifier for the discovery to be passed to endSchemaDiscovery().
+     */
+    synchronized int beginSchemaDiscovery()
+    {
+        _schemaPending = true;
+        return ++_schemaDiscovery;
+    }
+
+    /**
+     * Called by the Console when it has finished discovering this Agent's schema. If another discovery has started
+     * since, because the Agent has been restarted again, the schema remains pending.
+     *
+     * @param discovery the identifier returned by beginSchemaDiscovery().
+     */
+    synchronized void endSchemaDiscovery(final int discovery)
+    {
+        if (discovery == _schemaDiscovery)
+        {
+            _schemaPending = false;
+        }
+    }
+
+    /**
+     * Return the number of objects of a class that this Agent returned the last time the Console retrieved all of
+     * them, which Console.refresh() uses to decide whether to query for a batch of objects by ObjectId or by class.
+     *
+     * @param className the class in the form "packageName:className".
+     * @return the number of objects of the class or -1 if it isn't known.
+     */
+    int getObjectCount(final String className)
+    {
+        Integer count = _objectCounts.get(className);
+        return (count == null) ? -1 : count;
+    }
+
+    /**
+     * Record the number of objects of a class that this Agent returned when the Console retrieved all of them.
+     *
+     * @param className the class in the form "packageName:className".
+     * @param count the number of objects of the class.
+     */
+    void setObjectCount(final String className, final int count)
+    {
+        _objectCounts.put(className, count);
+    }
+
     /**
      * Return whether or not events are enabled for this Agent.
      * @return a boolean indication of whether or not events are enabled for this Agent.
@@ -156,7 +269,7 @@ public final class Agent extends QmfData
      * Return the Epoch stamp.
      * @return the Epoch stamp, used to determine if an Agent has been restarted.
      */
-    public long getEpoch()
+    public synchronized long getEpoch()
     {
         return _epoch;
     }
@@ -165,7 +278,7 @@ public final class Agent extends QmfData
      * Set the Epoch stamp.
      * @param epoch the new Epoch stamp, used to indicate that an Agent has been restarted.
      */
-    public void setEpoch(long epoch)
+    public synchronized void setEpoch(long epoch)
     {
         _epoch = epoch;
     }
@@ -290,6 +403,34 @@ public final class Agent extends QmfData
         }
     }
 
+    /**
+     * Sends an asynchronous method request to the Agent returning a QmfFuture that completes with the MethodResult.
+     * Delegates to the AgentProxy to actually send the method as it's the AgentProxy that knows about connections,
+     * sessions and messages, so the AgentProxy must be an AsyncAgentProxy.
+     *
+     * @param objectId the objectId of the remote object.
+     * @param name the remote method name.
+     * @param inArgs the formal parameters of the remote method name.
+     * @param timeout the maximum time to wait for a response, overrides default replyTimeout.
+     * @return a QmfFuture that completes with the MethodResult.
+     */
+    protected QmfFuture<MethodResult> invokeMethodAsync(final ObjectId objectId, final String name,
+                                                        final QmfData inArgs, final int timeout) throws QmfException
+    {
+        if (!(_proxy instanceof AsyncAgentProxy))
+        {
+            throw new QmfException("Agent.invokeMethodAsync() called on Agent whose AgentProxy isn't asynchronous");
+        }
+        else if (isActive())
+        {
+            return ((AsyncAgentProxy)_proxy).invokeMethodAsync(this, createRequest(objectId, name, inArgs), timeout);
+        }
+        else
+        {
+            throw new QmfException("Agent.invokeMethodAsync() called from deactivated Agent");
+        }
+    }
+
     /**
      * Sends a method request to the Agent. Delegates to the AgentProxy to actually send the method as it's the
      * AgentProxy that knows about connections, sessions and messages.
@@ -330,6 +471,18 @@ public final class Agent extends QmfData
         invokeMethod(null, name, inArgs, replyHandle);
     }
 
+    /**
+     * Sends an asynchronous method request to the Agent returning a QmfFuture that completes with the MethodResult.
+     *
+     * @param name the remote method name.
+     * @param inArgs the formal parameters of the remote method name.
+     * @return a QmfFuture that completes with the MethodResult.
+     */
+    public QmfFuture<MethodResult> invokeMethodAsync(final String name, final QmfData inArgs) throws QmfException
+    {
+        return invokeMethodAsync(null, name, inArgs, -1);
+    }
+
     /**
      * Remove a Subscription. Delegates to the AgentProxy to actually remove the Subscription as it's the AgentProxy
      * that really knows about subscriptions.
@@ -76,5 +76,15 @@ public abstract class AgentAccessWorkItem extends WorkItem
         Map<String, Object> p = this.<Map<String, Object>>getParams();
         return (Agent)p.get("agent");
     }
+
+    /**
+     * WorkItems associated with an Agent are ordered per Agent.
+     * @return the ordering key.
+     */
+    @Override
+    public Object getOrderingKey()
+    {
+        return getAgent();
+    }
 }
 
@@ -20,6 +20,9 @@
  */
 package org.apache.qpid.qmf2.console;
 
+// Misc Imports
+import java.util.Arrays;
+
 /**
  * Descriptions below are taken from <a href=https://cwiki.apache.org/confluence/display/qpid/QMFv2+API+Proposal>QMF2 API Proposal</a> 
  * <pre>
@@ -44,5 +47,15 @@ public final class AgentHeartbeatWorkItem extends AgentAccessWorkItem
     {
         super(WorkItemType.AGENT_HEARTBEAT, null, newParams(agent, null));
     }
+
+    /**
+     * A newer heartbeat from the same Agent supersedes this one, so they may be coalesced.
+     * @return the coalesce key.
+     */
+    @Override
+    public Object getCoalesceKey()
+    {
+        return Arrays.asList(getType(), getAgent());
+    }
 }
 
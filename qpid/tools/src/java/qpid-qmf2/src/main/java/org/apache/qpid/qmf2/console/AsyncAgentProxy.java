@@ -0,0 +1,47 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.console;
+
+// Misc Imports
+import java.util.Map;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.common.QmfException;
+
+/**
+ * An AgentProxy that can also invoke methods asynchronously, returning a QmfFuture rather than blocking until the
+ * MethodResult arrives. This is a separate interface so that adding asynchronous method invocation doesn't break
+ * existing implementations of AgentProxy, Agent.invokeMethodAsync() and QmfConsoleData.invokeMethodAsync() are
+ * only available for Agents whose proxy, usually the Console, implements it.
+ */
+public interface AsyncAgentProxy extends AgentProxy
+{
+    /**
+     * Invoke the named method on the named Agent asynchronously.
+     *
+     * @param agent the Agent to invoke the method on.
+     * @param content an unordered set of key/value pairs comprising the method arguments.
+     * @param timeout the maximum time to wait for a response, overrides default replyTimeout.
+     * @return a QmfFuture that completes with the MethodResult.
+     */
+    public QmfFuture<MethodResult> invokeMethodAsync(Agent agent, Map<String, Object> content, int timeout)
+        throws QmfException;
+}
@@ -0,0 +1,238 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.console;
+
+// JMS Imports
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+// Misc Imports
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.common.QmfException;
+
+/**
+ * An AsyncResponse is a PendingResponse that, rather than queueing response Messages for a blocked thread to
+ * receive(), processes them as they arrive on the RequestCorrelator's MessageListener thread and completes a
+ * QmfFuture with the result.
+ * <p>
+ * Concrete subclasses convert the response Message(s) into a result by implementing onResponse(). If no final
+ * response has been received when the timeout expires onTimeout() is called, which by default fails the QmfFuture.
+ * If onTimeout() returns a result instead the QmfFuture completes with it as a partial result, see
+ * QmfFuture.isPartial().
+ * <p>
+ * Once the QmfFuture completes, for whatever reason, the AsyncResponse removes itself from the RequestCorrelator
+ * and cancels its timeout.
+ *
+ * @param <T> the result type of the QmfFuture.
+ */
+abstract class AsyncResponse<T> extends PendingResponse
+{
+    private final RequestCorrelator _correlator;
+    private final QmfFuture<T> _future;
+    private ScheduledFuture<?> _timeoutTask = null;
+
+    /**
+     * Construct an AsyncResponse with a new correlationId from the RequestCorrelator. Note that the AsyncResponse
+     * isn't registered with the RequestCorrelator until register() is called.
+     *
+     * @param correlator the RequestCorrelator that will route the responses to this AsyncResponse.
+     * @param executor the Executor used to call the QmfFuture's listeners.
+     */
+    AsyncResponse(final RequestCorrelator correlator, final Executor executor)
+    {
+        super(correlator.nextCorrelationId());
+        _correlator = correlator;
+        _future = new QmfFuture<T>(executor)
+        {
+            @Override
+            protected void done()
+            {
+                cleanup();
+            }
+        };
+    }
+
+    /**
+     * Remove this AsyncResponse from the RequestCorrelator and cancel any timeout.
+     */
+    private void cleanup()
+    {
+        _correlator.remove(this);
+        synchronized(this)
+        {
+            if (_timeoutTask != null)
+            {
+                _timeoutTask.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Register this AsyncResponse with the RequestCorrelator and schedule the timeout. If the timeout can't be
+     * scheduled, e.g. because the scheduler has been shut down, the AsyncResponse is removed from the
+     * RequestCorrelator again and the QmfFuture fails, so callers should check the QmfFuture before sending the
+     * request.
+     *
+     * @param scheduler the ScheduledExecutorService used to schedule the timeout.
+     * @param timeout the time to wait in milliseconds for the final response.
+     */
+    final void register(final ScheduledExecutorService scheduler, final long timeout)
+    {
+        Runnable task = new Runnable()
+        {
+            public void run()
+            {
+                timeout();
+            }
+        };
+
+        _correlator.register(this);
+        ScheduledFuture<?> timeoutTask;
+        try
+        {
+            timeoutTask = scheduler.schedule(task, timeout, TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException ree)
+        { // Without a timeout the entry would never be removed from the RequestCorrelator
+            _correlator.remove(this);
+            _future.fail(new QmfException("Unable to schedule request timeout: " + ree.getMessage()));
+            return;
+        }
+        synchronized(this)
+        {
+            _timeoutTask = timeoutTask;
+        }
+        if (_future.isDone())
+        { // Completed (e.g. cancelled) before the timeout was scheduled, so cleanup() couldn't cancel it.
+            timeoutTask.cancel(false);
+        }
+    }
+
+    /**
+     * Called by the RequestCorrelator when the Console's connection is removed, fails the QmfFuture.
+     */
+    @Override
+    void cancel()
+    {
+        _future.fail(new QmfException("Console connection removed"));
+    }
+
+    /**
+     * Return the QmfFuture that will be completed with the result.
+     * @return the QmfFuture that will be completed with the result.
+     */
+    final QmfFuture<T> getFuture()
+    {
+        return _future;
+    }
+
+    /**
+     * Called by the RequestCorrelator when a response Message for this request arrives.
+     *
+     * @param message the response Message.
+     * @return true if this is the last response expected for the request.
+     */
+    @Override
+    final boolean deliver(final Message message) throws JMSException
+    {
+        boolean lastResult = !message.propertyExists("partial");
+        if (_future.isDone())
+        { // Most likely cancelled by the application, so there's nobody to give the response to.
+            return lastResult;
+        }
+
+        T result = null;
+        try
+        {
+            synchronized(this)
+            {
+                result = onResponse(message, lastResult);
+            }
+        }
+        catch (JMSException jmse)
+        {
+            _future.fail(new QmfException(jmse.getMessage()));
+            return true;
+        }
+        catch (QmfException qmfe)
+        {
+            _future.fail(qmfe);
+            return true;
+        }
+
+        if (lastResult)
+        {
+            _future.complete(result);
+        }
+        return lastResult;
+    }
+
+    /**
+     * Called by the timeout task if the QmfFuture hasn't completed when the timeout expires.
+     */
+    private void timeout()
+    {
+        if (_future.isDone())
+        {
+            return;
+        }
+
+        try
+        {
+            T result = null;
+            synchronized(this)
+            {
+                result = onTimeout();
+            }
+            _future.completePartial(result);
+        }
+        catch (QmfException qmfe)
+        {
+            _future.fail(qmfe);
+        }
+    }
+
+    /**
+     * Process a response Message.
+     *
+     * @param message the response Message.
+     * @param lastResult true if this is the last response expected for the request.
+     * @return the result used to complete the QmfFuture if lastResult is true, ignored otherwise.
+     */
+    abstract T onResponse(Message message, boolean lastResult) throws JMSException, QmfException;
+
+    /**
+     * Called if the final response hasn't been received when the timeout expires.
+     *
+     * @return the partial result used to complete the QmfFuture.
+     * @throws QmfException to fail the QmfFuture, which is the default behaviour.
+     */
+    T onTimeout() throws QmfException
+    {
+        throw new QmfException("No response received before timeout expired");
+    }
+}
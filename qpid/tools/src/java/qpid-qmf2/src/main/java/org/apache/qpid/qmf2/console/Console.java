@@ -40,17 +40,30 @@ import org.slf4j.LoggerFactory;
 
 // Misc Imports
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Timer;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 // QMF2 Imports
+import org.apache.qpid.qmf2.common.AMQPListReader;
 import org.apache.qpid.qmf2.common.AMQPMessage;
+import org.apache.qpid.qmf2.common.ExecutorQmfEventListener;
 import org.apache.qpid.qmf2.common.Handle;
 import org.apache.qpid.qmf2.common.Notifier;
 import org.apache.qpid.qmf2.common.NotifierWrapper;
@@ -65,10 +78,9 @@ import org.apache.qpid.qmf2.common.QmfQuery;
 import org.apache.qpid.qmf2.common.QmfQueryTarget;
 import org.apache.qpid.qmf2.common.SchemaClass;
 import org.apache.qpid.qmf2.common.SchemaClassId;
-import org.apache.qpid.qmf2.common.SchemaEventClass;
-import org.apache.qpid.qmf2.common.SchemaObjectClass;
 import org.apache.qpid.qmf2.common.WorkItem;
 import org.apache.qpid.qmf2.common.WorkQueue;
+import org.apache.qpid.qmf2.util.TimingWheel;
 
 // Reuse this class as it provides a handy mechanism to parse an options String into a Map
 import org.apache.qpid.messaging.util.AddressParser;
@@ -127,6 +139,9 @@ import org.apache.qpid.messaging.util.AddressParser;
  *  <li>Agent and Console methods are sufficiently thread safe that it is possible to call them from a callback fired
  *      from the onEvent() method that may have been called from the JMS MessageListener. Internally the synchronous
  *      and asynchronous calls are processed on different JMS Sessions to facilitate this</li>
+ *  <li>Agent lifecycle WorkItems (AgentAdded, AgentRestarted, AgentHeartbeat) are delivered from a JMS Session of
+ *      their own, so that Agent liveness tracking isn't held up by large data indications, so onEvent() may be
+ *      called by more than one thread at a time.</li>
  * </ol>
  * <p>
  * <img alt="" src="doc-files/QmfEventListenerModel.png">
@@ -192,10 +207,22 @@ import org.apache.qpid.messaging.util.AddressParser;
  *
  * @author Fraser Adams
  */
-public final class Console implements MessageListener, AgentProxy
+public final class Console implements MessageListener, AsyncAgentProxy
 {
     private static final Logger _log = LoggerFactory.getLogger(Console.class);
 
+    /**
+     * The link capacity of an ObjectIterator's reply queue, i.e. the number of the Agent's response Messages that
+     * the client will accept ahead of the application consuming them.
+     */
+    private static final int ITERATOR_CAPACITY = 2;
+
+    /**
+     * The largest batch of objects that refresh() queries for by ObjectId, larger batches are queried for by class
+     * as the predicate listing their ObjectIds would be both a large request and expensive for the Agent to evaluate.
+     */
+    private static final int MAX_REFRESH_PREDICATE_SIZE = 500;
+
     //                                             Attributes
     // ********************************************************************************************************
 
@@ -209,7 +236,7 @@ public final class Console implements MessageListener, AgentProxy
     /**
      * Explicitly store Agents in a ConcurrentHashMap, as we know the MessageListener thread may modify its contents.
      */
-    private Map<String, Agent> _agents = new ConcurrentHashMap<String, Agent>();
+    private ConcurrentMap<String, Agent> _agents = new ConcurrentHashMap<String, Agent>();
 
     /**
      * This Map is used to look up a Subscription by consoleHandle. 
@@ -285,10 +312,38 @@ public final class Console implements MessageListener, AgentProxy
     private int _subscriptionDuration = 300; // 5 minutes
 
     /**
-     * This timer is used tidy up Subscription references where a Subscription has expired. Ideally a client should
-     * call cancelSubscription(), but we can't rely on it.
+     * This scheduler is used tidy up Subscription references where a Subscription has expired. Ideally a client
+     * should call cancelSubscription(), but we can't rely on it. It is also used to renew Subscriptions, to time out
+     * asynchronous requests and to deliver the responses to emulated Subscription requests.
+     */
+    private ScheduledExecutorService _scheduler;
+
+    /**
+     * Set if the scheduler has been supplied by setScheduler() and is shared with other Consoles, in which case it's
+     * not shut down when the connection is removed.
+     */
+    private boolean _sharedScheduler = false;
+
+    /**
+     * Calls the listeners of the QmfFutures returned by the asynchronous methods. Listeners aren't called on the
+     * RequestCorrelator's MessageListener thread, as a listener that blocked there, e.g. by making a synchronous
+     * Console call, would stop the responses that it's waiting for from being delivered.
+     */
+    private ExecutorService _listenerExecutor;
+
+    /**
+     * The heartbeat deadlines of the Agents and the lease deadlines of the Subscriptions. The one second tick
+     * matches the resolution of agentTimeout and of Subscription lifetimes and the 512 slots cover over eight
+     * minutes, which is beyond the default agentTimeout and subscription lifetime, in one revolution.
+     */
+    private final TimingWheel<Agent> _agentExpiry = new TimingWheel<Agent>(1000, 512);
+    private final TimingWheel<SubscriptionManager> _subscriptionExpiry =
+        new TimingWheel<SubscriptionManager>(1000, 512);
+
+    /**
+     * The periodic task that advances the TimingWheels.
      */
-    private Timer _timer;
+    private ScheduledFuture<?> _expiryTask = null;
 
     /**
      * Various JMS related fields
@@ -296,34 +351,99 @@ public final class Console implements MessageListener, AgentProxy
     private Connection      _connection = null;
     private Session         _asyncSession;
     private Session         _syncSession; 
+    private Session         _lifecycleSession;
     private MessageConsumer _eventConsumer;
+    private MessageConsumer _dataConsumer;
     private MessageConsumer _responder; 
     private MessageConsumer _asyncResponder;
+    private MessageConsumer _heartbeatConsumer;
+    private MessageConsumer _lifecycleResponder;
     private MessageProducer _requester; 
     private MessageProducer _broadcaster;
     private Destination     _replyAddress;
     private Destination     _asyncReplyAddress;
+    private Destination     _lifecycleReplyAddress;
+
+    /**
+     * MessageListener for Agent heartbeats and _agent_locate_responses. These arrive on queues of their own, received
+     * on a JMS Session of their own, so that Agent lifecycle traffic isn't held up behind large data indications or a
+     * slow QmfEventListener on the asynchronous Session. Were it held up a healthy Agent's heartbeats could be
+     * processed too late and handleAgentExpiry() would wrongly expire it.
+     */
+    private final MessageListener _lifecycleListener = new MessageListener()
+    {
+        public void onMessage(final Message message)
+        {
+            try
+            {
+                String agentName = QmfData.getString(message.getObjectProperty("qmf.agent"));
+                String opcode = QmfData.getString(message.getObjectProperty("qmf.opcode"));
+                if (opcode.equals("_agent_heartbeat_indication") || opcode.equals("_agent_locate_response"))
+                {
+                    handleAgentLifecycle(message, agentName);
+                }
+            }
+            catch (JMSException jmse)
+            {
+                _log.info("JMSException {} caught in lifecycle onMessage()", jmse.getMessage());
+            }
+        }
+    };
+
+    /**
+     * Routes responses arriving on _replyAddress to the PendingResponse of the request that they correlate with,
+     * which allows many synchronous requests to be in flight at the same time.
+     */
+    private final RequestCorrelator _correlator = new RequestCorrelator();
+
+    /**
+     * Holds the schema retrieved from all Agents so that they're only requested once for each SchemaClassId.
+     */
+    private SchemaCache _schemaCache = new SchemaCache();
+
+    /**
+     * Shares identical object queries, null unless enableQueryCoalescing() has been called.
+     */
+    private volatile QueryCoalescer _queryCoalescer = null;
 
     //                                  private implementation methods
     // ********************************************************************************************************
 
+    /**
+     * Create a MapMessage on the _syncSession. A JMS Session may only be used by one thread at a time, so Messages
+     * are created while holding the same lock as is held for sending on the Session's MessageProducers, rather than
+     * by whichever thread happens to be making a request.
+     *
+     * @return the new MapMessage.
+     */
+    private MapMessage createMapMessage() throws JMSException
+    {
+        synchronized(this)
+        {
+            return _syncSession.createMapMessage();
+        }
+    }
+
     /**
      * Send an asynchronous _agent_locate_request to the topic broadcast address with the subject
-     * "console.request.agent_locate". This should cause all active Agents to respond on the async
-     * direct address, which gets handled by onMessage()
+     * "console.request.agent_locate". This should cause all active Agents to respond on the lifecycle
+     * reply address, which gets handled by the _lifecycleListener
      */
     private void broadcastAgentLocate()
     {
         try
         {
-            Message request = AMQPMessage.createListMessage(_syncSession);
-            request.setJMSReplyTo(_asyncReplyAddress);
-            request.setStringProperty("x-amqp-0-10.app-id", "qmf2");
-            request.setStringProperty("method", "request");
-            request.setStringProperty("qmf.opcode", "_agent_locate_request");
-            request.setStringProperty("qpid.subject", "console.request.agent_locate");
-            AMQPMessage.setList(request, Collections.emptyList());
-            _broadcaster.send(request);
+            synchronized(this)
+            {
+                Message request = AMQPMessage.createListMessage(_syncSession);
+                request.setJMSReplyTo(_lifecycleReplyAddress);
+                request.setStringProperty("x-amqp-0-10.app-id", "qmf2");
+                request.setStringProperty("method", "request");
+                request.setStringProperty("qmf.opcode", "_agent_locate_request");
+                request.setStringProperty("qpid.subject", "console.request.agent_locate");
+                AMQPMessage.setList(request, Collections.emptyList());
+                _broadcaster.send(request);
+            }
         }
         catch (JMSException jmse)
         {
@@ -332,41 +452,266 @@ public final class Console implements MessageListener, AgentProxy
     }
 
     /**
-     * Check whether any of the registered Agents has expired by comparing their timestamp against the 
-     * current time. We explicitly use an iterator rather than a foreach loop because if the Agent has
-     * expired we want to remove it and the only safe way to do that whilst still iterating is to use
-     * iterator.remove() and the foreach loop hides the underlying iterator from us.
+     * Send a request on the synchronous request/response path. The request is given a unique correlationId and
+     * its replyTo is set to _replyAddress, so responses get routed back to the returned PendingResponse.
+     * <p>
+     * Only the send itself is synchronized, the caller waits for the response on its own PendingResponse so other
+     * threads are free to send requests in the meantime.
+     *
+     * @param request the request Message to send.
+     * @return the PendingResponse used to receive the response(s) to the request. The caller should pass this to
+     *         _correlator.remove() when it has finished with it.
+     */
+    private PendingResponse sendRequest(final Message request) throws JMSException
+    {
+        PendingResponse pending = _correlator.register();
+        try
+        {
+            request.setJMSReplyTo(_replyAddress);
+            request.setJMSCorrelationID(pending.getCorrelationId());
+            synchronized(this)
+            {
+                _requester.send(request);
+            }
+        }
+        catch (JMSException jmse)
+        {
+            _correlator.remove(pending);
+            throw jmse;
+        }
+        return pending;
+    }
+
+    /**
+     * Send a request on the synchronous request/response path and block waiting for a single response.
+     *
+     * @param request the request Message to send.
+     * @param timeout the maximum time to wait for the response in milliseconds.
+     * @return the response Message or null if no response was received before the timeout expired.
+     */
+    private Message sendRequest(final Message request, final long timeout) throws JMSException
+    {
+        PendingResponse pending = sendRequest(request);
+        try
+        {
+            return pending.receive(timeout);
+        }
+        finally
+        {
+            _correlator.remove(pending);
+        }
+    }
+
+    /**
+     * Send a request on the synchronous request/response path without blocking. The response(s) are passed to the
+     * AsyncResponse as they arrive, which completes its QmfFuture once the final response has been received or
+     * the timeout expires.
+     *
+     * @param request the request Message to send.
+     * @param pending the AsyncResponse that will process the response(s).
+     * @param timeout the maximum time to wait for the final response in milliseconds.
+     * @return the QmfFuture that will be completed with the result.
      */
-    private void handleAgentExpiry()
+    private <T> QmfFuture<T> sendRequest(final Message request, final AsyncResponse<T> pending, final long timeout)
     {
-        long currentTime = System.currentTimeMillis()*1000000l;
+        pending.register(_scheduler, timeout);
+        if (pending.getFuture().isDone())
+        { // The timeout couldn't be scheduled so there's no point sending the request
+            return pending.getFuture();
+        }
 
-        // Use the iterator approach rather than foreach as we may want to call iterator.remove() to zap an entry
-        Iterator<Agent> i = _agents.values().iterator();
-        while (i.hasNext())
+        try
         {
-            Agent agent = i.next();
-            // Get the time difference in seconds between now and the last Agent update.
-            long diff = (currentTime - agent.getTimestamp())/1000000000l;
-            if (diff > _agentTimeout)
+            request.setJMSReplyTo(_replyAddress);
+            request.setJMSCorrelationID(pending.getCorrelationId());
+            synchronized(this)
             {
-                if (agent.getVendor().equals("apache.org") && agent.getProduct().equals("qpidd"))
-                {            
-                    _brokerAgentName = null;
+                _requester.send(request);
+            }
+        }
+        catch (JMSException jmse)
+        {
+            _log.info("JMSException {} caught in sendRequest()", jmse.getMessage());
+            pending.getFuture().fail(new QmfException(jmse.getMessage()));
+        }
+        return pending.getFuture();
+    }
+
+    /**
+     * (Re)schedule the expiry of an Agent, called whenever an Agent's timestamp is updated by a heartbeat.
+     * The Agent expires if its timestamp is more than agentTimeout seconds old.
+     *
+     * @param agent the Agent whose expiry is being scheduled.
+     */
+    private void scheduleAgentExpiry(final Agent agent)
+    {
+        _agentExpiry.schedule(agent, agent.getTimestamp()/1000000l + (_agentTimeout + 1)*1000l);
+    }
+
+    /**
+     * Called periodically on the scheduler to expire the Agents and Subscriptions whose deadlines have passed.
+     * The deadlines are tracked by TimingWheels so, rather than checking every Agent and every Subscription, only
+     * those that are actually due to expire are visited.
+     * <p>
+     * RuntimeExceptions, e.g. thrown by the application's QmfEventListener, are caught for each Agent and
+     * Subscription. If one escaped, the ScheduledExecutorService would silently stop running the expiry task and
+     * the remaining Agents and Subscriptions already taken off the TimingWheels would be lost.
+     */
+    private void handleExpiry()
+    {
+        long currentTime = System.currentTimeMillis();
+        for (Agent agent : _agentExpiry.advance(currentTime))
+        {
+            try
+            {
+                // Get the time difference in seconds between now and the last Agent update.
+                long diff = (currentTime*1000000l - agent.getTimestamp())/1000000000l;
+                if (diff > _agentTimeout)
+                {
+                    expireAgent(agent);
                 }
-                agent.deactivate();
-                i.remove();
-                _log.info("Agent {} has expired", agent.getName());
+                else if (_agents.get(agent.getName()) == agent)
+                { // Shouldn't happen as heartbeats reschedule the expiry, but an Agent mustn't be lost from the wheel
+                    scheduleAgentExpiry(agent);
+                }
+            }
+            catch (RuntimeException re)
+            {
+                _log.info("RuntimeException {} caught expiring Agent {}", re.getMessage(), agent.getName());
+            }
+        }
+
+        for (SubscriptionManager subscription : _subscriptionExpiry.advance(currentTime))
+        {
+            try
+            {
+                subscription.run();
+            }
+            catch (RuntimeException re)
+            {
+                _log.info("RuntimeException {} caught expiring Subscription {}",
+                          re.getMessage(), subscription.getSubscriptionId());
+            }
+        }
+    }
+
+    /**
+     * Remove an Agent that has expired or been destroyed and notify the client with an AgentDeletedWorkItem.
+     * Any Subscriptions to the Agent are cancelled.
+     *
+     * @param agent the Agent to remove.
+     */
+    private void expireAgent(final Agent agent)
+    {
+        _agentExpiry.cancel(agent);
+        if (!_agents.remove(agent.getName(), agent))
+        { // Already removed, or replaced by a new instance of the Agent
+            return;
+        }
+
+        if (agent.getVendor().equals("apache.org") && agent.getProduct().equals("qpidd"))
+        {            
+            _brokerAgentName = null;
+        }
+        agent.deactivate();
+        _log.info("Agent {} has expired", agent.getName());
+        for (SubscriptionManager subscription : _subscriptionByHandle.values())
+        {
+            if (subscription.getAgent() == agent)
+            {
+                subscription.cancel();
+            }
+        }
+
+        if (_discoverAgents && (_agentQuery == null || _agentQuery.evaluate(agent)))
+        {
+            _eventListener.onEvent(new AgentDeletedWorkItem(agent));
+        }
+    }
+
+    /**
+     * Handle Agent lifecycle information (discover, register, delete) from a heartbeat or _agent_locate_response.
+     *
+     * @param message the heartbeat or _agent_locate_response Message.
+     * @param agentName the name of the Agent that sent the Message.
+     */
+    private void handleAgentLifecycle(final Message message, final String agentName) throws JMSException
+    {
+        // A single get() as the Agent may be expired concurrently by the scheduler thread.
+        Agent agent = _agents.get(agentName);
+        if (agent != null)
+        { // This block handles Agents that have previously been registered
+
+            // If we already know about an Agent we simply update the Agent's state, which atomically checks
+            // whether the Epoch has changed as data indications may also detect the restart.
+            boolean restarted = agent.update(AMQPMessage.getMap(message));
+            scheduleAgentExpiry(agent);
+
+            // If the Epoch has changed it means the Agent has been restarted so we send a notification
+            if (restarted)
+            {
+                discoverSchema(agent); // Rediscover the schema for this Agent in the background
+                for (SubscriptionManager subscription : _subscriptionByHandle.values())
+                { // The restarted Agent publishes everything in full again so the cached objects aren't needed.
+                    if (subscription.getAgent() == agent)
+                    {
+                        subscription.evictObjects();
+                    }
+                }
+                _log.info("Agent {} has been restarted", agentName);
                 if (_discoverAgents && (_agentQuery == null || _agentQuery.evaluate(agent)))
                 {
-                    _eventListener.onEvent(new AgentDeletedWorkItem(agent));
+                    _eventListener.onEvent(new AgentRestartedWorkItem(agent));
+                }
+            }
+            else
+            { // Otherwise just send a heartbeat notification
+                _log.info("Agent {} heartbeat", agent.getName());
+                if (_discoverAgents && (_agentQuery == null || _agentQuery.evaluate(agent)))
+                {
+                    _eventListener.onEvent(new AgentHeartbeatWorkItem(agent));
+                }
+            }
+        }
+        else
+        { // This block handles Agents that haven't already been registered
+            agent = new Agent(AMQPMessage.getMap(message), this);
+            discoverSchema(agent); // Discover the schema for this Agent in the background
+            _agents.put(agentName, agent);
+            scheduleAgentExpiry(agent);
+            _log.info("Adding Agent {}", agentName);
+
+            // If the Agent is the Broker Agent we record it as _brokerAgentName to make retrieving
+            // the Agent more "user friendly" than using the full Agent name.
+            if (agent.getVendor().equals("apache.org") && agent.getProduct().equals("qpidd"))
+            {
+                _log.info("Recording {} as _brokerAgentName", agentName);
+                _brokerAgentName = agentName;
+            }
+
+            // Notify any waiting threads that an Agent has been registered. Note that we only notify if
+            // we've already found the broker Agent to avoid a race condition in addConnection(), as another
+            // Agent could in theory trigger this block first. In addConnection() we *explicitly* want to
+            // wait for the broker Agent to become available.
+            if (_brokerAgentName != null)
+            {
+                synchronized(this)
+                {
+                    _agentAvailable = true;
+                    notifyAll();
                 }
             }
+
+            if (_discoverAgents && (_agentQuery == null || _agentQuery.evaluate(agent)))
+            {
+                _eventListener.onEvent(new AgentAddedWorkItem(agent));
+            }
         }
     }
 
     /**
-     * MessageListener for QMF2 Agent Events, Hearbeats and Asynchronous data indications
+     * MessageListener for QMF2 Agent Events and Asynchronous data indications, Heartbeats are handled by the
+     * _lifecycleListener.
      *
      * @param message the JMS Message passed to the listener
      */
@@ -387,76 +732,9 @@ public final class Console implements MessageListener, AgentProxy
 //System.out.println("routingKey = " + routingKey);
 //System.out.println("contentType = " + contentType);
 
-            if (opcode.equals("_agent_heartbeat_indication") || opcode.equals("_agent_locate_response"))
-            { // This block handles Agent lifecycle information (discover, register, delete)
-                if (_agents.containsKey(agentName))
-                { // This block handles Agents that have previously been registered
-                    Agent agent = _agents.get(agentName);
-                    long originalEpoch = agent.getEpoch();
-
-                    // If we already know about an Agent we simply update the Agent's state using initialise()
-                    agent.initialise(AMQPMessage.getMap(message));
-
-                    // If the Epoch has changed it means the Agent has been restarted so we send a notification
-                    if (agent.getEpoch() != originalEpoch)
-                    {
-                        agent.clearSchemaCache(); // Clear cache to force a lookup
-                        List<SchemaClassId> classes = getClasses(agent);
-                        getSchema(classes, agent); // Discover the schema for this Agent and cache it
-                        _log.info("Agent {} has been restarted", agentName);
-                        if (_discoverAgents && (_agentQuery == null || _agentQuery.evaluate(agent)))
-                        {
-                            _eventListener.onEvent(new AgentRestartedWorkItem(agent));
-                        }
-                    }
-                    else
-                    { // Otherwise just send a heartbeat notification
-                        _log.info("Agent {} heartbeat", agent.getName());
-                        if (_discoverAgents && (_agentQuery == null || _agentQuery.evaluate(agent)))
-                        {
-                            _eventListener.onEvent(new AgentHeartbeatWorkItem(agent));
-                        }
-                    }
-                }
-                else
-                { // This block handles Agents that haven't already been registered
-                    Agent agent = new Agent(AMQPMessage.getMap(message), this);
-                    List<SchemaClassId> classes = getClasses(agent);
-                    getSchema(classes, agent); // Discover the schema for this Agent and cache it
-                    _agents.put(agentName, agent);
-                    _log.info("Adding Agent {}", agentName);
-
-                    // If the Agent is the Broker Agent we record it as _brokerAgentName to make retrieving
-                    // the Agent more "user friendly" than using the full Agent name.
-                    if (agent.getVendor().equals("apache.org") && agent.getProduct().equals("qpidd"))
-                    {
-                        _log.info("Recording {} as _brokerAgentName", agentName);
-                        _brokerAgentName = agentName;
-                    }
-
-                    // Notify any waiting threads that an Agent has been registered. Note that we only notify if
-                    // we've already found the broker Agent to avoid a race condition in addConnection(), as another
-                    // Agent could in theory trigger this block first. In addConnection() we *explicitly* want to
-                    // wait for the broker Agent to become available.
-                    if (_brokerAgentName != null)
-                    {
-                        synchronized(this)
-                        {
-                            _agentAvailable = true;
-                            notifyAll();
-                        }
-                    }
-
-                    if (_discoverAgents && (_agentQuery == null || _agentQuery.evaluate(agent)))
-                    {
-                        _eventListener.onEvent(new AgentAddedWorkItem(agent));
-                    }
-                }
-
-                // The broker Agent sends periodic heartbeats and that Agent should *always* be available given
-                // a running broker, so we should get here every "--mgmt-pub-interval" seconds or so, so it's
-                // a good place to periodically check for the expiry of any other Agents.
-                handleAgentExpiry();
+            if (opcode.equals("_agent_locate_response"))
+            { // Shouldn't arrive here as locate requests reply to the lifecycle address, but handle it just in case
+                handleAgentLifecycle(message, agentName);
                 return;
             }
 
@@ -529,6 +807,7 @@ public final class Console implements MessageListener, AgentProxy
                                 _subscriptionById.put(subscriptionId, subscription);
                                 subscription.setSubscriptionId(subscriptionId);
                                 subscription.setDuration(params.getLifetime());
+                                scheduleRenewal(subscription);
                                 String replyHandle = subscription.getReplyHandle();
                                 if (replyHandle == null)
                                 {
@@ -561,13 +840,17 @@ public final class Console implements MessageListener, AgentProxy
                 if (AMQPMessage.isAMQPList(message))
                 {
                     String consoleHandle = handle.getCorrelationId();
-                    if (consoleHandle != null && _subscriptionByHandle.containsKey(consoleHandle))
+                    SubscriptionManager handleSubscription = (consoleHandle == null) ? null :
+                                                             _subscriptionByHandle.get(consoleHandle);
+                    if (handleSubscription != null)
                     { // If we have a valid consoleHandle the data has come from a "real" Subscription.
-                        List<Map> list = AMQPMessage.getList(message);
-                        List<QmfConsoleData> resultList = new ArrayList<QmfConsoleData>(list.size());
-                        for (Map m : list)
+                        // The SubscriptionManager merges any delta updates with the objects it has already received.
+                        AMQPListReader reader = new AMQPListReader(message);
+                        List<QmfConsoleData> resultList = new ArrayList<QmfConsoleData>();
+                        while (reader.hasNext())
                         {
-                            resultList.add(new QmfConsoleData(m, agent));
+                            Map m = reader.next();
+                            resultList.add(handleSubscription.update(m));
                         }
                         _eventListener.onEvent(
                             new SubscriptionIndicationWorkItem(new SubscribeIndication(consoleHandle, resultList))
@@ -607,12 +890,9 @@ public final class Console implements MessageListener, AgentProxy
                                     // ManagementAgent pushes data *before* it pushes heartbeats. Its more useful
                                     // however for clients to know that an Agent has been restarted *before* they get
                                     // data from the restarted Agent (in case they need to reset any state).
-                                    if (objectEpoch > agent.getEpoch())
-                                    {
-                                        agent.setEpoch(objectEpoch);
-                                        agent.clearSchemaCache(); // Clear cache to force a lookup
-                                        List<SchemaClassId> classes = getClasses(agent);
-                                        getSchema(classes, agent); // Discover the schema for this Agent and cache it
+                                    if (agent.advanceEpoch(objectEpoch))
+                                    { // advanceEpoch() ensures only one of this and the heartbeat sees the restart
+                                        discoverSchema(agent); // Rediscover the schema in the background
                                         _log.info("Agent {} has been restarted", agentName);
                                         if (_discoverAgents && (_agentQuery == null || _agentQuery.evaluate(agent)))
                                         {
@@ -664,22 +944,58 @@ public final class Console implements MessageListener, AgentProxy
     } // end of onMessage() 
 
     /**
-     * Retrieve the schema for a List of classes.
-     * This method explicitly retrieves the schema from the remote Agent and is generally used for schema
-     * discovery when an Agent is added or updated.
+     * Discover the schema of an Agent that has been added or restarted. The discovery is asynchronous, so it doesn't
+     * hold up the MessageListener thread that calls this: the Agent's classes are requested and, when they arrive,
+     * the schema of all of the classes are requested at once. The Agent reports isSchemaPending() until the
+     * discovery completes. Any schema that haven't arrived by then (or that are needed whilst discovery is still
+     * pending) are retrieved lazily by getSchema() as usual.
      *
-     * @param classes the list of SchemaClassId of the classes who's schema we want to retrieve
-     * @param agent the Agent we want to retrieve the schema from
+     * @param agent the Agent we want to discover the schema of.
      */
-    private List<SchemaClass> getSchema(final List<SchemaClassId> classes, final Agent agent)
+    private void discoverSchema(final Agent agent)
     {
-        List<SchemaClass> results = new ArrayList<SchemaClass>();
-        for (SchemaClassId classId : classes)
+        agent.clearSchemaCache(); // Clear cache to force a lookup
+        final int discovery = agent.beginSchemaDiscovery();
+        getClassesAsync(agent).addListener(new QmfFutureListener<List<SchemaClassId>>()
         {
-            agent.setSchema(classId, Collections.<SchemaClass>emptyList()); // Clear Agent's schema value for classId
-            results.addAll(getSchema(classId, agent));
-        }
-        return results;
+            public void onResult(final List<SchemaClassId> classes)
+            {
+                final AtomicInteger outstanding = new AtomicInteger(classes.size());
+                if (classes.size() == 0)
+                {
+                    agent.endSchemaDiscovery(discovery);
+                    return;
+                }
+
+                QmfFutureListener<List<SchemaClass>> schemaListener = new QmfFutureListener<List<SchemaClass>>()
+                {
+                    public void onResult(final List<SchemaClass> schema)
+                    {
+                        if (outstanding.decrementAndGet() == 0)
+                        {
+                            agent.endSchemaDiscovery(discovery);
+                        }
+                    }
+
+                    public void onException(final QmfException qmfe)
+                    {
+                        _log.info("QmfException {} caught discovering schema for {}", qmfe.getMessage(), agent.getName());
+                        onResult(null);
+                    }
+                };
+
+                for (SchemaClassId classId : classes)
+                {
+                    getSchemaAsync(classId, agent).addListener(schemaListener);
+                }
+            }
+
+            public void onException(final QmfException qmfe)
+            {
+                _log.info("QmfException {} caught discovering classes for {}", qmfe.getMessage(), agent.getName());
+                agent.endSchemaDiscovery(discovery);
+            }
+        });
     }
 
     /**
@@ -697,67 +1013,80 @@ public final class Console implements MessageListener, AgentProxy
     private List<QmfConsoleData> getObjects(final Agent agent, final QmfData query,
                                             final String replyHandle, int timeout)
     {
-        String agentName = agent.getName();
+        timeout = (timeout < 1) ? _replyTimeout : timeout;
+        List<QmfConsoleData> results = Collections.emptyList();
+        if (replyHandle == null && _queryCoalescer != null)
+        { // Identical queries share a request, which is handled by getObjectsAsync()
+            try
+            {
+                return getObjectsAsync(agent, query, timeout).get();
+            }
+            catch (InterruptedException ie)
+            {
+                Thread.currentThread().interrupt();
+                _log.info("InterruptedException caught in getObjects()");
+            }
+            catch (ExecutionException ee)
+            {
+                _log.info("ExecutionException {} caught in getObjects()", ee.getMessage());
+            }
+            return results;
+        }
+        return queryObjects(agent, query, replyHandle, timeout);
+    }
+
+    /**
+     * Send a query for QmfConsoleData objects to the Agent, bypassing any QueryCoalescer, see getObjects().
+     *
+     * @param agent the Agent being queried
+     * @param query the ObjectId or SchemaClassId being queried for.
+     * @param replyHandle the correlation handle used to tie asynchronous method requests with responses
+     * @param timeout the time to wait for a reply from the Agent, a value of -1 means use the default timeout
+     * @return a List of QMF Objects describing that class
+     */
+    private List<QmfConsoleData> queryObjects(final Agent agent, final QmfData query,
+                                              final String replyHandle, int timeout)
+    {
         timeout = (timeout < 1) ? _replyTimeout : timeout;
         List<QmfConsoleData> results = Collections.emptyList();
         try
         {
-            Destination destination = (replyHandle == null) ? _replyAddress : _asyncReplyAddress;
-            MapMessage request = _syncSession.createMapMessage();
-            request.setJMSReplyTo(destination);
-            request.setJMSCorrelationID(replyHandle);
-            request.setStringProperty("x-amqp-0-10.app-id", "qmf2");
-            request.setStringProperty("method", "request");
-            request.setStringProperty("qmf.opcode", "_query_request");
-            request.setStringProperty("qpid.subject", agentName);
-
-            // Create a QMF Query for an "OBJECT" target using either a schema ID or object ID
-            String queryType = (query instanceof SchemaClassId) ? "_schema_id" : "_object_id";
-            request.setObject("_what", "OBJECT");
-            request.setObject(queryType, query.mapEncode());
-
-            // Wrap request & response in synchronized block in case any other threads invoke a request
-            // it would be somewhat unfortunate if their response got interleaved with ours!!
-            synchronized(this)
-            {
-                _requester.send(request);
-                if (replyHandle == null)
+            MapMessage request = createObjectsRequest(agent.getName(), query);
+            if (replyHandle != null)
+            { // If this is an asynchronous request send it and return without waiting for a response
+                request.setJMSReplyTo(_asyncReplyAddress);
+                request.setJMSCorrelationID(replyHandle);
+                synchronized(this)
                 {
-                    boolean lastResult = true;
-                    ArrayList<QmfConsoleData> partials = new ArrayList<QmfConsoleData>();
-                    do
-                    { // Wrap in a do/while loop to cater for the case where the Agent may send partial results.
-                        Message response = _responder.receive(timeout*1000);
-                        if (response == null)
-                        {
-                            _log.info("No response received in getObjects()");
-                            return partials;
-                        }
+                    _requester.send(request);
+                }
+                return results;
+            }
 
-                        lastResult = !response.propertyExists("partial");
+            // The request gets its own PendingResponse so its responses can't get interleaved with those of any
+            // other threads that happen to have requests in flight at the same time.
+            PendingResponse pending = sendRequest(request);
+            try
+            {
+                boolean lastResult = true;
+                ArrayList<QmfConsoleData> partials = new ArrayList<QmfConsoleData>();
+                do
+                { // Wrap in a do/while loop to cater for the case where the Agent may send partial results.
+                    Message response = pending.receive(timeout*1000);
+                    if (response == null)
+                    {
+                        _log.info("No response received in getObjects()");
+                        return partials;
+                    }
 
-                        if (AMQPMessage.isAMQPList(response))
-                        {
-                            List<Map> mapResults = AMQPMessage.getList(response);
-                            partials.ensureCapacity(partials.size() + mapResults.size());
-                            for (Map content : mapResults)
-                            {
-                                partials.add(new QmfConsoleData(content, agent));
-                            }
-                        }
-                        else if (AMQPMessage.isAMQPMap(response))
-                        {
-                            // Error responses are returned as MapMessages, though they are being ignored here.
-                            //QmfData exception = new QmfData(AMQPMessage.getMap(response));
-                            //System.out.println(agentName + " " + exception.getStringValue("error_text"));
-                        }
-                        else
-                        {
-                            _log.info("getObjects() Received response message in incorrect format");
-                        }
-                    } while (!lastResult);
-                    results = partials;
-                }
+                    lastResult = !response.propertyExists("partial");
+                    addObjects(response, agent, partials);
+                } while (!lastResult);
+                results = partials;
+            }
+            finally
+            {
+                _correlator.remove(pending);
             }
         }
         catch (JMSException jmse)
@@ -767,7 +1096,226 @@ public final class Console implements MessageListener, AgentProxy
         return results;
     }
 
-    //                                methods implementing AgentProxy interface
+    /**
+     * Create a _query_request Message for an "OBJECT" target.
+     *
+     * @param agentName the name of the Agent being queried.
+     * @param query the ObjectId or SchemaClassId being queried for, or a QmfQuery for an "OBJECT" target.
+     * @return the request Message.
+     */
+    private MapMessage createObjectsRequest(final String agentName, final QmfData query) throws JMSException
+    {
+        MapMessage request = createMapMessage();
+        request.setStringProperty("x-amqp-0-10.app-id", "qmf2");
+        request.setStringProperty("method", "request");
+        request.setStringProperty("qmf.opcode", "_query_request");
+        request.setStringProperty("qpid.subject", agentName);
+
+        if (query instanceof QmfQuery)
+        { // The QmfQuery already contains the _what and its _schema_id and/or _where
+            for (Map.Entry<String, Object> entry : query.mapEncode().entrySet())
+            {
+                request.setObject(entry.getKey(), entry.getValue());
+            }
+            return request;
+        }
+
+        // Create a QMF Query for an "OBJECT" target using either a schema ID or object ID
+        String queryType = (query instanceof SchemaClassId) ? "_schema_id" : "_object_id";
+        request.setObject("_what", "OBJECT");
+        request.setObject(queryType, query.mapEncode());
+        return request;
+    }
+
+    /**
+     * Decode the objects contained in a _query_response Message and add them to a List of results.
+     *
+     * @param response the _query_response Message.
+     * @param agent the Agent that sent the response.
+     * @param results the List that the decoded QmfConsoleData objects are added to.
+     */
+    private void addObjects(final Message response, final Agent agent, final ArrayList<QmfConsoleData> results)
+        throws JMSException
+    {
+        if (AMQPMessage.isAMQPList(response))
+        {
+            // Decode the objects one at a time so the whole List of Maps is never held in memory.
+            AMQPListReader reader = new AMQPListReader(response);
+            if (reader.size() > 0)
+            {
+                results.ensureCapacity(results.size() + (int)reader.size());
+            }
+            while (reader.hasNext())
+            {
+                Map content = reader.next();
+                results.add(new QmfConsoleData(content, agent));
+            }
+        }
+        else if (AMQPMessage.isAMQPMap(response))
+        {
+            // Error responses are returned as MapMessages, though they are being ignored here.
+            //QmfData exception = new QmfData(AMQPMessage.getMap(response));
+            //System.out.println(agentName + " " + exception.getStringValue("error_text"));
+        }
+        else
+        {
+            _log.info("getObjects() Received response message in incorrect format");
+        }
+    }
+
+    /**
+     * Perform an asynchronous query for QmfConsoleData objects. The returned QmfFuture completes with a list
+     * (possibly empty) of matching objects when the Agent replies. If the timeout expires before the Agent's final
+     * response arrives the QmfFuture completes with all data retrieved to date, as the blocking getObjects() does,
+     * and its isPartial() method returns true.
+     * <p>
+     * The QmfFuture is completed directly by the Console's response MessageListener rather than via the WorkQueue,
+     * and its listeners are called on the Console's QmfFutureListener thread, see QmfFutureListener.
+     *
+     * @param agent the Agent being queried.
+     * @param query the ObjectId or SchemaClassId being queried for.
+     * @param timeout the time to wait for a reply from the Agent, a value of -1 means use the default timeout.
+     * @return a QmfFuture that completes with a List of QMF Objects matching the query.
+     */
+    public QmfFuture<List<QmfConsoleData>> getObjectsAsync(final Agent agent, final QmfData query, int timeout)
+    {
+        final int replyTimeout = (timeout < 1) ? _replyTimeout : timeout;
+        QueryCoalescer coalescer = _queryCoalescer;
+        if (coalescer == null)
+        {
+            return sendObjectsRequest(agent, query, replyTimeout);
+        }
+
+        return coalescer.get(agent.getName(), query, _scheduler, _listenerExecutor, new QueryCoalescer.Request()
+        {
+            public QmfFuture<List<QmfConsoleData>> send()
+            {
+                return sendObjectsRequest(agent, query, replyTimeout);
+            }
+        });
+    }
+
+    /**
+     * Send an asynchronous query for QmfConsoleData objects, see getObjectsAsync().
+     *
+     * @param agent the Agent being queried.
+     * @param query the ObjectId or SchemaClassId being queried for.
+     * @param timeout the time to wait for a reply from the Agent.
+     * @return a QmfFuture that completes with a List of QMF Objects matching the query.
+     */
+    private QmfFuture<List<QmfConsoleData>> sendObjectsRequest(final Agent agent, final QmfData query,
+                                                               final int timeout)
+    {
+        AsyncResponse<List<QmfConsoleData>> pending =
+            new AsyncResponse<List<QmfConsoleData>>(_correlator, _listenerExecutor)
+        {
+            private final ArrayList<QmfConsoleData> _partials = new ArrayList<QmfConsoleData>();
+
+            List<QmfConsoleData> onResponse(final Message response, final boolean lastResult) throws JMSException
+            {
+                addObjects(response, agent, _partials);
+                return _partials;
+            }
+
+            @Override
+            List<QmfConsoleData> onTimeout()
+            {
+                _log.info("No response received in getObjectsAsync()");
+                return new ArrayList<QmfConsoleData>(_partials);
+            }
+        };
+
+        try
+        {
+            return sendRequest(createObjectsRequest(agent.getName(), query), pending, timeout*1000);
+        }
+        catch (JMSException jmse)
+        {
+            _log.info("JMSException {} caught in getObjectsAsync()", jmse.getMessage());
+            pending.getFuture().fail(new QmfException(jmse.getMessage()));
+            return pending.getFuture();
+        }
+    }
+
+    /**
+     * Perform an asynchronous query for QmfConsoleData objects using the default timeout.
+     *
+     * @param agent the Agent being queried.
+     * @param query the ObjectId or SchemaClassId being queried for.
+     * @return a QmfFuture that completes with a List of QMF Objects matching the query.
+     */
+    public QmfFuture<List<QmfConsoleData>> getObjectsAsync(final Agent agent, final QmfData query)
+    {
+        return getObjectsAsync(agent, query, -1);
+    }
+
+    /**
+     * Perform a query for QmfConsoleData objects, returning an ObjectIterator that yields the matching objects as
+     * each of the Agent's responses is received and decoded, rather than collecting them all into a List first.
+     * This allows very large query results to be processed in roughly constant memory, as the responses are received
+     * on a reply queue of the ObjectIterator's own with a small link capacity, so the broker holds back any responses
+     * that the application isn't yet ready for.
+     * <p>
+     * The ObjectIterator's hasNext() blocks whilst waiting for the Agent's next response and the iteration ends if
+     * the timeout expires, so as with getObjects() all data retrieved to date is returned. If the iteration is
+     * abandoned before it ends the ObjectIterator's close() method should be called.
+     *
+     * @param agent the Agent being queried.
+     * @param query the ObjectId or SchemaClassId being queried for.
+     * @param timeout the time to wait for each reply from the Agent, a value of -1 means use the default timeout.
+     * @return an ObjectIterator over the QMF Objects matching the query.
+     */
+    public ObjectIterator iterateObjects(final Agent agent, final QmfData query, int timeout) throws QmfException
+    {
+        timeout = (timeout < 1) ? _replyTimeout : timeout;
+        Session session = null;
+        try
+        {
+            // The consumer is created before the request is sent so that the reply queue exists for the responses.
+            session = _connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            Destination replyAddress = session.createQueue(_address + ".iterator." + UUID.randomUUID() +
+                                                           " ; {link: {capacity: " + ITERATOR_CAPACITY + "}}");
+            MessageConsumer consumer = session.createConsumer(replyAddress);
+
+            MapMessage request = createObjectsRequest(agent.getName(), query);
+            request.setJMSReplyTo(replyAddress);
+            synchronized(this)
+            {
+                _requester.send(request);
+            }
+            return new ObjectIterator(session, consumer, agent, timeout*1000);
+        }
+        catch (JMSException jmse)
+        {
+            _log.info("JMSException {} caught in iterateObjects()", jmse.getMessage());
+            if (session != null)
+            {
+                try
+                {
+                    session.close();
+                }
+                catch (JMSException e)
+                { // Ignore, we're already throwing the original exception.
+                }
+            }
+            throw new QmfException(jmse.getMessage());
+        }
+    }
+
+    /**
+     * Perform a query for QmfConsoleData objects using the default timeout, returning an ObjectIterator that yields
+     * the matching objects as each of the Agent's responses is received and decoded.
+     *
+     * @param agent the Agent being queried.
+     * @param query the ObjectId or SchemaClassId being queried for.
+     * @return an ObjectIterator over the QMF Objects matching the query.
+     */
+    public ObjectIterator iterateObjects(final Agent agent, final QmfData query) throws QmfException
+    {
+        return iterateObjects(agent, query, -1);
+    }
+
+    //                             methods implementing AsyncAgentProxy interface
     // ********************************************************************************************************
 
     /**
@@ -780,11 +1328,12 @@ public final class Console implements MessageListener, AgentProxy
      */
     public void destroy(final Agent agent)
     {
-        handleAgentExpiry();
+        expireAgent(agent);
     }
 
     /**
-     * Request that the Agent update the value of an object's contents.
+     * Request that the Agent update the value of an object's contents. The request is always sent to the Agent,
+     * even when query coalescing is enabled, as a refresh answered from the QueryCoalescer's cache isn't a refresh.
      * <p>
      * Intended to by called by the AgentProxy. Shouldn't generally be called directly by Console applications.
      *
@@ -796,7 +1345,7 @@ public final class Console implements MessageListener, AgentProxy
      */
     public QmfConsoleData refresh(final Agent agent, final ObjectId objectId, final String replyHandle, final int timeout)
     {
-        List<QmfConsoleData> objects = getObjects(agent, objectId, replyHandle, timeout);
+        List<QmfConsoleData> objects = queryObjects(agent, objectId, replyHandle, timeout);
         return (objects.size() == 0) ? null : objects.get(0);
     }
 
@@ -818,54 +1367,110 @@ public final class Console implements MessageListener, AgentProxy
         {
             throw new QmfException("Called invokeMethod() with inactive agent");
         }
-        String agentName = agent.getName();
         timeout = (timeout < 1) ? _replyTimeout : timeout;
         try
         {
-            Destination destination = (replyHandle == null) ? _replyAddress : _asyncReplyAddress;
-            MapMessage request = _syncSession.createMapMessage();
-            request.setJMSReplyTo(destination);
-            request.setJMSCorrelationID(replyHandle);
-            request.setStringProperty("x-amqp-0-10.app-id", "qmf2");
-            request.setStringProperty("method", "request");
-            request.setStringProperty("qmf.opcode", "_method_request");
-            request.setStringProperty("qpid.subject", agentName);
-
-            for (Map.Entry<String, Object> entry : content.entrySet())
-            {
-                request.setObject(entry.getKey(), entry.getValue());
+            MapMessage request = createMethodRequest(agent.getName(), content);
+            if (replyHandle == null)
+            { // If this is a synchronous request get the response
+                Message response = sendRequest(request, timeout*1000);
+                if (response == null)
+                {
+                    _log.info("No response received in invokeMethod()");
+                    throw new QmfException("No response received for Console.invokeMethod()");
+                }
+                MethodResult result = new MethodResult(AMQPMessage.getMap(response));
+                QmfException exception = result.getQmfException();
+                if (exception != null)
+                {
+                    throw exception;
+                }
+                return result;
             }
 
-            // Wrap request & response in synchronized block in case any other threads invoke a request
-            // it would be somewhat unfortunate if their response got interleaved with ours!!
+            // If this is an asynchronous request return without waiting for a response
+            request.setJMSReplyTo(_asyncReplyAddress);
+            request.setJMSCorrelationID(replyHandle);
             synchronized(this)
             {
                 _requester.send(request);
-                if (replyHandle == null)
-                { // If this is a synchronous request get the response
-                    Message response = _responder.receive(timeout*1000);
-                    if (response == null)
-                    {
-                        _log.info("No response received in invokeMethod()");
-                        throw new QmfException("No response received for Console.invokeMethod()");
-                    }
-                    MethodResult result = new MethodResult(AMQPMessage.getMap(response));
-                    QmfException exception = result.getQmfException();
-                    if (exception != null)
-                    {
-                        throw exception;
-                    }
-                    return result;
-                }
             }
-            // If this is an asynchronous request return without waiting for a response
             return null;
         }
         catch (JMSException jmse)
         {
-            _log.info("JMSException {} caught in invokeMethod()", jmse.getMessage());
-            throw new QmfException(jmse.getMessage());
+            _log.info("JMSException {} caught in invokeMethod()", jmse.getMessage());
+            throw new QmfException(jmse.getMessage());
+        }
+    }
+
+    /**
+     * Invoke the named method on the named Agent asynchronously, returning a QmfFuture that completes with the
+     * MethodResult. If the Agent returns an exception or fails to respond before the timeout expires the QmfFuture
+     * completes exceptionally with a QmfException.
+     * <p>
+     * Intended to by called by the AgentProxy. Shouldn't generally be called directly by Console applications.
+     *
+     * @param agent the Agent to invoke the method on.
+     * @param content an unordered set of key/value pairs comprising the method arguments.
+     * @param timeout the time to wait for a reply from the Agent, a value of -1 means use the default timeout
+     * @return a QmfFuture that completes with the MethodResult.
+     */
+    public QmfFuture<MethodResult> invokeMethodAsync(final Agent agent, final Map<String, Object> content,
+                                                     int timeout) throws QmfException
+    {
+        if (!agent.isActive())
+        {
+            throw new QmfException("Called invokeMethodAsync() with inactive agent");
+        }
+        timeout = (timeout < 1) ? _replyTimeout : timeout;
+        AsyncResponse<MethodResult> pending = new AsyncResponse<MethodResult>(_correlator, _listenerExecutor)
+        {
+            MethodResult onResponse(final Message response, final boolean lastResult)
+                throws JMSException, QmfException
+            {
+                MethodResult result = new MethodResult(AMQPMessage.getMap(response));
+                QmfException exception = result.getQmfException();
+                if (exception != null)
+                {
+                    throw exception;
+                }
+                return result;
+            }
+        };
+
+        try
+        {
+            return sendRequest(createMethodRequest(agent.getName(), content), pending, timeout*1000);
+        }
+        catch (JMSException jmse)
+        {
+            _log.info("JMSException {} caught in invokeMethodAsync()", jmse.getMessage());
+            throw new QmfException(jmse.getMessage());
+        }
+    }
+
+    /**
+     * Create a _method_request Message.
+     *
+     * @param agentName the name of the Agent to invoke the method on.
+     * @param content an unordered set of key/value pairs comprising the method arguments.
+     * @return the request Message.
+     */
+    private MapMessage createMethodRequest(final String agentName, final Map<String, Object> content)
+        throws JMSException
+    {
+        MapMessage request = createMapMessage();
+        request.setStringProperty("x-amqp-0-10.app-id", "qmf2");
+        request.setStringProperty("method", "request");
+        request.setStringProperty("qmf.opcode", "_method_request");
+        request.setStringProperty("qpid.subject", agentName);
+
+        for (Map.Entry<String, Object> entry : content.entrySet())
+        {
+            request.setObject(entry.getKey(), entry.getValue());
         }
+        return request;
     }
 
     /**
@@ -918,6 +1523,30 @@ public final class Console implements MessageListener, AgentProxy
         this(null, null, notifier, null);
     }
 
+    /**
+     * Return the name given to a Console when no name is supplied. This is in the format:
+     * <pre>"qmfc-&lt;hostname&gt;.&lt;pid&gt;"</pre> if we can, otherwise a name created using a randomUUID.
+     *
+     * @return the name given to a Console when no name is supplied.
+     */
+    static String getDefaultName()
+    {
+        // ManagementFactory.getRuntimeMXBean().getName()) returns the name representing the running virtual machine.
+        // The returned name string can be any arbitrary string and a Java virtual machine implementation can choose
+        // to embed platform-specific useful information in the returned name string.
+        // As it happens on Linux the format for this is PID@hostname
+        String vmName = ManagementFactory.getRuntimeMXBean().getName();
+        String[] split = vmName.split("@");
+        if (split.length == 2)
+        {
+            return "qmfc-" + split[1] + "." + split[0];
+        }
+        else
+        {
+            return "qmfc-" + UUID.randomUUID();
+        }
+    }
+
     /**
      * Main constructor, creates a Console, but does NOT start it, that requires us to do addConnection()
      *
@@ -950,20 +1579,7 @@ public final class Console implements MessageListener, AgentProxy
     {
         if (name == null)
         {
-            // ManagementFactory.getRuntimeMXBean().getName()) returns the name representing the running virtual machine.
-            // The returned name string can be any arbitrary string and a Java virtual machine implementation can choose
-            // to embed platform-specific useful information in the returned name string.
-            // As it happens on Linux the format for this is PID@hostname
-            String vmName = ManagementFactory.getRuntimeMXBean().getName();
-            String[] split = vmName.split("@");
-            if (split.length == 2)
-            {
-                name = "qmfc-" + split[1] + "." + split[0];
-            }
-            else
-            {
-                name = "qmfc-" + UUID.randomUUID();
-            }
+            name = getDefaultName();
         }
 
         _domain = (domain == null) ? "default" : domain;
@@ -1048,7 +1664,8 @@ public final class Console implements MessageListener, AgentProxy
      * " ; {link: {name:'test-console', x-declare: {arguments: {'qpid.policy_type': ring, 'qpid.max_size': 500000000}}}}"
      * </pre>
      * Note that the Console uses several queues so this will actually create a test-console queue plus a
-     * test-console-async queue and a test-console-event queue.
+     * test-console-async queue, a test-console-event queue, a test-console-data queue, a test-console-lifecycle queue
+     * and a test-console-heartbeat queue.
      * <p>
      * If a name parameter is not present temporary queues will be created, but the other options will still be applied.
      */
@@ -1069,6 +1686,9 @@ public final class Console implements MessageListener, AgentProxy
             String syncReplyAddressOptions = addressOptions;
             String asyncReplyAddressOptions = addressOptions;
             String eventAddressOptions = addressOptions;
+            String dataAddressOptions = addressOptions;
+            String lifecycleReplyAddressOptions = addressOptions;
+            String heartbeatAddressOptions = addressOptions;
 
             if (!addressOptions.equals(""))
             { // If there are address options supplied we need to check if a name parameter is present.
@@ -1080,6 +1700,10 @@ public final class Console implements MessageListener, AgentProxy
                     // Hopefully at this point nameValue is actually the value of the name parameter.
                     asyncReplyAddressOptions = asyncReplyAddressOptions.replace(nameValue, nameValue + "-async");
                     eventAddressOptions = eventAddressOptions.replace(nameValue, nameValue + "-event");
+                    dataAddressOptions = dataAddressOptions.replace(nameValue, nameValue + "-data");
+                    lifecycleReplyAddressOptions = lifecycleReplyAddressOptions.replace(nameValue,
+                                                                                        nameValue + "-lifecycle");
+                    heartbeatAddressOptions = heartbeatAddressOptions.replace(nameValue, nameValue + "-heartbeat");
                 }
             }
 
@@ -1099,15 +1723,36 @@ public final class Console implements MessageListener, AgentProxy
 
                 _asyncSession = _connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
 
-                // Set up MessageListener on the Event Address
-                Destination eventAddress = _asyncSession.createQueue(topicBase + "/agent.ind.#" + eventAddressOptions);
+                // Set up MessageListeners on the Event and Data Indication Addresses. These are bound separately
+                // rather than to "agent.ind.#" so that this Session doesn't also receive the Agent heartbeats.
+                Destination eventAddress = _asyncSession.createQueue(topicBase + "/agent.ind.event.#" +
+                                                                     eventAddressOptions);
                 _eventConsumer = _asyncSession.createConsumer(eventAddress);
                 _eventConsumer.setMessageListener(this);
 
+                Destination dataAddress = _asyncSession.createQueue(topicBase + "/agent.ind.data.#" +
+                                                                    dataAddressOptions);
+                _dataConsumer = _asyncSession.createConsumer(dataAddress);
+                _dataConsumer.setMessageListener(this);
+
                 // Create the asynchronous JMSReplyTo _replyAddress and MessageConsumer
                 _asyncReplyAddress = _asyncSession.createQueue(_address + ".async" + asyncReplyAddressOptions);
                 _asyncResponder = _asyncSession.createConsumer(_asyncReplyAddress);
                 _asyncResponder.setMessageListener(this);
+
+                // Agent heartbeats and _agent_locate_responses get a Session and queues of their own, so that they
+                // are delivered promptly however busy the Event queue and asynchronous Session are.
+                _lifecycleSession = _connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+
+                Destination heartbeatAddress = _lifecycleSession.createQueue(topicBase + "/agent.ind.heartbeat.#" +
+                                                                             heartbeatAddressOptions);
+                _heartbeatConsumer = _lifecycleSession.createConsumer(heartbeatAddress);
+                _heartbeatConsumer.setMessageListener(_lifecycleListener);
+
+                _lifecycleReplyAddress = _lifecycleSession.createQueue(_address + ".lifecycle" +
+                                                                       lifecycleReplyAddressOptions);
+                _lifecycleResponder = _lifecycleSession.createConsumer(_lifecycleReplyAddress);
+                _lifecycleResponder.setMessageListener(_lifecycleListener);
             }
 
             // I've extended the synchronized block to include creating the _requester and _responder. I don't believe
@@ -1122,6 +1767,41 @@ public final class Console implements MessageListener, AgentProxy
                 // Create the JMSReplyTo _replyAddress and MessageConsumer
                 _replyAddress = _syncSession.createQueue(_address + syncReplyAddressOptions);
                 _responder = _syncSession.createConsumer(_replyAddress);
+                _responder.setMessageListener(_correlator);
+
+                // Scheduler used for tidying up Subscriptions and for timing out asynchronous requests, which
+                // includes the schema discovery of the Agents that we're about to find.
+                if (!_sharedScheduler)
+                {
+                    _scheduler = createScheduler();
+                }
+
+                _listenerExecutor = Executors.newSingleThreadExecutor(new ThreadFactory()
+                {
+                    public Thread newThread(final Runnable r)
+                    {
+                        Thread thread = new Thread(r, "Console QmfFutureListener");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+
+                _expiryTask = _scheduler.scheduleWithFixedDelay(new Runnable()
+                {
+                    public void run()
+                    {
+                        // Catch RuntimeException, as if it escapes the ScheduledExecutorService silently stops
+                        // running the expiry task.
+                        try
+                        {
+                            handleExpiry();
+                        }
+                        catch (RuntimeException re)
+                        {
+                            _log.info("RuntimeException {} caught in handleExpiry()", re.getMessage());
+                        }
+                    }
+                }, 1000, 1000, TimeUnit.MILLISECONDS);
 
                 _connection.start();
 
@@ -1164,9 +1844,6 @@ public final class Console implements MessageListener, AgentProxy
                         throw new QmfException("Broker Agent not found");
                     }
                 }
-
-                // Timer used for tidying up Subscriptions.
-                _timer = new Timer(true);
             }
         }
         catch (JMSException jmse)
@@ -1193,8 +1870,21 @@ public final class Console implements MessageListener, AgentProxy
 
         try
         {
-            _timer.cancel();
+            if (_sharedScheduler)
+            { // Other Consoles are still using the scheduler so just cancel this Console's tasks and Subscriptions.
+                _expiryTask.cancel(false);
+                for (SubscriptionManager subscription : _subscriptionByHandle.values())
+                {
+                    subscription.cancel();
+                }
+            }
+            else
+            {
+                _scheduler.shutdownNow();
+            }
             _connection.close(); // Should we close() the connection here or just stop() it ???
+            _correlator.cancelAll(); // Unblock any threads still waiting for responses
+            _listenerExecutor.shutdown(); // Lets the listeners of the cancelled QmfFutures run first
         }
         catch (JMSException jmse)
         {
@@ -1203,6 +1893,96 @@ public final class Console implements MessageListener, AgentProxy
         _connection = null;
     }
 
+    /**
+     * Use a scheduler shared with other Consoles rather than each Console creating its own scheduler thread, used by
+     * MultiConsole. The scheduler is not shut down by removeConnection(). This must be called before addConnection().
+     *
+     * @param scheduler the shared ScheduledExecutorService, see createScheduler().
+     */
+    void setScheduler(final ScheduledExecutorService scheduler)
+    {
+        _scheduler = scheduler;
+        _sharedScheduler = true;
+    }
+
+    /**
+     * Create the ScheduledExecutorService used by a Console. This has a single daemon thread, as the Timer that it
+     * replaces did, and removes cancelled tasks straight away so that cancelled Subscriptions and request timeouts
+     * don't accumulate in its queue.
+     *
+     * @return the new ScheduledExecutorService.
+     */
+    static ScheduledExecutorService createScheduler()
+    {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+        {
+            public Thread newThread(final Runnable r)
+            {
+                Thread thread = new Thread(r, "Console Scheduler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
+    /**
+     * Deliver WorkItems to the QmfEventListener (or Notifier) using an Executor rather than on the Console's
+     * MessageListener thread, so that a slow QmfEventListener doesn't hold up the Console. WorkItems are delivered in
+     * order for each Agent and each Subscription, see ExecutorQmfEventListener, whose newDefaultExecutor() provides
+     * a suitable Executor. This must be called before addConnection().
+     *
+     * @param executor the Executor used to deliver WorkItems.
+     * @param maxPending the maximum number of WorkItems waiting for delivery for each Agent or Subscription, if it
+     *        is reached the Console waits for the QmfEventListener to catch up.
+     */
+    public void setEventExecutor(final Executor executor, final int maxPending)
+    {
+        _eventListener = new ExecutorQmfEventListener(_eventListener, executor, maxPending);
+    }
+
+    /**
+     * Enable the coalescing of identical object queries. Identical queries, that is getObjects() or
+     * getObjectsAsync() calls querying the same Agent with the same query, that are in flight at the same time share
+     * a single request to the Agent and its result. This is useful where several threads, such as the views of a
+     * dashboard, poll for the same objects as it saves the Agent encoding the same (possibly large) result many
+     * times. The timeout of the first of the identical queries applies to them all.
+     * <p>
+     * If cacheTTL is greater than zero the result of a query is also cached for that long after it arrives, so that
+     * identical queries are answered without a round trip to the Agent. Objects may therefore be up to cacheTTL
+     * milliseconds older than they would otherwise be, so it should be kept short.
+     * <p>
+     * Each caller gets a List and copies of the QmfConsoleData objects of its own, so callers may update them
+     * without affecting each other. Queries with a replyHandle are never coalesced.
+     *
+     * @param cacheTTL the time in milliseconds for which query results are cached, zero disables caching.
+     */
+    public void enableQueryCoalescing(final long cacheTTL)
+    {
+        _queryCoalescer = new QueryCoalescer(cacheTTL);
+    }
+
+    /**
+     * Disable the coalescing of identical object queries, which is the default.
+     */
+    public void disableQueryCoalescing()
+    {
+        _queryCoalescer = null;
+    }
+
+    /**
+     * Set the SchemaCache used to hold the schema retrieved from Agents, replacing the Console's default in memory
+     * SchemaCache. This allows schema to be shared between Consoles or stored persistently so that they needn't be
+     * retrieved again when the Console is restarted. This must be called before addConnection().
+     *
+     * @param schemaCache the SchemaCache to use.
+     */
+    public void setSchemaCache(final SchemaCache schemaCache)
+    {
+        _schemaCache = schemaCache;
+    }
+
     /**
      * Get the AMQP address this Console is listening to.
      *
@@ -1402,6 +2182,54 @@ public final class Console implements MessageListener, AgentProxy
         return _workQueue.getNextWorkitem(timeout);
     }
 
+    /**
+     * Obtains up to max pending work items without blocking. When the Console is busy this is considerably cheaper
+     * than calling getNextWorkitem() for each WorkItem.
+     *
+     * @param max the maximum number of WorkItems to return.
+     * @return the pending work items, the List is empty if none are available.
+     */
+    public List<WorkItem> getNextWorkitems(final int max)
+    {
+        return _workQueue.getNextWorkitems(max);
+    }
+
+    /**
+     * Obtains up to max pending work items, waiting for up to timeout seconds for the first to become available.
+     *
+     * @param max the maximum number of WorkItems to return.
+     * @param timeout the timeout in seconds. If timeout = 0 it returns immediately.
+     * @return the pending work items, the List is empty if none became available before the timeout expired.
+     */
+    public List<WorkItem> getNextWorkitems(final int max, final long timeout)
+    {
+        return _workQueue.getNextWorkitems(max, timeout);
+    }
+
+    /**
+     * Bound the Console's WorkQueue, which is unbounded by default, so that an application that falls behind
+     * doesn't cause the WorkQueue to grow without limit. Note that the WorkQueue is only used when the Console
+     * has been created with a Notifier, a QmfEventListener receives WorkItems directly.
+     *
+     * @param capacity the maximum number of WorkItems that may be queued.
+     * @param policy the policy applied when a WorkItem is added to a full WorkQueue.
+     */
+    public void setWorkQueueCapacity(final int capacity, final WorkQueue.OverflowPolicy policy)
+    {
+        _workQueue.setCapacity(capacity, policy);
+    }
+
+    /**
+     * Return the Console's WorkQueue, which provides statistics such as the maximum queue depth and the time that
+     * WorkItems have spent waiting to be retrieved.
+     *
+     * @return the Console's WorkQueue.
+     */
+    public WorkQueue getWorkQueue()
+    {
+        return _workQueue;
+    }
+
     /**
      * Releases a WorkItem instance obtained by getNextWorkItem(). Called when the application has finished
      * processing the WorkItem.
@@ -1527,59 +2355,117 @@ public final class Console implements MessageListener, AgentProxy
             return results;
         }
 
-        String agentName = agent.getName();
         results = new ArrayList<SchemaClassId>();
         try
         {
-            MapMessage request = _syncSession.createMapMessage();
-            request.setJMSReplyTo(_replyAddress);
-            request.setStringProperty("x-amqp-0-10.app-id", "qmf2");
-            request.setStringProperty("method", "request");
-            request.setStringProperty("qmf.opcode", "_query_request");
-            request.setStringProperty("qpid.subject", agentName);
+            Message response = sendRequest(createClassesRequest(agent.getName()), _replyTimeout*1000);
+            if (response == null)
+            {
+                _log.info("No response received in getClasses()");
+                return Collections.emptyList();
+            }
+            addClasses(response, results);
+        }
+        catch (JMSException jmse)
+        {
+            _log.info("JMSException {} caught in getClasses()", jmse.getMessage());
+        }
+        agent.setClasses(results);
+        return results;
+    }
+
+    /**
+     * Return a QmfFuture that completes with a list of SchemaClassIds for all available Schema for the specified
+     * Agent. This is the asynchronous equivalent of getClasses(), the QmfFuture completes immediately if there
+     * are cached results.
+     *
+     * @param agent the Agent being queried
+     * @return a QmfFuture that completes with a list of SchemaClassIds for all available Schema for the Agent.
+     */
+    public QmfFuture<List<SchemaClassId>> getClassesAsync(final Agent agent)
+    {
+        AsyncResponse<List<SchemaClassId>> pending =
+            new AsyncResponse<List<SchemaClassId>>(_correlator, _listenerExecutor)
+        {
+            private final List<SchemaClassId> _partials = new ArrayList<SchemaClassId>();
 
-            // Create a QMF Query for an "SCHEMA_ID" target
-            request.setObject("_what", "SCHEMA_ID");
-            // Wrap request & response in synchronized block in case any other threads invoke a request
-            // it would be somewhat unfortunate if their response got interleaved with ours!!
-            synchronized(this) 
+            List<SchemaClassId> onResponse(final Message response, final boolean lastResult) throws JMSException
             {
-                _requester.send(request);
-                Message response = _responder.receive(_replyTimeout*1000);
-                if (response == null)
+                addClasses(response, _partials);
+                if (lastResult)
                 {
-                    _log.info("No response received in getClasses()");
-                    return Collections.emptyList();
+                    agent.setClasses(_partials);
                 }
+                return _partials;
+            }
+        };
 
-                if (AMQPMessage.isAMQPList(response))
-                {
-                    List<Map> mapResults = AMQPMessage.getList(response);
-                    for (Map content : mapResults)
-                    {
+        List<SchemaClassId> results = agent.getClasses();
+        if (results.size() > 0)
+        {
+            pending.getFuture().complete(results);
+            return pending.getFuture();
+        }
+
+        try
+        {
+            return sendRequest(createClassesRequest(agent.getName()), pending, _replyTimeout*1000);
+        }
+        catch (JMSException jmse)
+        {
+            _log.info("JMSException {} caught in getClassesAsync()", jmse.getMessage());
+            pending.getFuture().fail(new QmfException(jmse.getMessage()));
+            return pending.getFuture();
+        }
+    }
+
+    /**
+     * Create a request for the SchemaClassIds of the named Agent.
+     *
+     * @param agentName the name of the Agent being queried.
+     * @return the request Message.
+     */
+    private MapMessage createClassesRequest(final String agentName) throws JMSException
+    {
+        MapMessage request = createMapMessage();
+        request.setStringProperty("x-amqp-0-10.app-id", "qmf2");
+        request.setStringProperty("method", "request");
+        request.setStringProperty("qmf.opcode", "_query_request");
+        request.setStringProperty("qpid.subject", agentName);
+
+        // Create a QMF Query for an "SCHEMA_ID" target
+        request.setObject("_what", "SCHEMA_ID");
+        return request;
+    }
+
+    /**
+     * Add the SchemaClassIds from a response to a request created by createClassesRequest() to a List.
+     *
+     * @param response the response Message.
+     * @param results the List the SchemaClassIds get added to.
+     */
+    private void addClasses(final Message response, final List<SchemaClassId> results) throws JMSException
+    {
+        if (AMQPMessage.isAMQPList(response))
+        {
+            List<Map> mapResults = AMQPMessage.getList(response);
+            for (Map content : mapResults)
+            {
 //new SchemaClassId(content).listValues();
-                        results.add(new SchemaClassId(content));
-                    }
-                }
-                else if (AMQPMessage.isAMQPMap(response))
-                {
-                    // Error responses are returned as MapMessages, though they are being ignored here.
-                    //System.out.println("Console.getClasses() no results for " + agentName);
-                    //QmfData exception = new QmfData(AMQPMessage.getMap(response));
-                    //System.out.println(agentName + " " + exception.getStringValue("error_text"));
-                }
-                else
-                {
-                    _log.info("getClasses() Received response message in incorrect format");
-                }
+                results.add(new SchemaClassId(content));
             }
         }
-        catch (JMSException jmse)
+        else if (AMQPMessage.isAMQPMap(response))
         {
-            _log.info("JMSException {} caught in getClasses()", jmse.getMessage());
+            // Error responses are returned as MapMessages, though they are being ignored here.
+            //System.out.println("Console.getClasses() no results for " + agentName);
+            //QmfData exception = new QmfData(AMQPMessage.getMap(response));
+            //System.out.println(agentName + " " + exception.getStringValue("error_text"));
+        }
+        else
+        {
+            _log.info("getClasses() Received response message in incorrect format");
         }
-        agent.setClasses(results);
-        return results;
     }
 
     /**
@@ -1604,85 +2490,162 @@ public final class Console implements MessageListener, AgentProxy
     }
 
     /**
-     * Return a list of all available class SchemaClass from a specified Agent.
-     * <p>
-     * This call will return cached information if it is available.  If not, it will send a query message
-     * to the remote agent and block waiting for a response. The timeout argument specifies the maximum time
-     * to wait for a response from the agent.
+     * Return a list of all available class SchemaClass from a specified Agent.
+     * <p>
+     * This call will return cached information if it is available.  If not, it will send a query message
+     * to the remote agent and block waiting for a response. The timeout argument specifies the maximum time
+     * to wait for a response from the agent.
+     *
+     * @param schemaClassId the SchemaClassId we wish to return schema information for.
+     * @param agent the Agent we want to retrieve the schema from
+     */
+    public List<SchemaClass> getSchema(final SchemaClassId schemaClassId, final Agent agent)
+    {
+        // First look to see if there are cached results and if there are return those.
+        List<SchemaClass> results = getCachedSchema(schemaClassId, agent);
+        if (results.size() > 0)
+        {
+            return results;
+        }
+
+//System.out.println("getSchema for agent " + agent.getName());
+        results = new ArrayList<SchemaClass>();
+        try
+        {
+            Message response = sendRequest(createSchemaRequest(agent.getName(), schemaClassId), _replyTimeout*1000);
+            if (response == null)
+            {
+                _log.info("No response received in getSchema()");
+                return Collections.emptyList();
+            }
+            addSchema(response, results);
+        }
+        catch (JMSException jmse)
+        {
+            _log.info("JMSException {} caught in getSchema()", jmse.getMessage());
+        }
+        agent.setSchema(schemaClassId, results);
+        return results;
+    }
+
+    /**
+     * Return a QmfFuture that completes with a list of SchemaClass from a specified Agent. This is the asynchronous
+     * equivalent of getSchema(), the QmfFuture completes immediately if there are cached results.
+     *
+     * @param schemaClassId the SchemaClassId we wish to return schema information for.
+     * @param agent the Agent we want to retrieve the schema from
+     * @return a QmfFuture that completes with a list of SchemaClass for the SchemaClassId.
+     */
+    public QmfFuture<List<SchemaClass>> getSchemaAsync(final SchemaClassId schemaClassId, final Agent agent)
+    {
+        AsyncResponse<List<SchemaClass>> pending = new AsyncResponse<List<SchemaClass>>(_correlator, _listenerExecutor)
+        {
+            private final List<SchemaClass> _partials = new ArrayList<SchemaClass>();
+
+            List<SchemaClass> onResponse(final Message response, final boolean lastResult) throws JMSException
+            {
+                addSchema(response, _partials);
+                if (lastResult)
+                {
+                    agent.setSchema(schemaClassId, _partials);
+                }
+                return _partials;
+            }
+        };
+
+        List<SchemaClass> results = getCachedSchema(schemaClassId, agent);
+        if (results.size() > 0)
+        {
+            pending.getFuture().complete(results);
+            return pending.getFuture();
+        }
+
+        try
+        {
+            return sendRequest(createSchemaRequest(agent.getName(), schemaClassId), pending, _replyTimeout*1000);
+        }
+        catch (JMSException jmse)
+        {
+            _log.info("JMSException {} caught in getSchemaAsync()", jmse.getMessage());
+            pending.getFuture().fail(new QmfException(jmse.getMessage()));
+            return pending.getFuture();
+        }
+    }
+
+    /**
+     * Look up a schema in the Agent's cache and then in the SchemaCache, which holds the schema retrieved from any
+     * Agent. If it's found in the SchemaCache it's added to the Agent's cache.
+     *
+     * @param schemaClassId the SchemaClassId we wish to return schema information for.
+     * @param agent the Agent we want to retrieve the schema from
+     * @return the cached schema, or an empty List if the schema isn't cached.
+     */
+    private List<SchemaClass> getCachedSchema(final SchemaClassId schemaClassId, final Agent agent)
+    {
+        List<SchemaClass> results = agent.getSchema(schemaClassId);
+        if (results.size() == 0)
+        {
+            SchemaClass schema = _schemaCache.get(schemaClassId);
+            if (schema != null)
+            {
+                results = Collections.singletonList(schema);
+                agent.setSchema(schemaClassId, results);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Create a request for the schema of a given SchemaClassId from the named Agent.
+     *
+     * @param agentName the name of the Agent being queried.
+     * @param schemaClassId the SchemaClassId we wish to retrieve schema information for.
+     * @return the request Message.
+     */
+    private MapMessage createSchemaRequest(final String agentName, final SchemaClassId schemaClassId)
+        throws JMSException
+    {
+        MapMessage request = createMapMessage();
+        request.setStringProperty("x-amqp-0-10.app-id", "qmf2");
+        request.setStringProperty("method", "request");
+        request.setStringProperty("qmf.opcode", "_query_request");
+        request.setStringProperty("qpid.subject", agentName);
+
+        // Create a QMF Query for an "SCHEMA" target
+        request.setObject("_what", "SCHEMA");
+        request.setObject("_schema_id", schemaClassId.mapEncode());
+        return request;
+    }
+
+    /**
+     * Add the SchemaClasses from a response to a request created by createSchemaRequest() to a List.
      *
-     * @param schemaClassId the SchemaClassId we wish to return schema information for.
-     * @param agent the Agent we want to retrieve the schema from
+     * @param response the response Message.
+     * @param results the List the SchemaClasses get added to.
      */
-    public List<SchemaClass> getSchema(final SchemaClassId schemaClassId, final Agent agent)
+    private void addSchema(final Message response, final List<SchemaClass> results) throws JMSException
     {
-        // First look to see if there are cached results and if there are return those.
-        List<SchemaClass> results = agent.getSchema(schemaClassId);
-        if (results.size() > 0)
-        {
-            return results;
-        }
-
-        String agentName = agent.getName();
-//System.out.println("getSchema for agent " + agentName);
-        results = new ArrayList<SchemaClass>();
-        try
+        if (AMQPMessage.isAMQPList(response))
         {
-            MapMessage request = _syncSession.createMapMessage();
-            request.setJMSReplyTo(_replyAddress);
-            request.setStringProperty("x-amqp-0-10.app-id", "qmf2");
-            request.setStringProperty("method", "request");
-            request.setStringProperty("qmf.opcode", "_query_request");
-            request.setStringProperty("qpid.subject", agentName);
-
-            // Create a QMF Query for an "SCHEMA" target
-            request.setObject("_what", "SCHEMA");
-            request.setObject("_schema_id", schemaClassId.mapEncode());
-
-            // Wrap request & response in synchronized block in case any other threads invoke a request
-            // it would be somewhat unfortunate if their response got interleaved with ours!!
-            synchronized(this)
+            List<Map> mapResults = AMQPMessage.getList(response);
+            for (Map content : mapResults)
             {
-                _requester.send(request);
-                Message response = _responder.receive(_replyTimeout*1000);
-                if (response == null)
-                {
-                    _log.info("No response received in getSchema()");
-                    return Collections.emptyList();
-                }
-
-                if (AMQPMessage.isAMQPList(response))
-                {
-                    List<Map> mapResults = AMQPMessage.getList(response);
-                    for (Map content : mapResults)
-                    {
-                        SchemaClass schema = new SchemaObjectClass(content);
-                        if (schema.getClassId().getType().equals("_event"))
-                        {
-                            schema = new SchemaEventClass(content);
-                        }
+                SchemaClass schema = _schemaCache.put(content);
 //schema.listValues();
-                        results.add(schema);
-                    }
-                }
-                else if (AMQPMessage.isAMQPMap(response))
-                {
-                    // Error responses are returned as MapMessages, though they are being ignored here.
-                    //System.out.println("Console.getSchema() no results for " + agentName);
-                    //QmfData exception = new QmfData(AMQPMessage.getMap(response));
-                    //System.out.println(agentName + " " + exception.getStringValue("error_text"));
-                }
-                else
-                {
-                    _log.info("getSchema() Received response message in incorrect format");
-                }
+                results.add(schema);
             }
         }
-        catch (JMSException jmse)
+        else if (AMQPMessage.isAMQPMap(response))
         {
-            _log.info("JMSException {} caught in getSchema()", jmse.getMessage());
+            // Error responses are returned as MapMessages, though they are being ignored here.
+            //System.out.println("Console.getSchema() no results for " + agentName);
+            //QmfData exception = new QmfData(AMQPMessage.getMap(response));
+            //System.out.println(agentName + " " + exception.getStringValue("error_text"));
+        }
+        else
+        {
+            _log.info("getSchema() Received response message in incorrect format");
         }
-        agent.setSchema(schemaClassId, results);
-        return results;
     }
 
     /**
@@ -1847,6 +2810,9 @@ public final class Console implements MessageListener, AgentProxy
      * Perform a blocking query for QmfConsoleData objects. Returns a list (possibly empty) of matching objects
      * This method will block until all known Agents reply, or the timeout expires. Once the timeout expires, all
      * data retrieved to date is returned.
+     * <p>
+     * The query is sent to all of the Agents at once and their responses are collected as they arrive, so the
+     * timeout is an overall deadline and the call takes as long as the slowest Agent rather than the sum of them all.
      * 
      * @param query the SchemaClassId or ObjectId we're looking up objects for.
      * @param timeout overrides the default replyTimeout.
@@ -1855,14 +2821,212 @@ public final class Console implements MessageListener, AgentProxy
      */
     public List<QmfConsoleData> getObjects(final QmfData query, final int timeout, final List<Agent> agentList)
     {
-        List<QmfConsoleData> results = new ArrayList<QmfConsoleData>();
+        if (agentList.size() == 1)
+        { // No point scattering a query to a single Agent
+            return getObjects(agentList.get(0), query, null, timeout);
+        }
+
+        // Scatter the query to all of the Agents. Each request times out after the same interval, completing its
+        // QmfFuture with any data retrieved to date, so the gather below is bounded by that single deadline.
+        List<QmfFuture<List<QmfConsoleData>>> futures = new ArrayList<QmfFuture<List<QmfConsoleData>>>(agentList.size());
         for (Agent agent : agentList)
         {
-            results.addAll(getObjects(agent, query, null, timeout));
+            futures.add(getObjectsAsync(agent, query, timeout));
+        }
+
+        List<QmfConsoleData> results = new ArrayList<QmfConsoleData>();
+        for (QmfFuture<List<QmfConsoleData>> future : futures)
+        {
+            try
+            {
+                results.addAll(future.get());
+            }
+            catch (InterruptedException ie)
+            {
+                Thread.currentThread().interrupt();
+                _log.info("InterruptedException caught in getObjects(), returning results retrieved to date");
+                break;
+            }
+            catch (ExecutionException ee)
+            {
+                _log.info("ExecutionException {} caught in getObjects()", ee.getMessage());
+            }
         }
         return results;
     }
 
+    /**
+     * Request that the Agents update the contents of a number of objects using the default timeout.
+     *
+     * @param objects the objects to refresh.
+     */
+    public void refresh(final Collection<QmfConsoleData> objects) throws QmfException
+    {
+        refresh(objects, -1);
+    }
+
+    /**
+     * Request that the Agents update the contents of a number of objects, as if refresh() had been called on each.
+     * <p>
+     * Rather than sending a query for each object the objects are grouped by Agent and by class and each group is
+     * refreshed by a single query, so refreshing hundreds of queues or connections takes a round trip per Agent
+     * rather than hundreds of them. A group containing a single object is queried by ObjectId and other groups by a
+     * predicate matching their ObjectIds, unless the group is a large fraction of the objects of its class, in which
+     * case it's cheaper to query for the class, see createRefreshQuery().
+     * <p>
+     * The queries are all sent at once, so the timeout is an overall deadline. Each object is updated in place and,
+     * as with QmfConsoleData.refresh(), an object that its Agent no longer returns is marked as deleted. Objects
+     * whose query fails are left unchanged, as are objects that hadn't been returned when their query timed out.
+     * The queries are always sent to the Agents, even when query coalescing is enabled.
+     *
+     * @param objects the objects to refresh.
+     * @param timeout the time to wait for replies from the Agents, a value of -1 means use the default timeout.
+     */
+    public void refresh(final Collection<QmfConsoleData> objects, final int timeout) throws QmfException
+    {
+        // Group the objects by Agent and then by class.
+        Map<Agent, Map<String, List<QmfConsoleData>>> groups = new HashMap<Agent, Map<String, List<QmfConsoleData>>>();
+        for (QmfConsoleData object : objects)
+        {
+            Agent agent = object.getAgent();
+            if (agent == null)
+            {
+                throw new QmfException("Console.refresh() called with an object that has a null Agent");
+            }
+            if (!agent.isActive())
+            {
+                throw new QmfException("Console.refresh() called with an object from a deactivated Agent");
+            }
+
+            Map<String, List<QmfConsoleData>> classes = groups.get(agent);
+            if (classes == null)
+            {
+                classes = new HashMap<String, List<QmfConsoleData>>();
+                groups.put(agent, classes);
+            }
+
+            SchemaClassId classId = object.getSchemaClassId();
+            String key = classId.getPackageName() + ":" + classId.getClassName();
+            List<QmfConsoleData> group = classes.get(key);
+            if (group == null)
+            {
+                group = new ArrayList<QmfConsoleData>();
+                classes.put(key, group);
+            }
+            group.add(object);
+        }
+
+        // Send all of the queries before waiting for any of the responses.
+        int replyTimeout = (timeout < 1) ? _replyTimeout : timeout;
+        List<List<QmfConsoleData>> batches = new ArrayList<List<QmfConsoleData>>();
+        List<String> classNames = new ArrayList<String>();
+        List<QmfData> queries = new ArrayList<QmfData>();
+        List<QmfFuture<List<QmfConsoleData>>> futures = new ArrayList<QmfFuture<List<QmfConsoleData>>>();
+        for (Map.Entry<Agent, Map<String, List<QmfConsoleData>>> entry : groups.entrySet())
+        {
+            for (Map.Entry<String, List<QmfConsoleData>> group : entry.getValue().entrySet())
+            {
+                List<QmfConsoleData> batch = group.getValue();
+                QmfData query = createRefreshQuery(entry.getKey(), group.getKey(), batch);
+                batches.add(batch);
+                classNames.add(group.getKey());
+                queries.add(query);
+                futures.add(sendObjectsRequest(entry.getKey(), query, replyTimeout));
+            }
+        }
+
+        for (int i = 0; i < futures.size(); i++)
+        {
+            QmfFuture<List<QmfConsoleData>> future = futures.get(i);
+            List<QmfConsoleData> results = null;
+            try
+            {
+                results = future.get();
+            }
+            catch (InterruptedException ie)
+            {
+                Thread.currentThread().interrupt();
+                _log.info("InterruptedException caught in refresh(), objects retrieved to date have been refreshed");
+                return;
+            }
+            catch (ExecutionException ee)
+            {
+                _log.info("ExecutionException {} caught in refresh()", ee.getMessage());
+                continue;
+            }
+
+            Map<ObjectId, QmfConsoleData> refreshed = new HashMap<ObjectId, QmfConsoleData>(results.size());
+            for (QmfConsoleData result : results)
+            {
+                refreshed.put(result.getObjectId(), result);
+            }
+
+            // If the query timed out we can't tell whether a missing object has been deleted, so only the objects
+            // that were returned are updated.
+            boolean complete = !future.isPartial();
+            List<QmfConsoleData> batch = batches.get(i);
+            if (complete && (queries.get(i) instanceof SchemaClassId || results.size() > batch.size()))
+            { // All of the objects of the class were returned, either by a class query or by an Agent that ignored
+              // the predicate, so remember how many there are for the next refresh.
+                batch.get(0).getAgent().setObjectCount(classNames.get(i), results.size());
+            }
+            for (QmfConsoleData object : batch)
+            {
+                QmfConsoleData newContents = refreshed.get(object.getObjectId());
+                if (newContents != null || complete)
+                {
+                    object.update(newContents);
+                }
+            }
+        }
+    }
+
+    /**
+     * Create the query used by refresh() for a batch of objects of the same class from the same Agent.
+     * <p>
+     * A single object is queried for by ObjectId and other batches by a predicate matching the ObjectIds of the
+     * batch, so the Agent only returns the objects being refreshed. The predicate query also names the class, so
+     * Agents that don't evaluate predicates, such as the broker ManagementAgent, return the objects of that class
+     * rather than all of their objects. A batch is queried for by class instead if it's too large for a predicate
+     * or if it's at least half of the objects of the class, as last seen by the Console, as the Agent then does
+     * less work returning the whole class than evaluating the predicate.
+     *
+     * @param agent the Agent that the objects belong to.
+     * @param className the class of the objects in the form "packageName:className".
+     * @param batch the objects being refreshed.
+     * @return the ObjectId, SchemaClassId or QmfQuery to query for.
+     */
+    private QmfData createRefreshQuery(final Agent agent, final String className, final List<QmfConsoleData> batch)
+        throws QmfException
+    {
+        QmfConsoleData first = batch.get(0);
+        if (batch.size() == 1)
+        {
+            return first.getObjectId();
+        }
+
+        SchemaClassId classId = new SchemaClassId(first.getSchemaClassId().getPackageName(),
+                                                  first.getSchemaClassId().getClassName());
+        int objectCount = agent.getObjectCount(className);
+        if (batch.size() > MAX_REFRESH_PREDICATE_SIZE || (objectCount >= 0 && batch.size()*2 >= objectCount))
+        {
+            return classId;
+        }
+
+        List<Object> predicate = new ArrayList<Object>(batch.size() + 1);
+        predicate.add("or");
+        for (QmfConsoleData object : batch)
+        {
+            predicate.add(Arrays.asList("eq", "_object_id", Arrays.asList("quote", object.getObjectId().toString())));
+        }
+
+        Map<String, Object> query = new HashMap<String, Object>();
+        query.put("_what", "OBJECT");
+        query.put("_schema_id", classId.mapEncode());
+        query.put("_where", predicate);
+        return new QmfQuery(query);
+    }
+
     /**
      * Creates a subscription to the agent using the given Query.
      * <p>
@@ -1906,17 +3070,24 @@ public final class Console implements MessageListener, AgentProxy
      * @param consoleHandle an application-provided handle that will accompany each subscription update sent
      *        from the Agent.
      * @param options a String representation of a Map containing the options in the form
-     *        <pre>"{lifetime:&lt;value&gt;, publishInterval:&lt;value&gt;, replyHandle:&lt;value&gt;, timeout:&lt;value&gt;}"</pre>
+     *        <pre>"{lifetime:&lt;value&gt;, publishInterval:&lt;value&gt;, replyHandle:&lt;value&gt;, timeout:&lt;value&gt;,
+     *          delta:&lt;value&gt;, autoRenew:&lt;value&gt;}"</pre>
      *        they are optional and may appear in any order.
      * <pre>
      *        <b>lifetime</b> the requested time interval in seconds for which this subscription should remain in effect.
      *        <b>publishInterval</b> the requested time interval in seconds on which the Agent should publish updates
      *        <b>replyHandle</b> the correlation handle used to tie asynchronous method requests with responses.
      *        <b>timeout</b> the time to wait for a reply from the Agent.
+     *        <b>delta</b> if true ask the Agent to only publish the properties of an object that have changed since
+     *        it was last published. The Console merges these with the objects it has already received so the
+     *        SubscribeIndication still contains complete objects. Agents that don't support delta updates ignore this.
+     *        <b>autoRenew</b> if true the Console renews the Subscription before its lifetime expires, so the client
+     *        doesn't need to call refreshSubscription() itself. The Subscription remains in effect until it is
+     *        cancelled, the Agent goes away or the Agent rejects a renewal.
      * </pre>
      */
-    public synchronized SubscribeParams createSubscription(final Agent agent, final QmfQuery query,
-                                                final String consoleHandle, final String options) throws QmfException
+    public SubscribeParams createSubscription(final Agent agent, final QmfQuery query,
+                                              final String consoleHandle, final String options) throws QmfException
     {
         if (consoleHandle == null)
         {
@@ -1941,6 +3112,8 @@ public final class Console implements MessageListener, AgentProxy
         long publishInterval = 10000;
         long timeout = _replyTimeout;
         String replyHandle = null;
+        boolean delta = false;
+        boolean autoRenew = false;
 
         if (options != null)
         { // We wrap the Map in a QmfData object to avoid potential class cast issues with the parsed options
@@ -1950,6 +3123,16 @@ public final class Console implements MessageListener, AgentProxy
                 lifetime = optMap.getLongValue("lifetime");
             }
 
+            if (optMap.hasValue("delta"))
+            {
+                delta = optMap.getBooleanValue("delta");
+            }
+
+            if (optMap.hasValue("autoRenew"))
+            {
+                autoRenew = optMap.getBooleanValue("autoRenew");
+            }
+
             if (optMap.hasValue("publishInterval"))
             { // Multiply publishInterval by 1000 because the QMF2 protocol spec says interval is
               // "The request time (in milliseconds) between periodic updates of data in this subscription"
@@ -1969,7 +3152,7 @@ public final class Console implements MessageListener, AgentProxy
 
         try
         {
-            MapMessage request = _syncSession.createMapMessage();
+            MapMessage request = createMapMessage();
             request.setJMSReplyTo(_asyncReplyAddress);  // Deliberately forcing all replies to the _asyncReplyAddress
             request.setJMSCorrelationID(consoleHandle); // Deliberately using consoleHandle not replyHandle here
             request.setStringProperty("x-amqp-0-10.app-id", "qmf2");
@@ -1980,38 +3163,48 @@ public final class Console implements MessageListener, AgentProxy
             request.setObject("_query", query.mapEncode());
             request.setObject("_interval", publishInterval);
             request.setObject("_duration", lifetime);
+            if (delta)
+            {
+                request.setObject("_delta", Boolean.TRUE);
+            }
+
+            SubscriptionManager subscription = new SubscriptionManager(agent, query, consoleHandle, replyHandle,
+                                                                       publishInterval, lifetime, delta, autoRenew);
 
-            SubscriptionManager subscription =
-                new SubscriptionManager(agent, query, consoleHandle, replyHandle, publishInterval, lifetime);
-            _subscriptionByHandle.put(consoleHandle, subscription);
-            _timer.schedule(subscription, 0, publishInterval);
+            // Only the consoleHandle test and set needs to be atomic, we don't want to hold the Console lock whilst
+            // waiting for the Agent to respond as that would block every other request for the whole round trip.
+            synchronized(this)
+            {
+                if (_subscriptionByHandle.get(consoleHandle) != null)
+                {
+                    throw new QmfException("Called createSubscription() with a consoleHandle that is already in use");
+                }
+                _subscriptionByHandle.put(consoleHandle, subscription);
+            }
+            subscription.start(_subscriptionExpiry);
 
             if (_subscriptionEmulationEnabled && agentName.equals(_brokerAgentName))
             { // If the Agent is the broker Agent we emulate the Subscription on the Console
                 String subscriptionId = UUID.randomUUID().toString();
                 _subscriptionById.put(subscriptionId, subscription);
                 subscription.setSubscriptionId(subscriptionId);
+                scheduleRenewal(subscription);
                 final SubscribeParams params = new SubscribeParams(consoleHandle, subscription.mapEncode());
                 if (replyHandle == null)
                 {
                     return params;
                 }
                 else
-                {
-                    final String handle = replyHandle;
-                    Thread thread = new Thread()
-                    {
-                        public void run()
-                        {
-                            _eventListener.onEvent(new SubscribeResponseWorkItem(new Handle(handle), params));
-                        }
-                    };
-                    thread.start();
+                { // Deliver the response after returning, as would happen if the Agent had responded.
+                    deliverSubscribeResponse(replyHandle, params);
                 }
                 return null;
             }
 
-            _requester.send(request);
+            synchronized(this)
+            {
+                _requester.send(request);
+            }
             if (replyHandle == null)
             { // If this is an synchronous request get the response
                 subscription.await(timeout*1000);
@@ -2111,10 +3304,7 @@ public final class Console implements MessageListener, AgentProxy
 
         try
         {
-            Destination destination = (replyHandle == null) ? _replyAddress : _asyncReplyAddress;
-            MapMessage request = _syncSession.createMapMessage();
-            request.setJMSReplyTo(destination);
-            request.setJMSCorrelationID(replyHandle);
+            MapMessage request = createMapMessage();
             request.setStringProperty("x-amqp-0-10.app-id", "qmf2");
             request.setStringProperty("method", "request");
             request.setStringProperty("qmf.opcode", "_subscribe_refresh_indication");
@@ -2126,58 +3316,51 @@ public final class Console implements MessageListener, AgentProxy
                 request.setObject("_duration", lifetime);
             }
 
-            // Wrap request & response in synchronized block in case any other threads invoke a request
-            // it would be somewhat unfortunate if their response got interleaved with ours!!
-            synchronized(this)
-            {
-                if (_subscriptionEmulationEnabled && agentName.equals(_brokerAgentName))
-                { // If the Agent is the broker Agent we emulate the Subscription on the Console
-                    subscription.refresh();
-                    final SubscribeParams params = new SubscribeParams(consoleHandle, subscription.mapEncode());
-                    if (replyHandle == null)
-                    {
-                        return params;
-                    }
-                    else
-                    {
-                        final String handle = replyHandle;
-                        Thread thread = new Thread()
-                        {
-                            public void run()
-                            {
-                                _eventListener.onEvent(new SubscribeResponseWorkItem(new Handle(handle), params));
-                            }
-                        };
-                        thread.start();
-                    }
-                    return null;
+            if (_subscriptionEmulationEnabled && agentName.equals(_brokerAgentName))
+            { // If the Agent is the broker Agent we emulate the Subscription on the Console
+                subscription.refresh();
+                SubscribeParams params = new SubscribeParams(consoleHandle, subscription.mapEncode());
+                if (replyHandle == null)
+                {
+                    return params;
+                }
+                else
+                { // Deliver the response after returning, as would happen if the Agent had responded.
+                    deliverSubscribeResponse(replyHandle, params);
                 }
+                return null;
+            }
 
-                _requester.send(request);
-                if (replyHandle == null)
-                { // If this is an synchronous request get the response
-                    Message response = _responder.receive(timeout*1000);
-                    if (response == null)
-                    {
-                        subscription.cancel();
-                        _log.info("No response received in refreshSubscription()");
-                        throw new QmfException("No response received for Console.refreshSubscription()");
-                    }
-                    SubscribeParams result = new SubscribeParams(consoleHandle, AMQPMessage.getMap(response));
-                    subscriptionId = result.getSubscriptionId();
-                    if (subscriptionId == null)
-                    {
-                        subscription.cancel();
-                    }
-                    else
-                    {
-                        subscription.setDuration(result.getLifetime());
-                        subscription.refresh();
-                    }
-                    return result;
+            if (replyHandle == null)
+            { // If this is an synchronous request get the response
+                Message response = sendRequest(request, timeout*1000);
+                if (response == null)
+                {
+                    subscription.cancel();
+                    _log.info("No response received in refreshSubscription()");
+                    throw new QmfException("No response received for Console.refreshSubscription()");
                 }
+                SubscribeParams result = new SubscribeParams(consoleHandle, AMQPMessage.getMap(response));
+                subscriptionId = result.getSubscriptionId();
+                if (subscriptionId == null)
+                {
+                    subscription.cancel();
+                }
+                else
+                {
+                    subscription.setDuration(result.getLifetime());
+                    subscription.refresh();
+                }
+                return result;
             }
+
             // If this is an asynchronous request return without waiting for a response
+            request.setJMSReplyTo(_asyncReplyAddress);
+            request.setJMSCorrelationID(replyHandle);
+            synchronized(this)
+            {
+                _requester.send(request);
+            }
             return null;
         }
         catch (JMSException jmse)
@@ -2187,6 +3370,114 @@ public final class Console implements MessageListener, AgentProxy
         }
     } // end of refreshSubscription()
 
+    /**
+     * Deliver a SUBSCRIBE_RESPONSE WorkItem for an emulated Subscription on the scheduler, so that an asynchronous
+     * createSubscription() or refreshSubscription() has returned before the response is delivered.
+     *
+     * @param replyHandle the replyHandle passed to createSubscription() or refreshSubscription().
+     * @param params the SubscribeParams to deliver.
+     */
+    private void deliverSubscribeResponse(final String replyHandle, final SubscribeParams params)
+    {
+        _scheduler.execute(new Runnable()
+        {
+            public void run()
+            {
+                _eventListener.onEvent(new SubscribeResponseWorkItem(new Handle(replyHandle), params));
+            }
+        });
+    }
+
+    /**
+     * If the Subscription was created with the autoRenew option schedule its next renewal.
+     *
+     * @param subscription the Subscription to renew.
+     */
+    private void scheduleRenewal(final SubscriptionManager subscription)
+    {
+        subscription.scheduleRenewal(_scheduler, new Runnable()
+        {
+            public void run()
+            {
+                renewSubscription(subscription);
+            }
+        });
+    }
+
+    /**
+     * Renew a Subscription created with the autoRenew option. This is run on the scheduler and doesn't block
+     * waiting for the Agent, the response is processed by the response MessageListener as it arrives. If the Agent
+     * doesn't respond in time the renewal is simply tried again, the Subscription expires as normal if it isn't
+     * renewed within its lifetime. If the Agent rejects the renewal the Subscription is cancelled.
+     *
+     * @param subscription the Subscription to renew.
+     */
+    private void renewSubscription(final SubscriptionManager subscription)
+    {
+        final String subscriptionId = subscription.getSubscriptionId();
+        Agent agent = subscription.getAgent();
+        if (subscription.isCancelled() || !agent.isActive())
+        {
+            return;
+        }
+
+        String agentName = agent.getName();
+        if (_subscriptionEmulationEnabled && agentName.equals(_brokerAgentName))
+        { // If the Agent is the broker Agent we emulate the Subscription on the Console
+            subscription.refresh();
+            scheduleRenewal(subscription);
+            return;
+        }
+
+        AsyncResponse<SubscribeParams> pending = new AsyncResponse<SubscribeParams>(_correlator, _listenerExecutor)
+        {
+            SubscribeParams onResponse(final Message response, final boolean lastResult) throws JMSException
+            {
+                return new SubscribeParams(subscription.getConsoleHandle(), AMQPMessage.getMap(response));
+            }
+        };
+
+        pending.getFuture().addListener(new QmfFutureListener<SubscribeParams>()
+        {
+            public void onResult(final SubscribeParams params)
+            {
+                if (params.getSubscriptionId() == null)
+                {
+                    _log.info("Agent rejected renewal of Subscription {}", subscriptionId);
+                    subscription.cancel();
+                }
+                else
+                {
+                    subscription.setDuration(params.getLifetime());
+                    subscription.refresh();
+                    scheduleRenewal(subscription);
+                }
+            }
+
+            public void onException(final QmfException qmfe)
+            {
+                _log.info("QmfException {} caught renewing Subscription {}", qmfe.getMessage(), subscriptionId);
+                scheduleRenewal(subscription);
+            }
+        });
+
+        try
+        {
+            MapMessage request = createMapMessage();
+            request.setStringProperty("x-amqp-0-10.app-id", "qmf2");
+            request.setStringProperty("method", "request");
+            request.setStringProperty("qmf.opcode", "_subscribe_refresh_indication");
+            request.setStringProperty("qpid.subject", agentName);
+            request.setObject("_subscription_id", subscriptionId);
+            sendRequest(request, pending, _replyTimeout*1000);
+        }
+        catch (JMSException jmse)
+        {
+            _log.info("JMSException {} caught in renewSubscription()", jmse.getMessage());
+            pending.getFuture().fail(new QmfException(jmse.getMessage()));
+        }
+    }
+
     /**
      * Terminates the given subscription.
      *
@@ -2213,7 +3504,7 @@ public final class Console implements MessageListener, AgentProxy
 
         try
         {
-            MapMessage request = _syncSession.createMapMessage();
+            MapMessage request = createMapMessage();
             request.setStringProperty("x-amqp-0-10.app-id", "qmf2");
             request.setStringProperty("method", "request");
             request.setStringProperty("qmf.opcode", "_subscribe_cancel_indication");
@@ -0,0 +1,579 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.console;
+
+// JMS Imports
+import javax.jms.Connection;
+
+// Simple Logging Facade 4 Java
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Misc Imports
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.common.ExecutorQmfEventListener;
+import org.apache.qpid.qmf2.common.Notifier;
+import org.apache.qpid.qmf2.common.NotifierWrapper;
+import org.apache.qpid.qmf2.common.NullQmfEventListener;
+import org.apache.qpid.qmf2.common.QmfCallback;
+import org.apache.qpid.qmf2.common.QmfData;
+import org.apache.qpid.qmf2.common.QmfEventListener;
+import org.apache.qpid.qmf2.common.QmfException;
+import org.apache.qpid.qmf2.common.QmfQuery;
+import org.apache.qpid.qmf2.common.SchemaClassId;
+import org.apache.qpid.qmf2.common.WorkItem;
+import org.apache.qpid.qmf2.common.WorkQueue;
+
+/**
+ * A MultiConsole monitors several brokers at once, aggregating a connection to each of them behind a single
+ * WorkQueue or QmfEventListener.
+ * <p>
+ * Each connection is given a name when it is added and is managed by a Console of its own, so the behaviour of each
+ * connection is exactly that of a Console, but the Consoles all pass their WorkItems to the same QmfEventListener
+ * (or Notifier and WorkQueue) and share a single scheduler thread. As the broker Agents of different brokers can't be
+ * told apart by the "broker" synonym the Agents are namespaced by connection name, an Agent may be looked up using a
+ * qualified name of the form {@literal "<connection name>/<agent name>"} and getConnectionName() returns the name
+ * of the connection that an Agent, for example one from a WorkItem, was discovered on.
+ * <p>
+ * The getObjects() methods scatter the query to every Agent on every connection at once and gather the results
+ * within a single timeout, so querying many brokers takes as long as the slowest broker rather than the sum of them.
+ * <p>
+ * The Console for a given connection is available from getConsole(), which may be used for anything not provided
+ * directly by MultiConsole such as subscriptions or method invocation. Agents returned by a MultiConsole are bound
+ * to the Console of their connection, so calling Agent methods such as invokeMethod() does the right thing anyway.
+ * <p>
+ * The Consoles also share a SchemaCache, so each schema is only retrieved from the first broker that has it.
+ * <p>
+ * The disableEvents(), enableAgentDiscovery(), disableAgentDiscovery() and setSchemaCache() settings apply to
+ * connections added after they are called, in the same way as they must be called before a Console's
+ * addConnection(). setEventExecutor() must be called before any connections are added.
+ */
+public final class MultiConsole
+{
+    private static final Logger _log = LoggerFactory.getLogger(MultiConsole.class);
+
+    /**
+     * The separator between the connection name and the Agent name in a qualified Agent name.
+     */
+    public static final String SEPARATOR = "/";
+
+    private final String _name;
+    private final String _domain;
+    private final String _options;
+
+    /**
+     * The QmfEventListener that every Console passes its WorkItems to.
+     */
+    private QmfEventListener _eventListener;
+
+    /**
+     * Used to implement the Notifier API, shared by every Console.
+     */
+    private final WorkQueue _workQueue = new WorkQueue();
+
+    /**
+     * The scheduler shared by every Console, created by the first addConnection().
+     */
+    private ScheduledExecutorService _scheduler = null;
+
+    /**
+     * The Consoles keyed by connection name.
+     */
+    private final Map<String, Console> _consoles = new ConcurrentHashMap<String, Console>();
+
+    /**
+     * The connection names keyed by Console, used to look up the connection that an Agent belongs to.
+     */
+    private final Map<AgentProxy, String> _connectionNames = new ConcurrentHashMap<AgentProxy, String>();
+
+    /**
+     * The SchemaCache shared by every Console, so a schema is only retrieved once across all of the brokers.
+     */
+    private SchemaCache _schemaCache = new SchemaCache();
+
+    private boolean _disableEvents = false;
+    private boolean _discoverAgents = true;
+    private QmfQuery _agentQuery = null;
+
+    /**
+     * Constructor that provides defaults for name and domain and takes a Notifier/Listener.
+     *
+     * @param notifier this may be either a QMF2 API Notifier object OR a QMFEventListener, see Console.
+     */
+    public MultiConsole(final QmfCallback notifier) throws QmfException
+    {
+        this(null, null, notifier, null);
+    }
+
+    /**
+     * Main constructor, creates a MultiConsole with no connections.
+     *
+     * @param name the base name of the Consoles, each Console is named {@literal "<name>-<connection name>"}. If no
+     *        name is supplied the Console default name is used as the base name.
+     * @param domain the QMF "domain", see Console.
+     * @param notifier this may be either a QMF2 API Notifier object OR a QMFEventListener, see Console.
+     * @param options a String representation of a Map containing the Console options, see Console.
+     */
+    public MultiConsole(final String name, final String domain,
+                        final QmfCallback notifier, final String options) throws QmfException
+    {
+        _name = (name == null) ? Console.getDefaultName() : name;
+        _domain = domain;
+        _options = options;
+
+        if (notifier == null)
+        {
+            _eventListener = new NullQmfEventListener();
+        }
+        else if (notifier instanceof Notifier)
+        {
+            _eventListener = new NotifierWrapper((Notifier)notifier, _workQueue);
+        }
+        else if (notifier instanceof QmfEventListener)
+        {
+            _eventListener = (QmfEventListener)notifier;
+        }
+        else
+        {
+            throw new QmfException("QmfCallback listener must be either a Notifier or QmfEventListener");
+        }
+    }
+
+    /**
+     * Release the resources of every connection.
+     */
+    public void destroy()
+    {
+        for (String connectionName : getConnectionNames())
+        {
+            try
+            {
+                removeConnection(connectionName);
+            }
+            catch (QmfException qmfe)
+            {
+                _log.info("QmfException {} caught in destroy()", qmfe.getMessage());
+            }
+        }
+
+        synchronized(this)
+        {
+            if (_scheduler != null)
+            {
+                _scheduler.shutdownNow();
+                _scheduler = null;
+            }
+        }
+    }
+
+    /**
+     * Add a connection to a broker.
+     *
+     * @param connectionName the name used to identify the connection, which must not contain {@literal "/"}.
+     * @param conn a javax.jms.Connection
+     * @return the Console created for the connection.
+     */
+    public Console addConnection(final String connectionName, final Connection conn) throws QmfException
+    {
+        return addConnection(connectionName, conn, "");
+    }
+
+    /**
+     * Add a connection to a broker.
+     *
+     * @param connectionName the name used to identify the connection, which must not contain {@literal "/"}.
+     * @param conn a javax.jms.Connection
+     * @param addressOptions options String giving finer grained control of the receiver queues, see Console.
+     * @return the Console created for the connection.
+     */
+    public Console addConnection(final String connectionName, final Connection conn, final String addressOptions)
+        throws QmfException
+    {
+        if (connectionName == null || connectionName.contains(SEPARATOR))
+        {
+            throw new QmfException("Invalid connection name " + connectionName);
+        }
+
+        Console console = new Console(_name + "-" + connectionName, _domain, _eventListener, _options);
+        synchronized(this)
+        {
+            if (_consoles.containsKey(connectionName))
+            {
+                throw new QmfException("Connection name " + connectionName + " is already in use");
+            }
+
+            if (_disableEvents)
+            {
+                console.disableEvents();
+            }
+
+            if (!_discoverAgents)
+            {
+                console.disableAgentDiscovery();
+            }
+            else if (_agentQuery != null)
+            {
+                console.enableAgentDiscovery(_agentQuery);
+            }
+
+            if (_scheduler == null)
+            {
+                _scheduler = Console.createScheduler();
+            }
+            console.setScheduler(_scheduler);
+            console.setSchemaCache(_schemaCache);
+
+            _consoles.put(connectionName, console);
+            _connectionNames.put(console, connectionName);
+        }
+
+        try
+        {
+            console.addConnection(conn, addressOptions);
+        }
+        catch (QmfException qmfe)
+        {
+            _consoles.remove(connectionName);
+            _connectionNames.remove(console);
+            throw qmfe;
+        }
+        return console;
+    }
+
+    /**
+     * Remove a connection, releasing the resources of its Console.
+     *
+     * @param connectionName the name of the connection to remove.
+     */
+    public void removeConnection(final String connectionName) throws QmfException
+    {
+        Console console = _consoles.remove(connectionName);
+        if (console == null)
+        {
+            throw new QmfException("Attempt to delete unknown connection " + connectionName);
+        }
+        _connectionNames.remove(console);
+        console.destroy();
+    }
+
+    /**
+     * Return the names of the connections.
+     * @return the names of the connections.
+     */
+    public List<String> getConnectionNames()
+    {
+        return new ArrayList<String>(_consoles.keySet());
+    }
+
+    /**
+     * Return the Console managing the named connection.
+     *
+     * @param connectionName the name of the connection.
+     * @return the Console managing the named connection or null if there's no such connection.
+     */
+    public Console getConsole(final String connectionName)
+    {
+        return _consoles.get(connectionName);
+    }
+
+    /**
+     * Return the name of the connection that an Agent was discovered on.
+     *
+     * @param agent the Agent.
+     * @return the name of the connection that the Agent was discovered on or null if the Agent doesn't belong to
+     *         one of this MultiConsole's connections.
+     */
+    public String getConnectionName(final Agent agent)
+    {
+        AgentProxy proxy = agent.getProxy();
+        return (proxy == null) ? null : _connectionNames.get(proxy);
+    }
+
+    /**
+     * Return the qualified name of an Agent, in the form {@literal "<connection name>/<agent name>"}.
+     *
+     * @param agent the Agent.
+     * @return the qualified name of the Agent.
+     */
+    public String getQualifiedName(final Agent agent)
+    {
+        return getConnectionName(agent) + SEPARATOR + agent.getName();
+    }
+
+    /**
+     * Returns a list of all known Agents on all of the connections.
+     * <p>
+     * Note that this call is synchronous and non-blocking. It only returns locally cached data and will
+     * not send any messages to the remote agent.
+     *
+     * @return a list of available Agents
+     */
+    public List<Agent> getAgents()
+    {
+        List<Agent> results = new ArrayList<Agent>();
+        for (Console console : _consoles.values())
+        {
+            results.addAll(console.getAgents());
+        }
+        return results;
+    }
+
+    /**
+     * Return the named Agent, if known.
+     *
+     * @param qualifiedName the name of the Agent in the form {@literal "<connection name>/<agent name>"}. The
+     *        agent name is matched in the same way as Console.getAgent(), so for example "broker1/broker" returns
+     *        the broker Agent of the "broker1" connection.
+     * @return the found Agent instance or null if an Agent of the given name could not be found
+     */
+    public Agent getAgent(final String qualifiedName)
+    {
+        if (qualifiedName == null)
+        {
+            return null;
+        }
+
+        int index = qualifiedName.indexOf(SEPARATOR);
+        if (index < 0)
+        {
+            return null;
+        }
+
+        Console console = _consoles.get(qualifiedName.substring(0, index));
+        return (console == null) ? null : console.getAgent(qualifiedName.substring(index + 1));
+    }
+
+    /**
+     * Deliver WorkItems to the QmfEventListener (or Notifier) using an Executor rather than on the Consoles'
+     * MessageListener threads, so that a slow QmfEventListener doesn't hold up the connections. WorkItems are
+     * delivered in order for each Agent and each Subscription, see ExecutorQmfEventListener, whose
+     * newDefaultExecutor() provides a suitable Executor. This must be called before any connections are added.
+     *
+     * @param executor the Executor used to deliver WorkItems.
+     * @param maxPending the maximum number of WorkItems waiting for delivery for each Agent or Subscription, if it
+     *        is reached the MultiConsole waits for the QmfEventListener to catch up.
+     */
+    public void setEventExecutor(final Executor executor, final int maxPending)
+    {
+        _eventListener = new ExecutorQmfEventListener(_eventListener, executor, maxPending);
+    }
+
+    /**
+     * Set the SchemaCache shared by the Consoles of connections added after this is called, replacing the default
+     * in memory SchemaCache, for example with a persistent SchemaCache.
+     *
+     * @param schemaCache the SchemaCache to use.
+     */
+    public void setSchemaCache(final SchemaCache schemaCache)
+    {
+        _schemaCache = schemaCache;
+    }
+
+    /**
+     * Called to disable asynchronous behaviour on connections added after this is called, see Console.
+     */
+    public void disableEvents()
+    {
+        _disableEvents = true;
+    }
+
+    /**
+     * Called to enable the asynchronous Agent Discovery process on connections added after this is called,
+     * see Console.
+     */
+    public void enableAgentDiscovery()
+    {
+        _discoverAgents = true;
+        _agentQuery = null;
+    }
+
+    /**
+     * Called to enable the asynchronous Agent Discovery process on connections added after this is called,
+     * see Console.
+     *
+     * @param query the query used to filter agent notifications.
+     */
+    public void enableAgentDiscovery(final QmfQuery query)
+    {
+        _discoverAgents = true;
+        _agentQuery = query;
+    }
+
+    /**
+     * Called to disable the asynchronous Agent Discovery process on connections added after this is called,
+     * see Console.
+     */
+    public void disableAgentDiscovery()
+    {
+        _discoverAgents = false;
+        _agentQuery = null;
+    }
+
+    /**
+     * Return the count of pending WorkItems that can be retrieved.
+     * @return the count of pending WorkItems that can be retrieved.
+     */
+    public int getWorkitemCount()
+    {
+        return _workQueue.size();
+    }
+
+    /**
+     * Obtains the next pending work item from any of the connections - blocking version, see Console.
+     * @return the next pending work item, or null if none available.
+     */
+    public WorkItem getNextWorkitem()
+    {
+        return _workQueue.getNextWorkitem();
+    }
+
+    /**
+     * Obtains the next pending work item from any of the connections - balking version, see Console.
+     *
+     * @param timeout the timeout in seconds. If timeout = 0 it returns immediately with either a WorkItem or null
+     * @return the next pending work item, or null if none available.
+     */
+    public WorkItem getNextWorkitem(final long timeout)
+    {
+        return _workQueue.getNextWorkitem(timeout);
+    }
+
+    /**
+     * Obtains up to max pending work items without blocking. When the MultiConsole is busy this is considerably cheaper
+     * than calling getNextWorkitem() for each WorkItem.
+     *
+     * @param max the maximum number of WorkItems to return.
+     * @return the pending work items, the List is empty if none are available.
+     */
+    public List<WorkItem> getNextWorkitems(final int max)
+    {
+        return _workQueue.getNextWorkitems(max);
+    }
+
+    /**
+     * Obtains up to max pending work items, waiting for up to timeout seconds for the first to become available.
+     *
+     * @param max the maximum number of WorkItems to return.
+     * @param timeout the timeout in seconds. If timeout = 0 it returns immediately.
+     * @return the pending work items, the List is empty if none became available before the timeout expired.
+     */
+    public List<WorkItem> getNextWorkitems(final int max, final long timeout)
+    {
+        return _workQueue.getNextWorkitems(max, timeout);
+    }
+
+    /**
+     * Bound the MultiConsole's WorkQueue, which is unbounded by default, so that an application that falls behind
+     * doesn't cause the WorkQueue to grow without limit. Note that the WorkQueue is only used when the MultiConsole
+     * has been created with a Notifier, a QmfEventListener receives WorkItems directly.
+     *
+     * @param capacity the maximum number of WorkItems that may be queued.
+     * @param policy the policy applied when a WorkItem is added to a full WorkQueue.
+     */
+    public void setWorkQueueCapacity(final int capacity, final WorkQueue.OverflowPolicy policy)
+    {
+        _workQueue.setCapacity(capacity, policy);
+    }
+
+    /**
+     * Return the MultiConsole's WorkQueue, which provides statistics such as the maximum queue depth and the time that
+     * WorkItems have spent waiting to be retrieved.
+     *
+     * @return the MultiConsole's WorkQueue.
+     */
+    public WorkQueue getWorkQueue()
+    {
+        return _workQueue;
+    }
+
+    /**
+     * Perform a blocking query for QmfConsoleData objects across every Agent on every connection.
+     * 
+     * @param className the schema class name we're looking up objects for.
+     * @return a List of QMF Objects describing that class.
+     */
+    public List<QmfConsoleData> getObjects(final String className)
+    {
+        return getObjects(new SchemaClassId(className));
+    }
+
+    /**
+     * Perform a blocking query for QmfConsoleData objects across every Agent on every connection using the
+     * default timeout.
+     * 
+     * @param query the SchemaClassId or ObjectId we're looking up objects for.
+     * @return a List of QMF Objects describing that class.
+     */
+    public List<QmfConsoleData> getObjects(final QmfData query)
+    {
+        return getObjects(query, -1);
+    }
+
+    /**
+     * Perform a blocking query for QmfConsoleData objects across every Agent on every connection. The query is
+     * sent to all of the Agents at once and this method blocks until they have all replied or the timeout expires.
+     * Once the timeout expires, all data retrieved to date is returned. The connection that each object came from
+     * may be found by passing its getAgent() to getConnectionName().
+     * 
+     * @param query the SchemaClassId or ObjectId we're looking up objects for.
+     * @param timeout overrides the default replyTimeout, a value of -1 means use the default timeout.
+     * @return a List of QMF Objects describing that class.
+     */
+    public List<QmfConsoleData> getObjects(final QmfData query, final int timeout)
+    {
+        List<QmfFuture<List<QmfConsoleData>>> futures = new ArrayList<QmfFuture<List<QmfConsoleData>>>();
+        for (Console console : _consoles.values())
+        {
+            for (Agent agent : console.getAgents())
+            {
+                futures.add(console.getObjectsAsync(agent, query, timeout));
+            }
+        }
+
+        List<QmfConsoleData> results = new ArrayList<QmfConsoleData>();
+        for (QmfFuture<List<QmfConsoleData>> future : futures)
+        {
+            try
+            {
+                results.addAll(future.get());
+            }
+            catch (InterruptedException ie)
+            {
+                Thread.currentThread().interrupt();
+                _log.info("InterruptedException caught in getObjects(), returning results retrieved to date");
+                break;
+            }
+            catch (ExecutionException ee)
+            {
+                _log.info("ExecutionException {} caught in getObjects()", ee.getMessage());
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.console;
+
+// JMS Imports
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+
+// Simple Logging Facade 4 Java
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Misc Imports
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.common.AMQPListReader;
+import org.apache.qpid.qmf2.common.AMQPMessage;
+
+/**
+ * An Iterator over the results of a query for QmfConsoleData objects, as returned by Console.iterateObjects().
+ * <p>
+ * Rather than waiting for all of an Agent's responses and collecting the results into a List, as getObjects() does,
+ * the ObjectIterator receives each response Message only when the objects from the previous one have been consumed
+ * and decodes the objects one at a time. The first results can therefore be processed as soon as the Agent's first
+ * (partial) response arrives.
+ * <p>
+ * Each ObjectIterator has its own Session and reply queue, whose link capacity limits the number of response
+ * Messages the client will accept ahead of the application. Responses beyond that stay on the broker until the
+ * application catches up, so large query results can be processed in roughly constant memory however slowly the
+ * results are consumed. As each response is bounded by the Agent's maximum response size, the memory used is
+ * roughly the link capacity times that size.
+ * <p>
+ * hasNext() blocks whilst waiting for the next response Message. If the timeout expires before a response arrives
+ * the iteration ends, so as with getObjects() the results retrieved to date are returned. The Session is closed
+ * when the iteration ends, if the iteration is abandoned before then close() should be called.
+ * <p>
+ * An ObjectIterator isn't thread safe and should only be used by a single thread.
+ */
+public final class ObjectIterator implements Iterator<QmfConsoleData>, Closeable
+{
+    private static final Logger _log = LoggerFactory.getLogger(ObjectIterator.class);
+
+    private final Session _session;
+    private final MessageConsumer _consumer;
+    private final Agent _agent;
+    private final long _timeout;
+    private AMQPListReader _reader = null;
+    private QmfConsoleData _next = null;
+    private boolean _lastResult = false;
+    private boolean _closed = false;
+
+    /**
+     * Construct an ObjectIterator for a query request that has already been sent.
+     *
+     * @param session the Session dedicated to receiving the responses to the query.
+     * @param consumer the MessageConsumer for the query's reply queue.
+     * @param agent the Agent being queried.
+     * @param timeout the time in milliseconds to wait for each response from the Agent.
+     */
+    ObjectIterator(final Session session, final MessageConsumer consumer, final Agent agent, final long timeout)
+    {
+        _session = session;
+        _consumer = consumer;
+        _agent = agent;
+        _timeout = timeout;
+    }
+
+    /**
+     * Return true if there are more results, blocking if necessary until the next response arrives from the Agent.
+     * @return true if there are more results.
+     */
+    public boolean hasNext()
+    {
+        try
+        {
+            while (_next == null && !_closed)
+            {
+                if (_reader != null && _reader.hasNext())
+                {
+                    Map content = _reader.next();
+                    _next = new QmfConsoleData(content, _agent);
+                }
+                else if (_lastResult)
+                {
+                    close();
+                }
+                else
+                {
+                    receive();
+                }
+            }
+        }
+        catch (JMSException jmse)
+        {
+            _log.info("JMSException {} caught in ObjectIterator.hasNext()", jmse.getMessage());
+            close();
+        }
+        return _next != null;
+    }
+
+    /**
+     * Receive the next response Message from the Agent.
+     */
+    private void receive() throws JMSException
+    {
+        _reader = null;
+        Message response = _consumer.receive(_timeout);
+        if (response == null)
+        {
+            _log.info("No response received in ObjectIterator");
+            close();
+            return;
+        }
+
+        _lastResult = !response.propertyExists("partial");
+        if (AMQPMessage.isAMQPList(response))
+        {
+            _reader = new AMQPListReader(response);
+        }
+        else if (!AMQPMessage.isAMQPMap(response))
+        { // Error responses are returned as MapMessages, though they are being ignored here as in getObjects().
+            _log.info("ObjectIterator received response message in incorrect format");
+        }
+    }
+
+    /**
+     * Return the next result.
+     * @return the next result.
+     */
+    public QmfConsoleData next()
+    {
+        if (!hasNext())
+        {
+            throw new NoSuchElementException();
+        }
+        QmfConsoleData next = _next;
+        _next = null;
+        return next;
+    }
+
+    /**
+     * Not supported.
+     */
+    public void remove()
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * End the iteration, closing its Session so that any further responses are discarded.
+     */
+    public void close()
+    {
+        if (!_closed)
+        {
+            _closed = true;
+            _reader = null;
+            try
+            {
+                _session.close();
+            }
+            catch (JMSException jmse)
+            {
+                _log.info("JMSException {} caught in ObjectIterator.close()", jmse.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,628 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.console;
+
+// Simple Logging Facade 4 Java
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Misc Imports
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.common.ObjectId;
+import org.apache.qpid.qmf2.common.QmfEventListener;
+import org.apache.qpid.qmf2.common.QmfException;
+import org.apache.qpid.qmf2.common.QmfQuery;
+import org.apache.qpid.qmf2.common.QmfQueryTarget;
+import org.apache.qpid.qmf2.common.SchemaClassId;
+import org.apache.qpid.qmf2.common.WorkItem;
+
+/**
+ * An ObjectMirror is a live local copy of the QmfConsoleData objects of one or more classes, kept up to date by
+ * Subscriptions rather than by repeatedly calling Console.getObjects().
+ * <p>
+ * Each mirrored class is subscribed to once, with delta updates and automatic renewal, and seeded with a single
+ * getObjects() query. After that the mirror is maintained from the SubscribeIndications; objects marked as deleted
+ * are removed and when an Agent restarts its objects are dropped and the class is resubscribed and reseeded.
+ * Lookups by ObjectId, by className and by property value are then simply local memory lookups.
+ * <p>
+ * The ObjectMirror needs to see the Console's WorkItems, so the application's QmfEventListener should pass every
+ * WorkItem it receives to the mirror's onEvent() (WorkItems that don't concern the mirror are ignored), e.g.
+ * <pre>
+ * public void onEvent(final WorkItem wi)
+ * {
+ *     _mirror.onEvent(wi);
+ *     ...
+ * }
+ * </pre>
+ * Alternatively the ObjectMirror may be used directly as the Console's QmfEventListener. Applications that use
+ * the Console's WorkQueue rather than a QmfEventListener should pass each WorkItem returned by getNextWorkitem().
+ * <p>
+ * Like the ObjectIndex used by the Agent the mirror can maintain optional property indexes, created by
+ * addPropertyIndex(), which make find() a hash lookup rather than a scan of the class. Unlike the Agent's
+ * index these are updated when the property value changes, so they may be used for any property.
+ * <p>
+ * Lookups are lock free. Updates are synchronized so that the indexes stay consistent. The QmfConsoleData objects
+ * returned are shared with the mirror so they should be treated as read only, however they are replaced rather than
+ * modified when an update arrives so it's safe to keep using an object that has since been updated.
+ */
+public final class ObjectMirror implements QmfEventListener
+{
+    private static final Logger _log = LoggerFactory.getLogger(ObjectMirror.class);
+
+    /**
+     * The options used for the mirror's Subscriptions.
+     */
+    private static final String SUBSCRIPTION_OPTIONS = "autoRenew:true, delta:true";
+
+    private final Console _console;
+
+    /**
+     * The consoleHandles of the mirror's Subscriptions are this prefix followed by a count, so they can't collide
+     * with the application's own Subscriptions or with those of other mirrors.
+     */
+    private final String _handlePrefix = "mirror-" + UUID.randomUUID().toString() + "-";
+    private final AtomicInteger _handleCount = new AtomicInteger();
+
+    /**
+     * The mirrored classes keyed by the consoleHandle of their Subscription.
+     */
+    private final ConcurrentMap<String, MirroredClass> _classes = new ConcurrentHashMap<String, MirroredClass>();
+
+    /**
+     * The primary index.
+     */
+    private final Map<ObjectId, QmfConsoleData> _objects = new ConcurrentHashMap<ObjectId, QmfConsoleData>(100);
+
+    /**
+     * The class index, keyed by className.
+     */
+    private final Map<String, ConcurrentMap<ObjectId, QmfConsoleData>> _classIndex =
+        new ConcurrentHashMap<String, ConcurrentMap<ObjectId, QmfConsoleData>>();
+
+    /**
+     * The property indexes, keyed by property name.
+     */
+    private final Map<String, PropertyIndex> _propertyIndexes = new ConcurrentHashMap<String, PropertyIndex>();
+
+    /**
+     * The state of a mirrored class.
+     */
+    private static final class MirroredClass
+    {
+        private final SchemaClassId _classId;
+        private volatile String _consoleHandle;
+        private volatile Agent _agent;
+        private volatile String _subscriptionId;
+
+        MirroredClass(final SchemaClassId classId, final String consoleHandle, final Agent agent)
+        {
+            _classId = classId;
+            _consoleHandle = consoleHandle;
+            _agent = agent;
+        }
+    }
+
+    /**
+     * An index of the mirrored objects by the String value of a named property.
+     */
+    private static final class PropertyIndex
+    {
+        private final String _name;
+        private final Map<String, ConcurrentMap<ObjectId, QmfConsoleData>> _index =
+            new ConcurrentHashMap<String, ConcurrentMap<ObjectId, QmfConsoleData>>();
+
+        /**
+         * The value each object was indexed under, so it can be removed after the property has changed.
+         */
+        private final Map<ObjectId, String> _keys = new ConcurrentHashMap<ObjectId, String>();
+
+        PropertyIndex(final String name)
+        {
+            _name = name;
+        }
+
+        void add(final ObjectId objectId, final QmfConsoleData object)
+        {
+            if (object.hasValue(_name))
+            {
+                String key = object.getStringValue(_name);
+                _keys.put(objectId, key);
+                bucket(_index, key).put(objectId, object);
+            }
+        }
+
+        void remove(final ObjectId objectId, final QmfConsoleData object)
+        {
+            String key = _keys.remove(objectId);
+            if (key != null)
+            {
+                ObjectMirror.remove(_index, key, objectId, object);
+            }
+        }
+
+        Collection<QmfConsoleData> find(final String value)
+        {
+            Map<ObjectId, QmfConsoleData> bucket = _index.get(value);
+            return (bucket == null) ? Collections.<QmfConsoleData>emptyList() : bucket.values();
+        }
+    }
+
+    /**
+     * Return the bucket for a given key of a secondary index, creating it if necessary.
+     */
+    private static ConcurrentMap<ObjectId, QmfConsoleData> bucket(
+        final Map<String, ConcurrentMap<ObjectId, QmfConsoleData>> index, final String key)
+    {
+        ConcurrentMap<ObjectId, QmfConsoleData> bucket = index.get(key);
+        if (bucket == null)
+        {
+            bucket = new ConcurrentHashMap<ObjectId, QmfConsoleData>();
+            index.put(key, bucket);
+        }
+        return bucket;
+    }
+
+    /**
+     * Remove an object from the bucket for a given key of a secondary index, removing the bucket if it's now empty.
+     */
+    private static void remove(final Map<String, ConcurrentMap<ObjectId, QmfConsoleData>> index, final String key,
+                               final ObjectId objectId, final QmfConsoleData object)
+    {
+        ConcurrentMap<ObjectId, QmfConsoleData> bucket = index.get(key);
+        if (bucket != null)
+        {
+            bucket.remove(objectId, object);
+            if (bucket.isEmpty())
+            {
+                index.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Construct an ObjectMirror that uses the given Console.
+     * @param console the Console used to create the mirror's Subscriptions and queries.
+     */
+    public ObjectMirror(final Console console)
+    {
+        _console = console;
+    }
+
+    /**
+     * Return a new consoleHandle for one of the mirror's Subscriptions.
+     * @return a new consoleHandle.
+     */
+    private String nextHandle()
+    {
+        return _handlePrefix + _handleCount.incrementAndGet();
+    }
+
+    /**
+     * Mirror the objects of the named class managed by the given Agent. The packageName is wildcarded.
+     *
+     * @param agent the Agent managing the objects.
+     * @param className the className of the objects to mirror.
+     */
+    public void mirror(final Agent agent, final String className) throws QmfException
+    {
+        mirror(agent, null, className);
+    }
+
+    /**
+     * Mirror the objects of the given class managed by the given Agent.
+     * <p>
+     * This method blocks until the Subscription has been created and the mirror has been seeded with the current
+     * objects of the class.
+     *
+     * @param agent the Agent managing the objects.
+     * @param packageName the packageName of the objects to mirror.
+     * @param className the className of the objects to mirror.
+     */
+    public void mirror(final Agent agent, final String packageName, final String className) throws QmfException
+    {
+        if (agent == null)
+        {
+            throw new QmfException("Called mirror() with null agent");
+        }
+
+        SchemaClassId classId = new SchemaClassId(packageName, className);
+        String consoleHandle = nextHandle();
+        MirroredClass mirrored = new MirroredClass(classId, consoleHandle, agent);
+
+        // Record the class before subscribing so that indications arriving before we've seeded aren't ignored.
+        _classes.put(consoleHandle, mirrored);
+        try
+        {
+            SubscribeParams params = _console.createSubscription(agent, new QmfQuery(QmfQueryTarget.OBJECT, classId),
+                                                                 consoleHandle, "{" + SUBSCRIPTION_OPTIONS + "}");
+            mirrored._subscriptionId = params.getSubscriptionId();
+        }
+        catch (QmfException qmfe)
+        {
+            _classes.remove(consoleHandle);
+            throw qmfe;
+        }
+
+        for (QmfConsoleData object : _console.getObjects(classId, Collections.singletonList(agent)))
+        {
+            update(object);
+        }
+    }
+
+    /**
+     * Create an index on the named property, indexing any objects that have already been mirrored.
+     * @param name the name of the property to index.
+     */
+    public synchronized void addPropertyIndex(final String name)
+    {
+        if (!_propertyIndexes.containsKey(name))
+        {
+            PropertyIndex index = new PropertyIndex(name);
+            for (Map.Entry<ObjectId, QmfConsoleData> entry : _objects.entrySet())
+            {
+                index.add(entry.getKey(), entry.getValue());
+            }
+            _propertyIndexes.put(name, index);
+        }
+    }
+
+    /**
+     * Return the mirrored object with the given ObjectId.
+     * @param objectId the ObjectId of the object to look up.
+     * @return the QmfConsoleData with the given ObjectId, or null if there isn't one.
+     */
+    public QmfConsoleData get(final ObjectId objectId)
+    {
+        return _objects.get(objectId);
+    }
+
+    /**
+     * Return all of the mirrored objects.
+     * @return a List of all of the mirrored objects.
+     */
+    public List<QmfConsoleData> getObjects()
+    {
+        return new ArrayList<QmfConsoleData>(_objects.values());
+    }
+
+    /**
+     * Return the mirrored objects with the given className.
+     * @param className the className of the objects to return.
+     * @return a List of the mirrored objects with the given className.
+     */
+    public List<QmfConsoleData> getObjects(final String className)
+    {
+        Map<ObjectId, QmfConsoleData> bucket = _classIndex.get(className);
+        return (bucket == null) ? new ArrayList<QmfConsoleData>(0) : new ArrayList<QmfConsoleData>(bucket.values());
+    }
+
+    /**
+     * Return the mirrored objects with the given className whose named property has the given value. The property
+     * is compared as a String. If the property has been indexed by addPropertyIndex() this is a hash lookup,
+     * otherwise the objects of the class are scanned.
+     *
+     * @param className the className of the objects to return.
+     * @param name the name of the property to compare.
+     * @param value the value of the property.
+     * @return a List of the matching objects.
+     */
+    public List<QmfConsoleData> find(final String className, final String name, final Object value)
+    {
+        List<QmfConsoleData> results = new ArrayList<QmfConsoleData>();
+        String key = value.toString();
+        PropertyIndex index = _propertyIndexes.get(name);
+        if (index == null)
+        {
+            Map<ObjectId, QmfConsoleData> bucket = _classIndex.get(className);
+            if (bucket != null)
+            {
+                for (QmfConsoleData object : bucket.values())
+                {
+                    if (object.hasValue(name) && key.equals(object.getStringValue(name)))
+                    {
+                        results.add(object);
+                    }
+                }
+            }
+        }
+        else
+        {
+            for (QmfConsoleData object : index.find(key))
+            {
+                if (object.getSchemaClassId().getClassName().equals(className))
+                {
+                    results.add(object);
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Return the first mirrored object with the given className whose named property has the given value, see find().
+     *
+     * @param className the className of the object to return.
+     * @param name the name of the property to compare.
+     * @param value the value of the property.
+     * @return the matching object or null if there isn't one.
+     */
+    public QmfConsoleData findFirst(final String className, final String name, final Object value)
+    {
+        List<QmfConsoleData> results = find(className, name, value);
+        return results.isEmpty() ? null : results.get(0);
+    }
+
+    /**
+     * Return the number of mirrored objects.
+     * @return the number of mirrored objects.
+     */
+    public int size()
+    {
+        return _objects.size();
+    }
+
+    /**
+     * Cancel the mirror's Subscriptions and discard the mirrored objects.
+     */
+    public void close()
+    {
+        for (MirroredClass mirrored : _classes.values())
+        {
+            cancel(mirrored);
+        }
+        _classes.clear();
+        synchronized(this)
+        {
+            _objects.clear();
+            _classIndex.clear();
+            for (PropertyIndex index : _propertyIndexes.values())
+            {
+                index._index.clear();
+                index._keys.clear();
+            }
+        }
+    }
+
+    /**
+     * Apply an object received from an Agent to the mirror. Deleted objects are removed and objects that are older
+     * than the one already mirrored, which can happen as the seeding query and the Subscription race, are ignored.
+     *
+     * @param object the object received from the Agent.
+     */
+    private synchronized void update(final QmfConsoleData object)
+    {
+        ObjectId objectId = object.getObjectId();
+        QmfConsoleData previous = _objects.get(objectId);
+        if (previous != null && previous.getUpdateTime() > object.getUpdateTime())
+        {
+            return;
+        }
+
+        if (previous != null)
+        {
+            removeSecondary(objectId, previous);
+        }
+
+        if (object.isDeleted())
+        {
+            _objects.remove(objectId);
+            return;
+        }
+
+        _objects.put(objectId, object);
+        bucket(_classIndex, object.getSchemaClassId().getClassName()).put(objectId, object);
+        for (PropertyIndex index : _propertyIndexes.values())
+        {
+            index.add(objectId, object);
+        }
+    }
+
+    /**
+     * Remove an object from the secondary indexes.
+     */
+    private void removeSecondary(final ObjectId objectId, final QmfConsoleData object)
+    {
+        remove(_classIndex, object.getSchemaClassId().getClassName(), objectId, object);
+        for (PropertyIndex index : _propertyIndexes.values())
+        {
+            index.remove(objectId, object);
+        }
+    }
+
+    /**
+     * Remove all of the objects managed by the named Agent.
+     * @param agentName the name of the Agent.
+     */
+    private synchronized void removeAgent(final String agentName)
+    {
+        // Use the iterator approach rather than foreach as we want to call iterator.remove() to zap an entry
+        Iterator<Map.Entry<ObjectId, QmfConsoleData>> i = _objects.entrySet().iterator();
+        while (i.hasNext())
+        {
+            Map.Entry<ObjectId, QmfConsoleData> entry = i.next();
+            if (entry.getKey().getAgentName().equals(agentName))
+            {
+                i.remove();
+                removeSecondary(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Cancel the Subscription of a mirrored class, if it's still in effect.
+     * @param mirrored the mirrored class.
+     */
+    private void cancel(final MirroredClass mirrored)
+    {
+        String subscriptionId = mirrored._subscriptionId;
+        mirrored._subscriptionId = null;
+        if (subscriptionId != null)
+        {
+            try
+            {
+                _console.cancelSubscription(subscriptionId);
+            }
+            catch (QmfException qmfe)
+            { // The Subscription has most likely already gone away along with the Agent.
+                _log.debug("QmfException {} caught in ObjectMirror.cancel()", qmfe.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Resubscribe to a mirrored class and reseed it, after its Agent has restarted or reappeared. This doesn't block,
+     * so it's safe to call from onEvent(), the SubscribeResponseWorkItem supplies the new subscriptionId and the
+     * reseeding query completes via a QmfFutureListener. A new consoleHandle is used as the Console may still
+     * hold the old Subscription if it was never confirmed.
+     *
+     * @param mirrored the mirrored class.
+     * @param agent the new instance of the Agent managing the class.
+     */
+    private void resubscribe(final MirroredClass mirrored, final Agent agent)
+    {
+        cancel(mirrored);
+        mirrored._agent = agent;
+        String consoleHandle = nextHandle();
+        _classes.remove(mirrored._consoleHandle);
+        mirrored._consoleHandle = consoleHandle;
+        _classes.put(consoleHandle, mirrored);
+
+        QmfQuery query = new QmfQuery(QmfQueryTarget.OBJECT, mirrored._classId);
+        try
+        {
+            _console.createSubscription(agent, query, consoleHandle,
+                                        "{" + SUBSCRIPTION_OPTIONS + ", replyHandle:'" + consoleHandle + "'}");
+        }
+        catch (QmfException qmfe)
+        {
+            _log.info("QmfException {} caught in ObjectMirror.resubscribe()", qmfe.getMessage());
+        }
+
+        _console.getObjectsAsync(agent, query).addListener(new QmfFutureListener<List<QmfConsoleData>>()
+        {
+            public void onResult(final List<QmfConsoleData> objects)
+            {
+                for (QmfConsoleData object : objects)
+                {
+                    update(object);
+                }
+            }
+
+            public void onException(final QmfException exception)
+            {
+                _log.info("QmfException {} caught reseeding ObjectMirror", exception.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Return the mirrored classes of the named Agent. This returns a copy as resubscribe() rekeys _classes.
+     * @param agentName the name of the Agent.
+     * @return the mirrored classes of the named Agent.
+     */
+    private List<MirroredClass> getMirroredClasses(final String agentName)
+    {
+        List<MirroredClass> results = new ArrayList<MirroredClass>();
+        for (MirroredClass mirrored : _classes.values())
+        {
+            if (mirrored._agent.getName().equals(agentName))
+            {
+                results.add(mirrored);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Apply a WorkItem received from the Console to the mirror. WorkItems that don't concern the mirror are ignored.
+     * @param wi a QMF2 WorkItem object
+     */
+    public void onEvent(final WorkItem wi)
+    {
+        if (wi instanceof SubscriptionIndicationWorkItem)
+        {
+            SubscribeIndication indication = ((SubscriptionIndicationWorkItem)wi).getSubscribeIndication();
+            if (_classes.containsKey(indication.getConsoleHandle()))
+            {
+                for (QmfConsoleData object : indication.getData())
+                {
+                    update(object);
+                }
+            }
+        }
+        else if (wi instanceof SubscribeResponseWorkItem)
+        {
+            MirroredClass mirrored = _classes.get(wi.getHandle().getCorrelationId());
+            if (mirrored != null)
+            {
+                SubscribeParams params = ((SubscribeResponseWorkItem)wi).getSubscribeParams();
+                mirrored._subscriptionId = params.getSubscriptionId();
+                if (params.getSubscriptionId() == null)
+                {
+                    _log.info("ObjectMirror failed to resubscribe to {}", mirrored._classId);
+                }
+            }
+        }
+        else if (wi instanceof AgentRestartedWorkItem)
+        { // The restarted Agent has lost its Subscriptions and its objects have new ObjectIds so start afresh.
+            Agent agent = ((AgentRestartedWorkItem)wi).getAgent();
+            removeAgent(agent.getName());
+            for (MirroredClass mirrored : getMirroredClasses(agent.getName()))
+            {
+                resubscribe(mirrored, agent);
+            }
+        }
+        else if (wi instanceof AgentDeletedWorkItem)
+        { // The Console has already cancelled the Agent's Subscriptions.
+            Agent agent = ((AgentDeletedWorkItem)wi).getAgent();
+            removeAgent(agent.getName());
+            for (MirroredClass mirrored : _classes.values())
+            {
+                if (mirrored._agent == agent)
+                {
+                    mirrored._subscriptionId = null;
+                }
+            }
+        }
+        else if (wi instanceof AgentAddedWorkItem)
+        { // If an Agent we were mirroring has come back we resubscribe to it.
+            Agent agent = ((AgentAddedWorkItem)wi).getAgent();
+            for (MirroredClass mirrored : getMirroredClasses(agent.getName()))
+            {
+                if (mirrored._agent != agent)
+                {
+                    resubscribe(mirrored, agent);
+                }
+            }
+        }
+    }
+}
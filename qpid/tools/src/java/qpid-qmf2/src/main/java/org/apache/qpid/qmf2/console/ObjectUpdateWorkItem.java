@@ -20,6 +20,7 @@
  */
 package org.apache.qpid.qmf2.console;
 
+import java.util.Arrays;
 import java.util.Map;
 
 // QMF2 Imports
@@ -61,5 +62,17 @@ public final class ObjectUpdateWorkItem extends WorkItem
     {
         return (QmfConsoleData)getParams();
     }
+
+    /**
+     * A newer update of the same object for the same reply handle supersedes this one, so they may be coalesced.
+     * @return the coalesce key.
+     */
+    @Override
+    public Object getCoalesceKey()
+    {
+        Handle handle = getHandle();
+        return Arrays.asList(getType(), (handle == null) ? null : handle.getCorrelationId(),
+                             getQmfConsoleData().getObjectId());
+    }
 }
 
@@ -0,0 +1,123 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.console;
+
+// JMS Imports
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+// Misc Imports
+import java.util.LinkedList;
+
+/**
+ * A PendingResponse represents a single request that has been sent by the Console and is awaiting one or more
+ * response Messages from an Agent.
+ * <p>
+ * Each PendingResponse is registered with the RequestCorrelator under a unique correlationId. The RequestCorrelator
+ * passes any response Messages carrying that correlationId to deliver() and the thread that made the request then
+ * collects them by calling receive(), in much the same way as it would call receive() on a MessageConsumer.
+ * <p>
+ * Because each request has its own PendingResponse, many requests may be in flight at the same time over the
+ * single synchronous replyTo address without their responses getting interleaved.
+ */
+class PendingResponse
+{
+    private final String _correlationId;
+    private final LinkedList<Message> _responses = new LinkedList<Message>();
+    private boolean _cancelled = false;
+
+    /**
+     * Construct a PendingResponse for the request identified by the given correlationId.
+     *
+     * @param correlationId the correlationId used to tie the request and its responses together.
+     */
+    PendingResponse(final String correlationId)
+    {
+        _correlationId = correlationId;
+    }
+
+    /**
+     * Return the correlationId of the request.
+     * @return the correlationId of the request.
+     */
+    final String getCorrelationId()
+    {
+        return _correlationId;
+    }
+
+    /**
+     * Called by the RequestCorrelator when a response Message for this request arrives.
+     *
+     * @param message the response Message.
+     * @return true if this is the last response expected for the request. Agents may send query results as a
+     *         series of Messages and all but the last of these carry the "partial" property.
+     */
+    boolean deliver(final Message message) throws JMSException
+    {
+        synchronized(this)
+        {
+            _responses.add(message);
+            notifyAll();
+        }
+        return !message.propertyExists("partial");
+    }
+
+    /**
+     * Wake any thread blocked in receive(), giving it a null response. Used when the Console's connection is removed.
+     */
+    synchronized void cancel()
+    {
+        _cancelled = true;
+        notifyAll();
+    }
+
+    /**
+     * Receive the next response Message for this request, blocking until one arrives or the timeout expires.
+     *
+     * @param timeout the maximum time to wait in milliseconds.
+     * @return the next response Message or null if the timeout expired, the request was cancelled or the calling
+     *         thread was interrupted, in which case its interrupt status is set.
+     */
+    synchronized Message receive(final long timeout)
+    {
+        long startTime = System.currentTimeMillis();
+        while (_responses.isEmpty() && !_cancelled)
+        {
+            // Measure elapsed time to test against spurious wakeups and ensure we really have timed out
+            long remaining = timeout - (System.currentTimeMillis() - startTime);
+            if (remaining <= 0)
+            {
+                return null;
+            }
+
+            try
+            {
+                wait(remaining);
+            }
+            catch (InterruptedException ie)
+            { // Restore the interrupt status so that the caller can see why it's giving up.
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        return _responses.poll();
+    }
+}
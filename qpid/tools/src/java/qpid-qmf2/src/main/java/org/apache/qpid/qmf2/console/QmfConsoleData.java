@@ -40,7 +40,8 @@ import org.apache.qpid.qmf2.common.SchemaClassId;
  * the object via this class.
  * <p>
  * The actual data stored in this object is cached from the Agent. In order to update the cached values,
- * the Console invokes the instance's refresh() method.
+ * the Console invokes the instance's refresh() method. To update many objects at once use Console.refresh(), which
+ * refreshes them with a query per Agent and class rather than a query per object.
  * <p>
  * Note that the refresh() and invokeMethod() methods require communication with the remote Agent. As such, they
  * may block. For these two methods, the Console has the option of blocking in the call until the call completes.
@@ -110,6 +111,61 @@ public class QmfConsoleData extends QmfManaged
         _deleteTimestamp = rhs._deleteTimestamp;
     }
 
+    /**
+     * Return a copy of this object with Maps of properties and subtypes of its own, so that calling setValue() or
+     * initialise() on either doesn't affect the other. The property values themselves are shared.
+     *
+     * @return a copy of this object.
+     */
+    QmfConsoleData copy()
+    {
+        QmfConsoleData copy = new QmfConsoleData(new HashMap<String, Object>(), _agent);
+        copy.initialise(this);
+        copy._values = new HashMap<String, Object>(_values);
+        copy._subtypes = (_subtypes == null) ? null : new HashMap<String, String>(_subtypes);
+        return copy;
+    }
+
+    /**
+     * Return true if the Map is a delta encoding of an object, that is it only contains the properties that have
+     * changed since the object was last published to a Subscription.
+     *
+     * @param m the Map encoding of an object.
+     * @return true if the Map is a delta encoding of an object.
+     */
+    public static boolean isDelta(final Map m)
+    {
+        return getBoolean(m.get("_delta"));
+    }
+
+    /**
+     * Merge a delta encoding of this object, as published to a Subscription, with this object's properties.
+     * <p>
+     * A new QmfConsoleData is returned containing this object's properties updated with the changed properties
+     * and timestamps from the delta. This object is not modified, so instances that have already been passed to
+     * an application remain unchanged.
+     *
+     * @param delta the delta encoding of the object.
+     * @return a new QmfConsoleData containing the merged state of the object.
+     */
+    @SuppressWarnings("unchecked")
+    public QmfConsoleData merge(final Map delta)
+    {
+        Map<String, Object> values = new HashMap<String, Object>(_values);
+        Map<String, Object> changes = (Map<String, Object>)delta.get("_values");
+        if (changes != null)
+        {
+            values.putAll(changes);
+        }
+
+        QmfConsoleData merged = new QmfConsoleData(delta, _agent);
+        merged.initialise(this);
+        merged._values = values;
+        merged._updateTimestamp = delta.containsKey("_update_ts") ? getLong(delta.get("_update_ts")) : _updateTimestamp;
+        merged._deleteTimestamp = delta.containsKey("_delete_ts") ? getLong(delta.get("_delete_ts")) : _deleteTimestamp;
+        return merged;
+    }
+
     /**
      * Return a list of timestamps describing the lifecycle of the object.
      * @return a list of timestamps describing the lifecycle of the object.
@@ -182,7 +238,17 @@ public class QmfConsoleData extends QmfManaged
         {
             throw new QmfException("QmfConsoleData.refresh() called with null Agent");
         }
-        QmfConsoleData newContents = _agent.refresh(getObjectId(), null, timeout);
+        update(_agent.refresh(getObjectId(), null, timeout));
+    }
+
+    /**
+     * Update this object's contents with the refreshed contents returned by its Agent. Used by refresh() and by
+     * the Console's bulk refresh.
+     *
+     * @param newContents the refreshed contents, or null if the Agent no longer has the object.
+     */
+    final void update(final QmfConsoleData newContents)
+    {
         if (newContents == null)
         {
             _deleteTimestamp = System.currentTimeMillis()*1000000l;
@@ -199,6 +265,15 @@ public class QmfConsoleData extends QmfManaged
         }
     }
 
+    /**
+     * Return the Agent that manages this object.
+     * @return the Agent that manages this object.
+     */
+    final Agent getAgent()
+    {
+        return _agent;
+    }
+
     /**
      * Request that the Agent updates the value of this object's contents asynchronously.
      *
@@ -262,6 +337,23 @@ public class QmfConsoleData extends QmfManaged
         _agent.invokeMethod(getObjectId(), name, inArgs, replyHandle);
     }
 
+    /**
+     * Invoke the named method asynchronously on this instance, returning a QmfFuture that completes with the
+     * MethodResult.
+     *
+     * @param name name of the method to invoke.
+     * @param inArgs inArgs an unordered set of key/value pairs comprising the method arguments.
+     * @return a QmfFuture that completes with the MethodResult.
+     */    
+    public final QmfFuture<MethodResult> invokeMethodAsync(final String name, final QmfData inArgs) throws QmfException
+    {
+        if (_agent == null)
+        {
+            throw new QmfException("QmfConsoleData.invokeMethodAsync() called with null Agent");
+        }
+        return _agent.invokeMethodAsync(getObjectId(), name, inArgs, -1);
+    }
+
     /**
      * Helper/debug method to list the QMF Object properties and their type.
      */
@@ -0,0 +1,339 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.console;
+
+// Simple Logging Facade 4 Java
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Misc Imports
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.common.QmfException;
+
+/**
+ * A QmfFuture represents the pending result of an asynchronous Console call such as getObjectsAsync() or
+ * invokeMethodAsync().
+ * <p>
+ * The QmfFuture is completed directly by the Console's response MessageListener, so the result becomes available
+ * without a round trip through the WorkQueue and without a thread having to be parked for each outstanding request.
+ * Applications may either block on get() or, more usefully, register a QmfFutureListener via addListener() to be
+ * called back when the result arrives. The listeners of the QmfFutures returned by the Console are called on the
+ * Console's listener thread rather than on its MessageListener thread, so a listener may make further Console
+ * calls, including blocking ones, without holding up the delivery of responses. Listeners are called one at a time
+ * though, so a listener that takes a long time delays the listeners of other QmfFutures.
+ * <p>
+ * If the Agent fails to respond in time the QmfFuture completes exceptionally with a QmfException, in which case
+ * get() throws an ExecutionException whose cause is that QmfException. The exception to this is queries such as
+ * getObjectsAsync() that complete with the data retrieved to date when the timeout expires, in which case
+ * isPartial() returns true so that the caller can tell that the result may be incomplete.
+ *
+ * @param <T> the result type of the asynchronous call.
+ */
+public class QmfFuture<T> implements Future<T>
+{
+    private static final Logger _log = LoggerFactory.getLogger(QmfFuture.class);
+
+    private final Executor _executor;
+    private List<QmfFutureListener<T>> _listeners = new ArrayList<QmfFutureListener<T>>(1);
+    private boolean _done = false;
+    private boolean _cancelled = false;
+    private boolean _partial = false;
+    private T _result = null;
+    private QmfException _exception = null;
+
+    /**
+     * QmfFutures are only created by the Console. This creates a QmfFuture whose listeners are called on the thread
+     * that completes it, which is used for QmfFutures that are completed by another QmfFuture's listener.
+     */
+    QmfFuture()
+    {
+        this(null);
+    }
+
+    /**
+     * Create a QmfFuture whose listeners are called using the given Executor.
+     *
+     * @param executor the Executor used to call the listeners, or null to call them on the completing thread.
+     */
+    QmfFuture(final Executor executor)
+    {
+        _executor = executor;
+    }
+
+    /**
+     * Called when the QmfFuture has been completed, cancelled or failed. This does nothing by default but the
+     * Console overrides it to tidy up after the request.
+     */
+    protected void done()
+    {
+    }
+
+    /**
+     * Complete the QmfFuture with either a result or an exception, then notify the listeners.
+     *
+     * @param result the result of the asynchronous call.
+     * @param exception the exception if the call failed, otherwise null.
+     * @param cancelled true if the QmfFuture is being cancelled.
+     * @param partial true if the result is incomplete because the timeout expired.
+     * @return true if this call completed the QmfFuture, false if it had already completed.
+     */
+    private boolean set(final T result, final QmfException exception, final boolean cancelled,
+                        final boolean partial)
+    {
+        List<QmfFutureListener<T>> listeners;
+        synchronized(this)
+        {
+            if (_done)
+            {
+                return false;
+            }
+            _done = true;
+            _cancelled = cancelled;
+            _partial = partial;
+            _result = result;
+            _exception = exception;
+            listeners = _listeners;
+            _listeners = null;
+            notifyAll();
+        }
+
+        done();
+        for (QmfFutureListener<T> listener : listeners)
+        {
+            notifyListener(listener);
+        }
+        return true;
+    }
+
+    /**
+     * Call the QmfFutureListener using the Executor, if there is one. If the Executor has been shut down, because
+     * the Console's connection has been removed, the listener is called directly so that it's still notified.
+     *
+     * @param listener the QmfFutureListener to notify.
+     */
+    private void notifyListener(final QmfFutureListener<T> listener)
+    {
+        if (_executor != null)
+        {
+            try
+            {
+                _executor.execute(new Runnable()
+                {
+                    public void run()
+                    {
+                        callListener(listener);
+                    }
+                });
+                return;
+            }
+            catch (RejectedExecutionException ree)
+            {
+                _log.debug("QmfFutureListener executor rejected listener, calling it directly");
+            }
+        }
+        callListener(listener);
+    }
+
+    /**
+     * Call the relevant QmfFutureListener method. Exceptions thrown by the listener are logged and swallowed so
+     * that a misbehaving listener can't disrupt the thread that called it.
+     *
+     * @param listener the QmfFutureListener to notify.
+     */
+    private void callListener(final QmfFutureListener<T> listener)
+    {
+        try
+        {
+            if (_exception == null)
+            {
+                listener.onResult(_result);
+            }
+            else
+            {
+                listener.onException(_exception);
+            }
+        }
+        catch (RuntimeException re)
+        {
+            _log.info("RuntimeException {} caught in QmfFutureListener", re.getMessage());
+        }
+    }
+
+    /**
+     * Complete the QmfFuture successfully.
+     *
+     * @param result the result of the asynchronous call.
+     * @return true if this call completed the QmfFuture, false if it had already completed.
+     */
+    boolean complete(final T result)
+    {
+        return set(result, null, false, false);
+    }
+
+    /**
+     * Complete the QmfFuture successfully with the incomplete result available when the timeout expired.
+     *
+     * @param result the result of the asynchronous call retrieved to date.
+     * @return true if this call completed the QmfFuture, false if it had already completed.
+     */
+    boolean completePartial(final T result)
+    {
+        return set(result, null, false, true);
+    }
+
+    /**
+     * Complete the QmfFuture exceptionally.
+     *
+     * @param exception a QmfException describing the failure.
+     * @return true if this call completed the QmfFuture, false if it had already completed.
+     */
+    boolean fail(final QmfException exception)
+    {
+        return set(null, exception, false, false);
+    }
+
+    /**
+     * Register a QmfFutureListener to be notified when the QmfFuture completes. If it has already completed the
+     * listener is notified immediately.
+     *
+     * @param listener the QmfFutureListener to notify.
+     * @return this QmfFuture to allow calls to be chained.
+     */
+    public QmfFuture<T> addListener(final QmfFutureListener<T> listener)
+    {
+        synchronized(this)
+        {
+            if (!_done)
+            {
+                _listeners.add(listener);
+                return this;
+            }
+        }
+        notifyListener(listener);
+        return this;
+    }
+
+    /**
+     * Attempt to cancel the asynchronous call. Any response subsequently received from the Agent is discarded and
+     * listeners are notified with a QmfException.
+     *
+     * @param mayInterruptIfRunning ignored, there is no thread to interrupt.
+     * @return false if the QmfFuture had already completed, otherwise true.
+     */
+    public boolean cancel(final boolean mayInterruptIfRunning)
+    {
+        return set(null, new QmfException("Request cancelled"), true, false);
+    }
+
+    /**
+     * Returns true if this QmfFuture was cancelled before it completed normally.
+     * @return true if this QmfFuture was cancelled before it completed normally.
+     */
+    public synchronized boolean isCancelled()
+    {
+        return _cancelled;
+    }
+
+    /**
+     * Returns true if this QmfFuture completed with an incomplete result because the timeout expired before the
+     * final response arrived, e.g. a getObjectsAsync() that had only received some of the Agent's partial responses.
+     * @return true if this QmfFuture completed with an incomplete result.
+     */
+    public synchronized boolean isPartial()
+    {
+        return _partial;
+    }
+
+    /**
+     * Returns true if this QmfFuture completed, failed or was cancelled.
+     * @return true if this QmfFuture completed, failed or was cancelled.
+     */
+    public synchronized boolean isDone()
+    {
+        return _done;
+    }
+
+    /**
+     * Waits if necessary for the asynchronous call to complete, and then retrieves its result.
+     *
+     * @return the result of the asynchronous call.
+     */
+    public synchronized T get() throws InterruptedException, ExecutionException
+    {
+        while (!_done)
+        {
+            wait();
+        }
+        return getResult();
+    }
+
+    /**
+     * Waits if necessary for at most the given time for the asynchronous call to complete, and then retrieves its
+     * result, if available.
+     *
+     * @param timeout the maximum time to wait.
+     * @param unit the time unit of the timeout argument.
+     * @return the result of the asynchronous call.
+     */
+    public synchronized T get(final long timeout, final TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException
+    {
+        long endTime = System.currentTimeMillis() + unit.toMillis(timeout);
+        while (!_done)
+        {
+            // Measure remaining time to test against spurious wakeups and ensure we really have timed out
+            long remaining = endTime - System.currentTimeMillis();
+            if (remaining <= 0)
+            {
+                throw new TimeoutException();
+            }
+            wait(remaining);
+        }
+        return getResult();
+    }
+
+    /**
+     * Return the result of a completed QmfFuture, or throw the appropriate exception.
+     * @return the result of a completed QmfFuture.
+     */
+    private T getResult() throws ExecutionException
+    {
+        if (_cancelled)
+        {
+            throw new CancellationException();
+        }
+        if (_exception != null)
+        {
+            throw new ExecutionException(_exception);
+        }
+        return _result;
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.console;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.common.QmfCallback;
+import org.apache.qpid.qmf2.common.QmfException;
+
+/**
+ * A QmfFutureListener is notified when the QmfFuture that it has been added to completes.
+ * <p>
+ * Notes
+ * <ol>
+ *  <li>The listener is called on the Console's QmfFutureListener thread, not on the JMS MessageListener thread that
+ *      receives responses, so it may call blocking Console methods such as getObjects() or the synchronous
+ *      invokeMethod(). Listeners are called one at a time though, so a listener that takes a long time delays the
+ *      listeners of other QmfFutures, and chaining further asynchronous calls is generally better.</li>
+ *  <li>If the QmfFuture has already completed when the listener is added it is still called on the Console's
+ *      QmfFutureListener thread, unless the Console's connection has been removed, in which case it's called on
+ *      the thread that added it.</li>
+ * </ol>
+ *
+ * @param <T> the result type of the QmfFuture.
+ */
+public interface QmfFutureListener<T> extends QmfCallback
+{
+    /**
+     * Called when the QmfFuture completes successfully.
+     *
+     * @param result the result of the asynchronous call.
+     */
+    public void onResult(T result);
+
+    /**
+     * Called when the QmfFuture fails, times out or is cancelled.
+     *
+     * @param exception a QmfException describing the failure.
+     */
+    public void onException(QmfException exception);
+}
@@ -0,0 +1,253 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.console;
+
+// Misc Imports
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.common.AMQPListWriter;
+import org.apache.qpid.qmf2.common.QmfData;
+import org.apache.qpid.qmf2.common.QmfException;
+
+/**
+ * The QueryCoalescer lets identical object queries share a single request to the Agent.
+ * <p>
+ * Queries are identical if they are sent to the same Agent and their queries have the same binary encoding. While a
+ * query is in flight any identical query joins it rather than sending a request of its own, so however many
+ * threads ask at the same moment the Agent only encodes the result once. Optionally the result is also kept for a
+ * short time (the cacheTTL) after it arrives, so that identical queries arriving shortly afterwards are answered
+ * without a round trip at all.
+ * <p>
+ * Each caller gets a QmfFuture, a List and copies of the QmfConsoleData objects of its own, so callers may update
+ * their objects (e.g. via refresh()) without affecting each other or the cached result. Copying an object is much
+ * cheaper than the round trip and decoding that sharing saves. Failed queries aren't cached, nor are queries that
+ * timed out with only some of the Agent's partial responses; the callers sharing such a query get a QmfFuture whose
+ * isPartial() returns true.
+ */
+final class QueryCoalescer
+{
+    /**
+     * Sends the request for a query that isn't already in flight or cached.
+     */
+    interface Request
+    {
+        /**
+         * Send the request.
+         * @return the QmfFuture that completes with the result of the request.
+         */
+        QmfFuture<List<QmfConsoleData>> send();
+    }
+
+    /**
+     * Identifies a query by Agent name and the binary encoding of its query Map.
+     */
+    private static final class QueryKey
+    {
+        private final String _agentName;
+        private final ByteBuffer _query;
+        private final int _hashCode;
+
+        QueryKey(final String agentName, final QmfData query)
+        {
+            _agentName = agentName;
+            _query = ByteBuffer.wrap(AMQPListWriter.encode(query.mapEncode()));
+            _hashCode = 31*_agentName.hashCode() + _query.hashCode();
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return _hashCode;
+        }
+
+        @Override
+        public boolean equals(final Object rhs)
+        {
+            if (!(rhs instanceof QueryKey))
+            {
+                return false;
+            }
+            QueryKey key = (QueryKey)rhs;
+            return _agentName.equals(key._agentName) && _query.equals(key._query);
+        }
+    }
+
+    /**
+     * A query that is in flight, or whose result is cached, together with the time its result arrived.
+     */
+    private static final class SharedQuery
+    {
+        private final QmfFuture<List<QmfConsoleData>> _future;
+        private volatile long _completionTime = 0;
+
+        SharedQuery(final QmfFuture<List<QmfConsoleData>> future)
+        {
+            _future = future;
+        }
+    }
+
+    private final ConcurrentMap<QueryKey, SharedQuery> _queries = new ConcurrentHashMap<QueryKey, SharedQuery>();
+    private final long _cacheTTL;
+
+    /**
+     * Construct a QueryCoalescer.
+     *
+     * @param cacheTTL the time in milliseconds for which results are cached, zero to only share in flight queries.
+     */
+    QueryCoalescer(final long cacheTTL)
+    {
+        _cacheTTL = cacheTTL;
+    }
+
+    /**
+     * Return the result of a query, joining an identical query that is already in flight or using its cached
+     * result if there is one, otherwise sending the request.
+     *
+     * @param agentName the name of the Agent being queried.
+     * @param query the ObjectId or SchemaClassId being queried for.
+     * @param scheduler the scheduler used to remove cached results once their cacheTTL has elapsed.
+     * @param executor the Executor used to call the listeners of the caller's QmfFuture.
+     * @param request sends the request if it's needed.
+     * @return a QmfFuture of the caller's own that completes with a List of QMF Objects matching the query.
+     */
+    QmfFuture<List<QmfConsoleData>> get(final String agentName, final QmfData query,
+                                        final ScheduledExecutorService scheduler, final Executor executor,
+                                        final Request request)
+    {
+        final QueryKey key = new QueryKey(agentName, query);
+        SharedQuery shared = null;
+        boolean sender = false;
+        while (shared == null)
+        {
+            shared = _queries.get(key);
+            if (shared != null && shared._completionTime != 0 &&
+                System.currentTimeMillis() - shared._completionTime >= _cacheTTL)
+            { // The cached result has expired, it's only still here because the removal hasn't run yet.
+                _queries.remove(key, shared);
+                shared = null;
+            }
+            else if (shared == null)
+            {
+                SharedQuery created = new SharedQuery(new QmfFuture<List<QmfConsoleData>>());
+                shared = _queries.putIfAbsent(key, created);
+                if (shared == null)
+                {
+                    shared = created;
+                    sender = true;
+                }
+            }
+        }
+
+        if (sender)
+        {
+            send(key, shared, scheduler, request);
+        }
+
+        final QmfFuture<List<QmfConsoleData>> sharedFuture = shared._future;
+        final QmfFuture<List<QmfConsoleData>> future = new QmfFuture<List<QmfConsoleData>>(executor);
+        sharedFuture.addListener(new QmfFutureListener<List<QmfConsoleData>>()
+        {
+            public void onResult(final List<QmfConsoleData> result)
+            {
+                List<QmfConsoleData> copy = new ArrayList<QmfConsoleData>(result.size());
+                for (QmfConsoleData object : result)
+                {
+                    copy.add(object.copy());
+                }
+                if (sharedFuture.isPartial())
+                {
+                    future.completePartial(copy);
+                }
+                else
+                {
+                    future.complete(copy);
+                }
+            }
+
+            public void onException(final QmfException qmfe)
+            {
+                future.fail(qmfe);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Send the request for a SharedQuery, completing the SharedQuery with its result and then either caching
+     * the result until the cacheTTL expires or removing it straight away. Partial results are never cached.
+     */
+    private void send(final QueryKey key, final SharedQuery shared, final ScheduledExecutorService scheduler,
+                      final Request request)
+    {
+        final QmfFuture<List<QmfConsoleData>> response = request.send();
+        response.addListener(new QmfFutureListener<List<QmfConsoleData>>()
+        {
+            public void onResult(final List<QmfConsoleData> result)
+            {
+                if (response.isPartial())
+                { // The request timed out, so the result may be incomplete and mustn't be handed to later queries.
+                    _queries.remove(key, shared);
+                    shared._future.completePartial(result);
+                    return;
+                }
+
+                if (_cacheTTL == 0)
+                {
+                    _queries.remove(key, shared);
+                    shared._future.complete(result);
+                    return;
+                }
+
+                shared._completionTime = System.currentTimeMillis();
+                shared._future.complete(result);
+                try
+                {
+                    scheduler.schedule(new Runnable()
+                    {
+                        public void run()
+                        {
+                            _queries.remove(key, shared);
+                        }
+                    }, _cacheTTL, TimeUnit.MILLISECONDS);
+                }
+                catch (RejectedExecutionException ree)
+                { // The Console's connection has been removed, so there's no point caching the result.
+                    _queries.remove(key, shared);
+                }
+            }
+
+            public void onException(final QmfException qmfe)
+            {
+                _queries.remove(key, shared);
+                shared._future.fail(qmfe);
+            }
+        });
+    }
+}
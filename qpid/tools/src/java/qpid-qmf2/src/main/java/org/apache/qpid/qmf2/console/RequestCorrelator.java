@@ -0,0 +1,151 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.console;
+
+// JMS Imports
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+
+// Simple Logging Facade 4 Java
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Misc Imports
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The RequestCorrelator multiplexes many outstanding request/response exchanges over the Console's single
+ * synchronous replyTo address.
+ * <p>
+ * Each request is given a unique correlationId and registered as a PendingResponse. The RequestCorrelator is the
+ * MessageListener for the replyTo address and it routes each response Message to the PendingResponse whose
+ * correlationId it carries, so any number of threads may have requests outstanding simultaneously rather than
+ * having to take turns holding the Console lock for a whole request/response round trip.
+ */
+final class RequestCorrelator implements MessageListener
+{
+    private static final Logger _log = LoggerFactory.getLogger(RequestCorrelator.class);
+
+    /**
+     * The PendingResponses that are still awaiting responses, keyed by correlationId.
+     */
+    private final Map<String, PendingResponse> _pending = new ConcurrentHashMap<String, PendingResponse>();
+
+    /**
+     * The prefix makes correlationIds unique to this RequestCorrelator, the counter makes them unique within it.
+     */
+    private final String _prefix = UUID.randomUUID().toString() + ":";
+    private final AtomicLong _nextId = new AtomicLong();
+
+    /**
+     * Return a new correlationId that is unique to this RequestCorrelator.
+     * @return a new correlationId that is unique to this RequestCorrelator.
+     */
+    String nextCorrelationId()
+    {
+        return _prefix + _nextId.incrementAndGet();
+    }
+
+    /**
+     * Create and register a new PendingResponse with a unique correlationId.
+     * @return the newly registered PendingResponse.
+     */
+    PendingResponse register()
+    {
+        return register(new PendingResponse(nextCorrelationId()));
+    }
+
+    /**
+     * Register a PendingResponse, which should have been created with a correlationId from nextCorrelationId().
+     *
+     * @param pending the PendingResponse to be registered.
+     * @return the registered PendingResponse.
+     */
+    <T extends PendingResponse> T register(final T pending)
+    {
+        _pending.put(pending.getCorrelationId(), pending);
+        return pending;
+    }
+
+    /**
+     * Stop delivering responses to the given PendingResponse. This should be called once the requester has finished
+     * with the PendingResponse (e.g. because it timed out), it is harmless to call it if the request has completed.
+     *
+     * @param pending the PendingResponse to be removed.
+     */
+    void remove(final PendingResponse pending)
+    {
+        _pending.remove(pending.getCorrelationId());
+    }
+
+    /**
+     * Cancel all outstanding requests, unblocking any threads waiting for responses.
+     */
+    void cancelAll()
+    {
+        for (PendingResponse pending : _pending.values())
+        {
+            pending.cancel();
+        }
+        _pending.clear();
+    }
+
+    /**
+     * Return the number of requests currently awaiting responses.
+     * @return the number of requests currently awaiting responses.
+     */
+    int size()
+    {
+        return _pending.size();
+    }
+
+    /**
+     * MessageListener for responses arriving on the Console's synchronous replyTo address.
+     *
+     * @param message the JMS Message passed to the listener
+     */
+    public void onMessage(final Message message)
+    {
+        try
+        {
+            String correlationId = message.getJMSCorrelationID();
+            PendingResponse pending = (correlationId == null) ? null : _pending.get(correlationId);
+            if (pending == null)
+            { // Most likely a late response to a request that has already timed out.
+                _log.info("Discarding response with unknown correlationId {}", correlationId);
+                return;
+            }
+
+            if (pending.deliver(message))
+            {
+                _pending.remove(correlationId);
+            }
+        }
+        catch (JMSException jmse)
+        {
+            _log.info("JMSException {} caught in onMessage()", jmse.getMessage());
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.console;
+
+// Simple Logging Facade 4 Java
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Misc Imports
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// Need the following to decode the stored schema
+import org.apache.qpid.transport.codec.BBDecoder;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.common.AMQPListWriter;
+import org.apache.qpid.qmf2.common.QmfException;
+import org.apache.qpid.qmf2.common.SchemaClass;
+import org.apache.qpid.qmf2.common.SchemaClassId;
+import org.apache.qpid.qmf2.common.SchemaEventClass;
+import org.apache.qpid.qmf2.common.SchemaObjectClass;
+
+/**
+ * A SchemaCache holds the SchemaClass instances retrieved by one or more Consoles, keyed by SchemaClassId.
+ * <p>
+ * A SchemaClassId includes the hash of its schema, so the schema for a given SchemaClassId never changes and it's
+ * safe to share it between every Agent that has that SchemaClassId, between Consoles, and between runs. The Console
+ * checks its SchemaCache before requesting a schema from an Agent, so once a schema has been retrieved from one
+ * Agent it isn't requested again from other Agents or after an Agent restart, and all of those Agents share the
+ * same SchemaClass instance. As the SchemaClass instances are shared applications should treat them as read only.
+ * <p>
+ * By default a SchemaCache is held in memory. If it's created with a directory the schema are also stored in that
+ * directory, one file per schema named after the schema hash, so that a Console started later doesn't need to
+ * request any schema that it has seen before. The files hold the AMQP map encoding of the schema as it was received
+ * and are read by memory mapping them. Files that can't be read are ignored and the schema is requested as usual.
+ */
+public final class SchemaCache
+{
+    private static final Logger _log = LoggerFactory.getLogger(SchemaCache.class);
+
+    /**
+     * The suffix of the files holding the stored schema.
+     */
+    private static final String SUFFIX = ".schema";
+
+    private final ConcurrentMap<SchemaClassId, SchemaClass> _schema = new ConcurrentHashMap<SchemaClassId, SchemaClass>();
+    private final File _directory;
+
+    /**
+     * Create a SchemaCache that is held in memory only.
+     */
+    public SchemaCache()
+    {
+        _directory = null;
+    }
+
+    /**
+     * Create a SchemaCache that stores the schema in the given directory as well as holding them in memory.
+     *
+     * @param directory the directory used to store the schema, it is created if it doesn't exist.
+     */
+    public SchemaCache(final File directory) throws QmfException
+    {
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new QmfException("Unable to create schema cache directory " + directory);
+        }
+        _directory = directory;
+    }
+
+    /**
+     * Create a SchemaClass from its Map encoding.
+     *
+     * @param content the Map encoding of the schema.
+     * @return a SchemaObjectClass or SchemaEventClass depending on the schema's type.
+     */
+    private static SchemaClass createSchema(final Map content)
+    {
+        SchemaClass schema = new SchemaObjectClass(content);
+        if (schema.getClassId().getType().equals("_event"))
+        {
+            schema = new SchemaEventClass(content);
+        }
+        return schema;
+    }
+
+    /**
+     * Return the file used to store the schema with the given SchemaClassId.
+     */
+    private File getFile(final SchemaClassId classId)
+    {
+        return new File(_directory, classId.getHashString() + SUFFIX);
+    }
+
+    /**
+     * Return the shared SchemaClass with the given SchemaClassId.
+     *
+     * @param classId the SchemaClassId of the schema.
+     * @return the shared SchemaClass or null if the schema isn't cached. Only SchemaClassIds that include the
+     *         schema hash are ever cached.
+     */
+    public SchemaClass get(final SchemaClassId classId)
+    {
+        if (classId.getHashString() == null)
+        {
+            return null;
+        }
+
+        SchemaClass schema = _schema.get(classId);
+        if (schema == null && _directory != null)
+        {
+            schema = load(classId);
+            if (schema != null)
+            {
+                SchemaClass previous = _schema.putIfAbsent(classId, schema);
+                schema = (previous == null) ? schema : previous;
+            }
+        }
+        return schema;
+    }
+
+    /**
+     * Create a SchemaClass from the Map encoding received from an Agent and add it to the cache. If the cache
+     * already holds the schema the shared instance is returned instead.
+     *
+     * @param content the Map encoding of the schema.
+     * @return the shared SchemaClass.
+     */
+    public SchemaClass put(final Map content)
+    {
+        SchemaClass schema = createSchema(content);
+        SchemaClassId classId = schema.getClassId();
+        SchemaClass previous = _schema.putIfAbsent(classId, schema);
+        if (previous != null)
+        {
+            return previous;
+        }
+
+        if (_directory != null)
+        {
+            store(classId, content);
+        }
+        return schema;
+    }
+
+    /**
+     * Return the number of schema held in memory.
+     * @return the number of schema held in memory.
+     */
+    public int size()
+    {
+        return _schema.size();
+    }
+
+    /**
+     * Read a stored schema.
+     *
+     * @param classId the SchemaClassId of the schema.
+     * @return the SchemaClass or null if the schema hasn't been stored or can't be read.
+     */
+    private SchemaClass load(final SchemaClassId classId)
+    {
+        File file = getFile(classId);
+        if (!file.isFile())
+        {
+            return null;
+        }
+
+        try
+        {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try
+            {
+                FileChannel channel = raf.getChannel();
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                BBDecoder decoder = new BBDecoder();
+                decoder.init(buffer);
+                SchemaClass schema = createSchema(decoder.readMap());
+                if (schema.getClassId().equals(classId))
+                {
+                    return schema;
+                }
+                _log.info("Ignoring stored schema {} as it has the wrong SchemaClassId", file);
+            }
+            finally
+            {
+                raf.close();
+            }
+        }
+        catch (IOException ioe)
+        {
+            _log.info("IOException {} caught in SchemaCache load()", ioe.getMessage());
+        }
+        catch (RuntimeException re)
+        { // A truncated or corrupt file fails to decode, in which case we simply request the schema again.
+            _log.info("Unable to decode stored schema {}: {}", file, re.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Store a schema. The schema is written to a temporary file that is then renamed, so a partially written
+     * schema is never read.
+     *
+     * @param classId the SchemaClassId of the schema.
+     * @param content the Map encoding of the schema.
+     */
+    private void store(final SchemaClassId classId, final Map content)
+    {
+        File file = getFile(classId);
+        File temp = new File(_directory, file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        try
+        {
+            FileOutputStream out = new FileOutputStream(temp);
+            try
+            {
+                out.write(AMQPListWriter.encode(content));
+            }
+            finally
+            {
+                out.close();
+            }
+
+            if (!temp.renameTo(file))
+            {
+                _log.info("Unable to store schema {}", file);
+                temp.delete();
+            }
+        }
+        catch (IOException ioe)
+        {
+            _log.info("IOException {} caught in SchemaCache store()", ioe.getMessage());
+            temp.delete();
+        }
+    }
+}
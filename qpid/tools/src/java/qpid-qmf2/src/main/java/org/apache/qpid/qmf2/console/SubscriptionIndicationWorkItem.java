@@ -20,10 +20,15 @@
  */
 package org.apache.qpid.qmf2.console;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 // QMF2 Imports
 import org.apache.qpid.qmf2.common.Handle;
+import org.apache.qpid.qmf2.common.ObjectId;
 import org.apache.qpid.qmf2.common.WorkItem;
 
 /**
@@ -58,5 +63,51 @@ public final class SubscriptionIndicationWorkItem extends WorkItem
     {
         return (SubscribeIndication)getParams();
     }
+
+    /**
+     * Indications are ordered per Subscription.
+     * @return the ordering key.
+     */
+    @Override
+    public Object getOrderingKey()
+    {
+        return getSubscribeIndication().getConsoleHandle();
+    }
+
+    /**
+     * Indications for the same Subscription may be coalesced.
+     * @return the coalesce key.
+     */
+    @Override
+    public Object getCoalesceKey()
+    {
+        return Arrays.asList(getType(), getSubscribeIndication().getConsoleHandle());
+    }
+
+    /**
+     * Coalesce a newer indication for the same Subscription into this one. The objects from both indications are
+     * combined, with the newer version of any object that appears in both replacing the older one.
+     *
+     * @param newer the newer SubscriptionIndicationWorkItem.
+     * @return the coalesced SubscriptionIndicationWorkItem.
+     */
+    @Override
+    public WorkItem coalesce(final WorkItem newer)
+    {
+        SubscribeIndication indication = ((SubscriptionIndicationWorkItem)newer).getSubscribeIndication();
+        Map<ObjectId, QmfConsoleData> objects = new LinkedHashMap<ObjectId, QmfConsoleData>();
+        for (QmfConsoleData object : getSubscribeIndication().getData())
+        {
+            objects.put(object.getObjectId(), object);
+        }
+
+        for (QmfConsoleData object : indication.getData())
+        {
+            objects.put(object.getObjectId(), object);
+        }
+
+        List<QmfConsoleData> data = new ArrayList<QmfConsoleData>(objects.values());
+        return new SubscriptionIndicationWorkItem(new SubscribeIndication(indication.getConsoleHandle(), data));
+    }
 }
 
@@ -26,18 +26,27 @@ import org.slf4j.LoggerFactory;
 
 // Misc Imports
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
-import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 // QMF2 Imports
+import org.apache.qpid.qmf2.common.ObjectId;
 import org.apache.qpid.qmf2.common.QmfQuery;
+import org.apache.qpid.qmf2.util.TimingWheel;
 
 /** 
  * A SubscriptionManager represents a running Subscription on the Console.
  * <p>
- * The main reason we have SubscriptionManagers as TimerTasks is to enable proper cleanup of the references stored in
- * the subscriptionByHandle and subscriptionById Maps. Ideally these will be cleaned up by a client calling 
- * cancelSubscription but we can't rely on that as the client may forget or the Agent may not respond.
+ * The main reason we have SubscriptionManagers track the Subscription's lifetime is to enable proper cleanup of the
+ * references stored in the subscriptionByHandle and subscriptionById Maps. Ideally these will be cleaned up by a client
+ * calling cancelSubscription but we can't rely on that as the client may forget or the Agent may not respond.
+ * The lease deadlines of a Console's SubscriptionManagers are tracked by a TimingWheel, which calls run() once the
+ * deadline has passed, and the renewal of Subscriptions created with the autoRenew option runs on the Console's
+ * shared ScheduledExecutorService, so no threads or periodic tasks are created per Subscription.
  * <p>
  * The SubscriptionManager acts like a client/Console side representation of a Subscription running on an Agent.
  * As mentioned above its primary purpose is to enable references to Subscriptions maintained by the Console to
@@ -50,25 +59,46 @@ import org.apache.qpid.qmf2.common.QmfQuery;
  * the QmfConsoleData returned by the _data indication. Any QmfConsoleData that match the query are passed to the
  * client application with the consoleHandle of the matching Subscription.
  * <p>
+ * If delta updates were requested the SubscriptionManager also caches the latest state of each object published to
+ * the Subscription, so that delta indications, which only contain the properties that have changed, can be merged
+ * into complete objects before they are passed to the client application. The cache is cleared when the Subscription
+ * is cancelled, including when its Agent is removed, and when the Agent restarts, as a restarted Agent publishes
+ * everything in full again.
+ * <p>
  * The following diagram illustrates the Subscription relationships with the Console and local Agent proxy.
  * <p>
  * <img alt="" src="doc-files/Subscriptions.png">
  *
  * @author Fraser Adams
  */
-public final class SubscriptionManager extends TimerTask
+public final class SubscriptionManager implements Runnable
 {
     private static final Logger _log = LoggerFactory.getLogger(SubscriptionManager.class);
 
     private final Agent _agent;
-    private long     _startTime = System.currentTimeMillis();
+    private volatile long _startTime = System.currentTimeMillis();
     private String   _subscriptionId;
     private String   _consoleHandle;
     private String   _replyHandle;
     private QmfQuery _query;
-    private long     _duration = 0;
+    private volatile long _duration = 0;
     private long     _interval = 0;
     private boolean  _waiting = true;
+    private final boolean _delta;
+    private final boolean _autoRenew;
+    private boolean  _cancelled = false;
+    private TimingWheel<SubscriptionManager> _expiry = null;
+    private ScheduledFuture<?> _renewalTask = null;
+
+    /**
+     * The latest state of each object published to the Subscription, only used if delta updates were requested.
+     */
+    private final Map<ObjectId, QmfConsoleData> _objects = new ConcurrentHashMap<ObjectId, QmfConsoleData>();
+
+    /**
+     * The Agent Epoch of the objects in _objects, a full update from a later Epoch evicts the earlier objects.
+     */
+    private long _epoch = 0;
 
     /**
      * Construct a Console side proxy of a Subscription. Primarily to manage references to the Subscription.
@@ -78,9 +108,12 @@ public final class SubscriptionManager extends TimerTask
      * @param consoleHandle the handle that uniquely identifies the Subscription
      * @param interval the interval between subscription updates
      * @param duration the duration of the subscription (assuming it doesn't get refreshed)
+     * @param delta true if the Agent has been asked to publish delta updates
+     * @param autoRenew true if the Console should renew the Subscription before its lifetime expires
      */
     SubscriptionManager(final Agent agent, final QmfQuery query, final String consoleHandle,
-                        final String replyHandle, final long interval, final long duration)
+                        final String replyHandle, final long interval, final long duration, final boolean delta,
+                        final boolean autoRenew)
     {
         _agent = agent;
         _query = query;
@@ -88,13 +121,64 @@ public final class SubscriptionManager extends TimerTask
         _replyHandle = replyHandle;
         _interval = interval;
         _duration = duration;
+        _delta = delta;
+        _autoRenew = autoRenew;
         _log.debug("Creating SubscriptionManager {}, on Agent {}",_consoleHandle, _agent.getName());
     }
 
     /**
-     * This method gets called periodically by the Timer scheduling this TimerTask.
+     * Start tracking the Subscription's lease deadline, which is rescheduled whenever the Subscription is refreshed.
+     *
+     * @param expiry the TimingWheel used to track the lease deadline.
+     */
+    synchronized void start(final TimingWheel<SubscriptionManager> expiry)
+    {
+        if (!_cancelled)
+        {
+            _expiry = expiry;
+            scheduleExpiry();
+        }
+    }
+
+    /**
+     * (Re)schedule the expiry of the Subscription at the end of its lifetime.
+     */
+    private synchronized void scheduleExpiry()
+    {
+        if (_expiry != null && !_cancelled)
+        {
+            _expiry.schedule(this, _startTime + _duration*1000);
+        }
+    }
+
+    /**
+     * Schedule the renewal of the Subscription, replacing any renewal that is already scheduled. The renewal is
+     * run once half of the Subscription's remaining lifetime has elapsed, so it normally runs half way through the
+     * lifetime. That leaves time for the Agent to respond and, should the Agent fail to respond in time, for further
+     * attempts at ever shorter intervals before the Subscription expires.
+     *
+     * @param scheduler the ScheduledExecutorService used to run the renewal.
+     * @param renewal the task that renews the Subscription.
+     */
+    synchronized void scheduleRenewal(final ScheduledExecutorService scheduler, final Runnable renewal)
+    {
+        if (_autoRenew && !_cancelled)
+        {
+            if (_renewalTask != null)
+            {
+                _renewalTask.cancel(false);
+            }
+            long remaining = _startTime + _duration*1000 - System.currentTimeMillis();
+            long delay = Math.max(remaining/2, 1000);
+            _renewalTask = scheduler.schedule(renewal, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * This method gets called by the Console once the Subscription's lease deadline has passed.
      * <p>
-     * First a check is made to see if the Subscription has expired, if it has then it is cancelled.
+     * A check is made to see if the Subscription has expired, if it has then it is cancelled, otherwise (if it was
+     * refreshed as the deadline passed) the expiry is rescheduled.
      */
     public void run()
     {
@@ -105,6 +189,10 @@ public final class SubscriptionManager extends TimerTask
             // The Subscription has expired so cancel it
             cancel();
         }
+        else
+        {
+            scheduleExpiry();
+        }
     }
 
     /**
@@ -158,18 +246,55 @@ public final class SubscriptionManager extends TimerTask
     {
         _log.debug("Refreshing Subscription {}", _subscriptionId);
         _startTime = System.currentTimeMillis();
+        scheduleExpiry();
     }
 
     /**
-     * Cancel the Subscription, tidying references up and cancelling the TimerTask.
+     * Cancel the Subscription, tidying references up and cancelling its expiry and any scheduled renewal.
+     *
+     * @return false if the Subscription had already been cancelled, otherwise true.
      */
-    @Override
     public boolean cancel()
     {
         _log.debug("Cancelling Subscription {}, {}", _consoleHandle, _subscriptionId);
         _agent.removeSubscription(this);
         signal(); // Just in case anything is blocking on this Subscription.
-        return super.cancel(); // Cancel the TimerTask
+        synchronized(this)
+        {
+            _objects.clear();
+            if (_cancelled)
+            {
+                return false;
+            }
+            _cancelled = true;
+            if (_expiry != null)
+            {
+                _expiry.cancel(this);
+            }
+            if (_renewalTask != null)
+            {
+                _renewalTask.cancel(false);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Return true if the Subscription has been cancelled or has expired.
+     * @return true if the Subscription has been cancelled or has expired.
+     */
+    public synchronized boolean isCancelled()
+    {
+        return _cancelled;
+    }
+
+    /**
+     * Return true if the Console renews the Subscription before its lifetime expires.
+     * @return true if the Console renews the Subscription before its lifetime expires.
+     */
+    public boolean isAutoRenew()
+    {
+        return _autoRenew;
     }
 
     /**
@@ -225,6 +350,16 @@ public final class SubscriptionManager extends TimerTask
     public void setDuration(final long duration)
     {
         _duration = duration;
+        scheduleExpiry();
+    }
+
+    /**
+     * Return the Subscription lifetime in seconds.
+     * @return the Subscription lifetime in seconds.
+     */
+    public long getDuration()
+    {
+        return _duration;
     }
 
     /**
@@ -236,6 +371,88 @@ public final class SubscriptionManager extends TimerTask
         return _query;
     }
 
+    /**
+     * Create the QmfConsoleData for an object published to this Subscription.
+     * <p>
+     * If the object is a delta it is merged with the cached state of the object. If the object isn't in the cache
+     * (which shouldn't happen as an Agent always publishes an object in full first) the delta is returned as is.
+     * Agents that don't support delta updates simply publish full objects, which replace any cached state. A full
+     * object from a later Agent Epoch than the cached objects evicts them, as they were published before the Agent
+     * restarted, and nothing is cached once the Subscription has been cancelled.
+     *
+     * @param m the Map encoded object from the subscription indication.
+     * @return the QmfConsoleData representing the latest state of the object.
+     */
+    public QmfConsoleData update(final Map m)
+    {
+        QmfConsoleData object = null;
+        if (_delta && QmfConsoleData.isDelta(m))
+        {
+            QmfConsoleData cached = _objects.get(new ObjectId((Map)m.get("_object_id")));
+            if (cached == null)
+            {
+                _log.debug("Subscription {} received delta for unknown object", _consoleHandle);
+            }
+            else
+            {
+                object = cached.merge(m);
+            }
+        }
+
+        if (object == null)
+        {
+            object = new QmfConsoleData(m, _agent);
+            if (_delta)
+            {
+                evictEarlierEpochs(object.getObjectId().getAgentEpoch());
+            }
+        }
+
+        if (_delta)
+        {
+            synchronized(this)
+            { // Checked under the lock so that an object can't be cached after cancel() has cleared the cache.
+                if (_cancelled || object.isDeleted())
+                {
+                    _objects.remove(object.getObjectId());
+                }
+                else
+                {
+                    _objects.put(object.getObjectId(), object);
+                }
+            }
+        }
+        return object;
+    }
+
+    /**
+     * Evict the cached objects published before the Agent restarted, that is those from an earlier Agent Epoch.
+     *
+     * @param epoch the Agent Epoch of an object that has been published in full.
+     */
+    private synchronized void evictEarlierEpochs(final long epoch)
+    {
+        if (epoch > _epoch)
+        {
+            for (Iterator<ObjectId> i = _objects.keySet().iterator(); i.hasNext();)
+            {
+                if (i.next().getAgentEpoch() < epoch)
+                {
+                    i.remove();
+                }
+            }
+            _epoch = epoch;
+        }
+    }
+
+    /**
+     * Evict all the cached objects, called when the Agent restarts as it publishes everything in full again.
+     */
+    synchronized void evictObjects()
+    {
+        _objects.clear();
+    }
+
     /**
      * Create a Map encoded version.
      * <p>
@@ -0,0 +1,208 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.util;
+
+// Misc Imports
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A TimingWheel tracks the deadlines of a set of keys, such as the heartbeat deadlines of Agents or the lease
+ * deadlines of Subscriptions, so that the keys whose deadline has passed can be found without checking every key.
+ * <p>
+ * This is a hashed timing wheel. Time is divided into ticks and the wheel has a fixed number of slots, each holding
+ * a doubly linked list of the keys whose deadline falls on a tick that maps to that slot. Deadlines further away than
+ * one revolution of the wheel are handled by recording the number of whole revolutions remaining, so the wheel
+ * needn't be sized for the longest deadline. Scheduling, rescheduling and cancelling a key are all O(1) and
+ * advance() only visits the slots of the ticks that have elapsed.
+ * <p>
+ * Deadlines are rounded up to a whole tick, so a key never expires early but may expire up to a tick late.
+ * <p>
+ * The TimingWheel is thread safe, all of its methods are synchronized.
+ *
+ * @param <T> the type of the keys being tracked. Keys are held in a HashMap so must implement equals/hashCode
+ *        consistently, the identity semantics of Agent and SubscriptionManager are fine.
+ */
+public final class TimingWheel<T>
+{
+    /**
+     * The position of a key on the wheel.
+     */
+    private static final class Entry<T>
+    {
+        private final T _key;
+        private long _rounds;
+        private int _slot = -1;
+        private Entry<T> _previous;
+        private Entry<T> _next;
+
+        Entry(final T key)
+        {
+            _key = key;
+        }
+    }
+
+    private final long _tickDuration;
+    private final long _startTime;
+    private final Entry<T>[] _slots;
+    private final Map<T, Entry<T>> _entries = new HashMap<T, Entry<T>>();
+
+    /**
+     * The number of the last tick processed by advance(), counted from _startTime.
+     */
+    private long _tick = 0;
+
+    /**
+     * Construct a TimingWheel.
+     *
+     * @param tickDuration the duration of a tick in milliseconds.
+     * @param size the number of slots in the wheel.
+     */
+    @SuppressWarnings("unchecked")
+    public TimingWheel(final long tickDuration, final int size)
+    {
+        _tickDuration = tickDuration;
+        _startTime = System.currentTimeMillis();
+        _slots = (Entry<T>[])new Entry[size];
+    }
+
+    /**
+     * Schedule a key to expire at the given deadline. If the key is already scheduled it is rescheduled.
+     *
+     * @param key the key to schedule.
+     * @param deadline the time in milliseconds since the epoch at which the key expires.
+     */
+    public synchronized void schedule(final T key, final long deadline)
+    {
+        Entry<T> entry = _entries.get(key);
+        if (entry == null)
+        {
+            entry = new Entry<T>(key);
+            _entries.put(key, entry);
+        }
+        else
+        {
+            unlink(entry);
+        }
+
+        // The first tick that ends at or after the deadline, though no earlier than the next tick to be processed.
+        long tick = Math.max((deadline - _startTime + _tickDuration - 1)/_tickDuration, _tick + 1);
+        entry._rounds = (tick - _tick - 1)/_slots.length;
+        entry._slot = (int)(tick % _slots.length);
+        entry._next = _slots[entry._slot];
+        if (entry._next != null)
+        {
+            entry._next._previous = entry;
+        }
+        _slots[entry._slot] = entry;
+    }
+
+    /**
+     * Stop tracking a key.
+     *
+     * @param key the key to cancel.
+     * @return true if the key was scheduled.
+     */
+    public synchronized boolean cancel(final T key)
+    {
+        Entry<T> entry = _entries.remove(key);
+        if (entry == null)
+        {
+            return false;
+        }
+        unlink(entry);
+        return true;
+    }
+
+    /**
+     * Return the number of keys being tracked.
+     * @return the number of keys being tracked.
+     */
+    public synchronized int size()
+    {
+        return _entries.size();
+    }
+
+    /**
+     * Process the ticks that have elapsed up to the given time, returning the keys whose deadline has passed. The
+     * returned keys are no longer tracked, they may be rescheduled if it turns out they shouldn't have expired.
+     *
+     * @param now the current time in milliseconds since the epoch.
+     * @return the keys that have expired, an empty List if there are none.
+     */
+    public synchronized List<T> advance(final long now)
+    {
+        List<T> expired = new ArrayList<T>(0);
+        long target = (now - _startTime)/_tickDuration;
+        while (_tick < target)
+        {
+            _tick++;
+            Entry<T> entry = _slots[(int)(_tick % _slots.length)];
+            while (entry != null)
+            {
+                Entry<T> next = entry._next;
+                if (entry._rounds == 0)
+                {
+                    unlink(entry);
+                    _entries.remove(entry._key);
+                    expired.add(entry._key);
+                }
+                else
+                {
+                    entry._rounds--;
+                }
+                entry = next;
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Remove an Entry from the list of the slot that it's in.
+     */
+    private void unlink(final Entry<T> entry)
+    {
+        if (entry._slot < 0)
+        {
+            return;
+        }
+
+        if (entry._previous == null)
+        {
+            _slots[entry._slot] = entry._next;
+        }
+        else
+        {
+            entry._previous._next = entry._next;
+        }
+
+        if (entry._next != null)
+        {
+            entry._next._previous = entry._previous;
+        }
+
+        entry._previous = null;
+        entry._next = null;
+        entry._slot = -1;
+    }
+}